@@ -0,0 +1,185 @@
+/*
+    Copyright 2016 Mark Otway
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.otway.picasasync.benchmarks;
+
+import com.otway.picasasync.config.Settings;
+import com.otway.picasasync.metadata.LocalIndex;
+import com.otway.picasasync.metadata.RemoteAlbum;
+import com.otway.picasasync.metadata.RemotePhoto;
+import com.otway.picasasync.syncutil.AlbumDiff;
+import com.otway.picasasync.syncutil.ImageSync;
+import com.otway.picasasync.syncutil.SyncManager;
+import com.otway.picasasync.utils.ExternalSorter;
+import com.otway.picasasync.webclient.FeedParser;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building the per-album image list: parsing the album feed, sorting it,
+ * listing the local folder and merge-joining the two into actions. This
+ * is what every album goes through on every sync, whether or not anything
+ * has changed.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class AlbumDiffBenchmark
+{
+    @Param({ "1000", "10000" })
+    public int photoCount;
+
+    private File rootFolder;
+    private File albumFolder;
+    private Settings settings;
+    private SyncManager syncManager;
+    private LocalDateTime oldestDate;
+    private byte[] feed;
+    private List<RemotePhoto> sortedPhotos;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception
+    {
+        Fixtures.quietLogging();
+
+        rootFolder = Fixtures.createFolder( "diff" );
+        albumFolder = new File( rootFolder, "Synthetic album" );
+        albumFolder.mkdirs();
+
+        settings = Fixtures.createSettings( rootFolder );
+        syncManager = new SyncManager( settings );
+        oldestDate = LocalDateTime.now().minusYears( 100 );
+
+        List<RemotePhoto> photos = Fixtures.createRemotePhotos( photoCount );
+        feed = Fixtures.createAlbumFeed( photos );
+
+        // Half the album is already local - some unchanged, some edited
+        // locally - plus a few local-only files waiting to be uploaded.
+        byte[] jpeg = Fixtures.createJpeg( 64, 48 );
+        for( int i = 0; i < photos.size(); i += 2 )
+        {
+            RemotePhoto photo = photos.get( i );
+            long edited = ( i % 10 == 0 ) ? 24 * 60 * 60 * 1000 : 0;
+            Fixtures.writeFile( new File( albumFolder, photo.getTitle() ), jpeg, photo.getUpdated() + edited );
+        }
+
+        for( int i = 0; i < photoCount / 10; i++ )
+            Fixtures.writeFile( new File( albumFolder, String.format( "LOCAL_%05d.JPG", i ) ), jpeg, Fixtures.BASE_TIME );
+
+        sortedPhotos = parseFeed();
+        AlbumDiff.sortByName( sortedPhotos );
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown()
+    {
+        syncManager.shutDown();
+        Fixtures.deleteFolder( rootFolder );
+    }
+
+    @Benchmark
+    public List<RemotePhoto> parseFeed() throws Exception
+    {
+        final List<RemotePhoto> photos = new ArrayList<RemotePhoto>( photoCount );
+
+        FeedParser.parse( new ByteArrayInputStream( feed ), new FeedParser.Listener()
+        {
+            public void onPhoto( RemotePhoto photo ) { photos.add( photo ); }
+            public void onAlbum( RemoteAlbum album ) { }
+        });
+
+        return photos;
+    }
+
+    @Benchmark
+    public long listLocalFiles() throws Exception
+    {
+        ExternalSorter<File> files = AlbumDiff.sortLocalFiles( albumFolder, settings.getSpillThreshold() );
+
+        try
+        {
+            Iterator<File> sorted = files.sortedIterator();
+            long count = 0;
+            while( sorted.hasNext() )
+            {
+                sorted.next();
+                count++;
+            }
+            return count;
+        }
+        finally
+        {
+            files.close();
+        }
+    }
+
+    /**
+     * Just the merge-join and classification, from an already sorted
+     * remote listing.
+     */
+    @Benchmark
+    public int[] diff() throws Exception
+    {
+        return diff( sortedPhotos );
+    }
+
+    /**
+     * The whole thing, from feed bytes to a list of actions.
+     */
+    @Benchmark
+    public int[] buildImageList() throws Exception
+    {
+        List<RemotePhoto> photos = parseFeed();
+        AlbumDiff.sortByName( photos );
+        return diff( photos );
+    }
+
+    private int[] diff( List<RemotePhoto> photos ) throws Exception
+    {
+        final int[] counts = new int[ImageSync.UpdateAction.values().length];
+
+        AlbumDiff albumDiff = new AlbumDiff( settings, syncManager, false, oldestDate, LocalIndex.load( albumFolder ) );
+        ExternalSorter<File> localFiles = AlbumDiff.sortLocalFiles( albumFolder, settings.getSpillThreshold() );
+
+        try
+        {
+            albumDiff.diff( photos.iterator(), localFiles.sortedIterator(), albumFolder,
+                    new AlbumDiff.Listener()
+                    {
+                        public void onImage( ImageSync image, ImageSync.UpdateAction action )
+                        {
+                            counts[action.ordinal()]++;
+                        }
+                    });
+        }
+        finally
+        {
+            localFiles.close();
+        }
+
+        return counts;
+    }
+}
@@ -0,0 +1,51 @@
+/*
+    Copyright 2016 Mark Otway
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.otway.picasasync.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the GC profiler attached, so allocation rates
+ * are reported alongside the timings. Pass a regex to run a subset, e.g.
+ *
+ *     java -cp target/benchmarks.jar com.otway.picasasync.benchmarks.BenchmarkRunner AlbumDiff
+ *
+ * Results are also written to benchmarks.json for comparing runs. The
+ * standard JMH command line (java -jar target/benchmarks.jar -prof gc)
+ * works too.
+ */
+public class BenchmarkRunner
+{
+    public static void main( String[] args ) throws RunnerException
+    {
+        String include = args.length > 0 ? args[0] : BenchmarkRunner.class.getPackage().getName() + ".*";
+
+        Options options = new OptionsBuilder()
+                .include( include )
+                .addProfiler( GCProfiler.class )
+                .resultFormat( ResultFormatType.JSON )
+                .result( "benchmarks.json" )
+                .build();
+
+        new Runner( options ).run();
+    }
+}
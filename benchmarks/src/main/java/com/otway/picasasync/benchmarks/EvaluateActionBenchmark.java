@@ -0,0 +1,111 @@
+/*
+    Copyright 2016 Mark Otway
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.otway.picasasync.benchmarks;
+
+import com.otway.picasasync.config.Settings;
+import com.otway.picasasync.metadata.LocalIndex;
+import com.otway.picasasync.metadata.RemotePhoto;
+import com.otway.picasasync.syncutil.ImageSync;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ImageSync.evaluateAction over a mix of the cases a real album has:
+ * unchanged files whose digest is in the local index, files changed on
+ * one side or the other, and files that only exist locally or remotely.
+ * Each invocation evaluates the whole set, so the score is per image.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class EvaluateActionBenchmark
+{
+    private static final int IMAGES = 1000;
+
+    @Param({ "false", "true" })
+    public boolean isAutoBackup;
+
+    private File folder;
+    private Settings settings;
+    private LocalIndex index;
+    private ImageSync[] images;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception
+    {
+        Fixtures.quietLogging();
+
+        folder = Fixtures.createFolder( "evaluate" );
+        settings = Fixtures.createSettings( folder );
+        index = LocalIndex.load( folder );
+
+        byte[] jpeg = Fixtures.createJpeg( 64, 48 );
+        List<RemotePhoto> photos = Fixtures.createRemotePhotos( IMAGES );
+        images = new ImageSync[IMAGES];
+
+        for( int i = 0; i < IMAGES; i++ )
+        {
+            RemotePhoto photo = photos.get( i );
+            File file = new File( folder, photo.getTitle() );
+
+            switch( i % 5 )
+            {
+                case 0: // Unchanged, with the digest already recorded
+                    Fixtures.writeFile( file, jpeg, photo.getUpdated() );
+                    index.putDigest( file, file.length(), file.lastModified(), photo.getChecksum() );
+                    images[i] = new ImageSync( photo, file );
+                    break;
+                case 1: // Edited locally
+                    Fixtures.writeFile( file, jpeg, photo.getUpdated() + 60 * 60 * 1000 );
+                    images[i] = new ImageSync( photo, file );
+                    break;
+                case 2: // Edited remotely
+                    Fixtures.writeFile( file, jpeg, photo.getUpdated() - 60 * 60 * 1000 );
+                    images[i] = new ImageSync( photo, file );
+                    break;
+                case 3: // New locally
+                    Fixtures.writeFile( file, jpeg, photo.getUpdated() );
+                    images[i] = new ImageSync( null, file );
+                    break;
+                default: // New remotely
+                    images[i] = new ImageSync( photo, file );
+                    break;
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown()
+    {
+        Fixtures.deleteFolder( folder );
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(IMAGES)
+    public void evaluateAction( Blackhole blackhole )
+    {
+        for( ImageSync image : images )
+            blackhole.consume( image.evaluateAction( settings, isAutoBackup, index ) );
+    }
+}
@@ -0,0 +1,141 @@
+/*
+    Copyright 2016 Mark Otway
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.otway.picasasync.benchmarks;
+
+import com.google.gdata.client.photos.PicasawebService;
+import com.google.gdata.data.photos.AlbumFeed;
+import com.google.gdata.data.photos.GphotoEntry;
+import com.google.gdata.data.photos.PhotoEntry;
+import com.otway.picasasync.metadata.RemoteAlbum;
+import com.otway.picasasync.metadata.RemotePhoto;
+import com.otway.picasasync.webclient.FeedParser;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The same album feed parsed into the compact RemotePhoto records the
+ * sync now uses, and into the GData PhotoEntry model it used before.
+ * Each op is one entry, so with the GC profiler gc.alloc.rate.norm is
+ * the bytes allocated per entry.
+ *
+ * What matters for a large library is what's held on to afterwards, which
+ * JMH doesn't measure; running the class directly reports that instead:
+ *
+ *     java -cp target/benchmarks.jar com.otway.picasasync.benchmarks.FeedMemoryBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class FeedMemoryBenchmark
+{
+    private static final int ENTRIES = 5000;
+
+    // Keeps a parsed feed reachable while the heap is measured
+    private static Object retained;
+
+    private PicasawebService service;
+    private byte[] feed;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception
+    {
+        Fixtures.quietLogging();
+
+        service = new PicasawebService( "picasync-benchmark" );
+        feed = Fixtures.createAlbumFeed( Fixtures.createRemotePhotos( ENTRIES ) );
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ENTRIES)
+    public List<RemotePhoto> parseRemotePhotos() throws Exception
+    {
+        final List<RemotePhoto> photos = new ArrayList<RemotePhoto>( ENTRIES );
+
+        FeedParser.parse( new ByteArrayInputStream( feed ), new FeedParser.Listener()
+        {
+            public void onPhoto( RemotePhoto photo ) { photos.add( photo ); }
+            public void onAlbum( RemoteAlbum album ) { }
+        });
+
+        return photos;
+    }
+
+    /**
+     * As PicasawebClient.getPhotos does it.
+     */
+    @Benchmark
+    @OperationsPerInvocation(ENTRIES)
+    public List<PhotoEntry> parsePhotoEntries() throws Exception
+    {
+        List<PhotoEntry> photos = new ArrayList<PhotoEntry>( ENTRIES );
+
+        AlbumFeed albumFeed = new AlbumFeed();
+        albumFeed.parseAtom( service.getExtensionProfile(), new ByteArrayInputStream( feed ) );
+
+        for( GphotoEntry entry : albumFeed.getEntries() )
+        {
+            GphotoEntry adapted = entry.getAdaptedEntry();
+            if( adapted instanceof PhotoEntry )
+                photos.add( (PhotoEntry) adapted );
+        }
+
+        return photos;
+    }
+
+    public static void main( String[] args ) throws Exception
+    {
+        FeedMemoryBenchmark benchmark = new FeedMemoryBenchmark();
+        benchmark.setUp();
+
+        // Parse both once first, so class loading and static caches aren't counted
+        benchmark.parseRemotePhotos();
+        benchmark.parsePhotoEntries();
+
+        long before = usedHeap();
+        retained = benchmark.parseRemotePhotos();
+        long compact = ( usedHeap() - before ) / ENTRIES;
+        retained = null;
+
+        before = usedHeap();
+        retained = benchmark.parsePhotoEntries();
+        long gdata = ( usedHeap() - before ) / ENTRIES;
+        retained = null;
+
+        System.out.println( String.format( "Retained per entry, over %d entries: RemotePhoto %d bytes, "
+                + "PhotoEntry %d bytes (%.1fx)", ENTRIES, compact, gdata, (double) gdata / Math.max( 1, compact ) ) );
+    }
+
+    private static long usedHeap() throws InterruptedException
+    {
+        Runtime runtime = Runtime.getRuntime();
+
+        for( int i = 0; i < 4; i++ )
+        {
+            System.gc();
+            Thread.sleep( 100 );
+        }
+
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
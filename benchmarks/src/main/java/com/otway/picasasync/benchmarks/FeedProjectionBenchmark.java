@@ -0,0 +1,102 @@
+/*
+    Copyright 2016 Mark Otway
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.otway.picasasync.benchmarks;
+
+import com.otway.picasasync.metadata.RemoteAlbum;
+import com.otway.picasasync.metadata.RemotePhoto;
+import com.otway.picasasync.webclient.FeedParser;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A 10,000 entry album feed with and without the fields= projection that
+ * PicasawebClient asks for, each plain and gzipped: the bytes on the wire
+ * (printed at the start of each trial) and the time to decompress and
+ * parse them.
+ *
+ * The unprojected entries are the fixture's usual shape, which is already
+ * leaner than what Picasa sends (no content, published, extra links or
+ * most of the gphoto and EXIF elements), so the saving here is an
+ * underestimate.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class FeedProjectionBenchmark
+{
+    private static final int ENTRIES = 10000;
+
+    @Param({ "false", "true" })
+    public boolean projected;
+
+    @Param({ "false", "true" })
+    public boolean gzip;
+
+    private byte[] feed;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception
+    {
+        Fixtures.quietLogging();
+
+        byte[] xml = Fixtures.createAlbumFeed( Fixtures.createRemotePhotos( ENTRIES ), projected );
+        feed = gzip ? compress( xml ) : xml;
+
+        System.out.println( String.format( "Feed of %d entries, %s, %s: %d bytes (%d per entry)", ENTRIES,
+                projected ? "projected" : "not projected", gzip ? "gzipped" : "plain", feed.length,
+                feed.length / ENTRIES ) );
+    }
+
+    @Benchmark
+    public List<RemotePhoto> parseFeed() throws Exception
+    {
+        final List<RemotePhoto> photos = new ArrayList<RemotePhoto>( ENTRIES );
+        InputStream is = new ByteArrayInputStream( feed );
+
+        if( gzip )
+            is = new GZIPInputStream( is );
+
+        FeedParser.parse( is, new FeedParser.Listener()
+        {
+            public void onPhoto( RemotePhoto photo ) { photos.add( photo ); }
+            public void onAlbum( RemoteAlbum album ) { }
+        });
+
+        return photos;
+    }
+
+    private static byte[] compress( byte[] data ) throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        GZIPOutputStream gz = new GZIPOutputStream( bytes );
+        gz.write( data );
+        gz.close();
+        return bytes.toByteArray();
+    }
+}
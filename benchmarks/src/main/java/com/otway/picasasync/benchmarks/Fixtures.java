@@ -0,0 +1,215 @@
+/*
+    Copyright 2016 Mark Otway
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.otway.picasasync.benchmarks;
+
+import com.otway.picasasync.config.Settings;
+import com.otway.picasasync.metadata.RemotePhoto;
+import org.apache.log4j.BasicConfigurator;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Synthetic data shared by the benchmarks: temp folders, settings that
+ * don't touch the user's prefs, small JPEGs and Picasa-style feeds.
+ */
+class Fixtures
+{
+    // Fixed seed so every run benchmarks the same data
+    static final long SEED = 20160101L;
+
+    // Spread photo times over the last few years
+    static final long BASE_TIME = Instant.parse("2013-01-01T00:00:00Z").toEpochMilli();
+    static final long TIME_SPAN = 3L * 365 * 24 * 60 * 60 * 1000;
+
+    static void quietLogging()
+    {
+        // Per-image info logging would swamp what we're trying to measure
+        if( ! Logger.getRootLogger().getAllAppenders().hasMoreElements() )
+            BasicConfigurator.configure();
+        Logger.getRootLogger().setLevel( Level.WARN );
+    }
+
+    static File createFolder( String name ) throws IOException
+    {
+        return Files.createTempDirectory( "picasync-bench-" + name ).toFile();
+    }
+
+    static void deleteFolder( File folder )
+    {
+        File[] files = folder.listFiles();
+        if( files != null )
+        {
+            for( File file : files )
+            {
+                if( file.isDirectory() )
+                    deleteFolder( file );
+                else
+                    file.delete();
+            }
+        }
+        folder.delete();
+    }
+
+    /**
+     * Settings with the given sync folder and the default sync options,
+     * backed by an in-memory preferences node.
+     */
+    static Settings createSettings( File rootFolder )
+    {
+        MemoryPreferences prefs = new MemoryPreferences();
+        prefs.put( "SyncFolder", rootFolder.getAbsolutePath() );
+        prefs.put( "DateRange", "36500" );
+        prefs.put( "ExcludeVideo", "false" );
+
+        Settings settings = new Settings( prefs );
+        settings.loadSettings();
+        return settings;
+    }
+
+    static byte[] createJpeg( int width, int height ) throws IOException
+    {
+        BufferedImage image = new BufferedImage( width, height, BufferedImage.TYPE_INT_RGB );
+        Graphics2D g = image.createGraphics();
+        g.setPaint( new GradientPaint( 0, 0, Color.BLUE, width, height, Color.ORANGE ) );
+        g.fillRect( 0, 0, width, height );
+        g.dispose();
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ImageIO.write( image, "jpg", bytes );
+        return bytes.toByteArray();
+    }
+
+    static void writeFile( File file, byte[] content, long lastModified ) throws IOException
+    {
+        FileOutputStream fos = new FileOutputStream( file );
+        try
+        {
+            fos.write( content );
+        }
+        finally
+        {
+            fos.close();
+        }
+
+        file.setLastModified( lastModified );
+    }
+
+    static String photoName( int index )
+    {
+        return String.format( "IMG_%05d.JPG", index );
+    }
+
+    static long photoTime( Random random )
+    {
+        return BASE_TIME + (long)( random.nextDouble() * TIME_SPAN );
+    }
+
+    static List<RemotePhoto> createRemotePhotos( int count )
+    {
+        Random random = new Random( SEED );
+        List<RemotePhoto> photos = new ArrayList<RemotePhoto>( count );
+
+        for( int i = 0; i < count; i++ )
+        {
+            long time = photoTime( random );
+            photos.add( new RemotePhoto( String.valueOf( 6000000000000000000L + i ), photoName( i ), time, time,
+                    1500000 + random.nextInt( 3000000 ), Long.toHexString( random.nextLong() ),
+                    new String[] { "holiday", "family" }, new String[] { "https://example.com/photo/" + i },
+                    Long.toHexString( random.nextLong() ), time, "https://example.com/entry/" + i ) );
+        }
+
+        return photos;
+    }
+
+    /**
+     * Builds one page of an album feed in the shape Picasa returns, with
+     * an entry for each photo.
+     */
+    static byte[] createAlbumFeed( List<RemotePhoto> photos )
+    {
+        return createAlbumFeed( photos, false );
+    }
+
+    /**
+     * As above; if projected, the entries only have the elements that
+     * PicasawebClient's fields= projection asks for.
+     */
+    static byte[] createAlbumFeed( List<RemotePhoto> photos, boolean projected )
+    {
+        StringBuilder sb = new StringBuilder( photos.size() * 1200 );
+
+        sb.append( "<?xml version='1.0' encoding='UTF-8'?>\n" );
+        sb.append( "<feed xmlns='http://www.w3.org/2005/Atom'" );
+        sb.append( " xmlns:gphoto='http://schemas.google.com/photos/2007'" );
+        sb.append( " xmlns:media='http://search.yahoo.com/mrss/'" );
+        sb.append( " xmlns:exif='http://schemas.google.com/photos/exif/2007'>\n" );
+        sb.append( "<id>https://picasaweb.google.com/data/feed/api/user/default/albumid/1</id>\n" );
+        sb.append( "<title>Synthetic album</title>\n" );
+
+        for( RemotePhoto photo : photos )
+        {
+            sb.append( "<entry>" );
+            sb.append( "<id>" ).append( photo.getSelfLink() ).append( "</id>" );
+            sb.append( "<updated>" ).append( Instant.ofEpochMilli( photo.getUpdated() ) ).append( "</updated>" );
+            sb.append( "<category scheme='http://schemas.google.com/g/2005#kind'" );
+            sb.append( " term='http://schemas.google.com/photos/2007#photo'/>" );
+            sb.append( "<title type='text'>" ).append( photo.getTitle() ).append( "</title>" );
+            if( ! projected )
+                sb.append( "<summary type='text'></summary>" );
+            sb.append( "<link rel='self' type='application/atom+xml' href='" ).append( photo.getSelfLink() ).append( "'/>" );
+            sb.append( "<gphoto:id>" ).append( photo.getPhotoId() ).append( "</gphoto:id>" );
+            if( ! projected )
+                sb.append( "<gphoto:width>4032</gphoto:width><gphoto:height>3024</gphoto:height>" );
+            sb.append( "<gphoto:size>" ).append( photo.getSize() ).append( "</gphoto:size>" );
+            sb.append( "<gphoto:checksum>" ).append( photo.getChecksum() ).append( "</gphoto:checksum>" );
+            sb.append( "<gphoto:timestamp>" ).append( photo.getTimestamp() ).append( "</gphoto:timestamp>" );
+            sb.append( "<exif:tags>" );
+            if( ! projected )
+                sb.append( "<exif:make>Apple</exif:make><exif:model>iPhone 6s</exif:model>" );
+            sb.append( "<exif:time>" ).append( photo.getExifTime() ).append( "</exif:time>" );
+            sb.append( "<exif:imageUniqueID>" ).append( photo.getExifUniqueId() ).append( "</exif:imageUniqueID>" );
+            sb.append( "</exif:tags>" );
+            sb.append( "<media:group>" );
+            for( String url : photo.getMediaUrls() )
+                sb.append( "<media:content url='" ).append( url ).append( "' type='image/jpeg' medium='image'/>" );
+            sb.append( "<media:keywords>holiday, family</media:keywords>" );
+            if( ! projected )
+                sb.append( "<media:thumbnail url='https://example.com/thumb/" ).append( photo.getPhotoId() ).append( "'/>" );
+            sb.append( "</media:group>" );
+            sb.append( "</entry>\n" );
+        }
+
+        sb.append( "</feed>\n" );
+        return sb.toString().getBytes( StandardCharsets.UTF_8 );
+    }
+}
@@ -0,0 +1,106 @@
+/*
+    Copyright 2016 Mark Otway
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+
+package com.otway.picasasync.benchmarks;
+
+import org.apache.log4j.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The per-image INFO logging the transfer threads do, through the file
+ * appender directly (as logging used to be set up) and through the
+ * AsyncAppender Main now puts in front of it, from four threads at once.
+ * The async appender is configured as Main configures it - when its
+ * buffer is full it drops messages rather than blocking.
+ *
+ * The disabled* benchmarks show the cost of a DEBUG message when DEBUG is
+ * off: string concatenation builds the message regardless, LogSF doesn't.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@Threads(4)
+public class LoggingBenchmark
+{
+    @Param({ "sync", "async" })
+    public String appender;
+
+    private Logger logger;
+    private Appender attached;
+    private File folder;
+    private File saveLocation;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception
+    {
+        folder = Fixtures.createFolder( "logging" );
+        saveLocation = new File( folder, Fixtures.photoName( 1 ) );
+
+        FileAppender file = new FileAppender( new PatternLayout( "%d %-5p [%c{1}] %m%n" ),
+                                              new File( folder, "benchmark.log" ).getPath(), false );
+        file.setThreshold( Level.INFO );
+
+        if( appender.equals( "async" ) )
+        {
+            AsyncAppender async = new AsyncAppender();
+            async.setBufferSize( 4096 );
+            async.setBlocking( false );
+            async.setLocationInfo( false );
+            async.addAppender( file );
+            attached = async;
+        }
+        else
+            attached = file;
+
+        logger = Logger.getLogger( LoggingBenchmark.class );
+        logger.setAdditivity( false );
+        logger.setLevel( Level.INFO );
+        logger.addAppender( attached );
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown()
+    {
+        logger.removeAppender( attached );
+        attached.close();
+        Fixtures.deleteFolder( folder );
+    }
+
+    @Benchmark
+    public void perImageInfo()
+    {
+        LogSF.info( logger, "Uploading new image to album {}: {}", "Synthetic album", saveLocation );
+    }
+
+    @Benchmark
+    public void disabledDebugConcatenated()
+    {
+        logger.debug( "Uploading new image to album " + "Synthetic album" + ": " + saveLocation );
+    }
+
+    @Benchmark
+    public void disabledDebugParameterised()
+    {
+        LogSF.debug( logger, "Uploading new image to album {}: {}", "Synthetic album", saveLocation );
+    }
+}
@@ -0,0 +1,77 @@
+/*
+    Copyright 2016 Mark Otway
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.otway.picasasync.benchmarks;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.prefs.AbstractPreferences;
+
+/**
+ * Preferences node that lives only in memory, so benchmark runs don't read
+ * or overwrite the real user settings.
+ */
+class MemoryPreferences extends AbstractPreferences
+{
+    private final Map<String, String> values = new HashMap<String, String>();
+    private final Map<String, MemoryPreferences> children = new HashMap<String, MemoryPreferences>();
+
+    MemoryPreferences()
+    {
+        this( null, "" );
+    }
+
+    private MemoryPreferences( MemoryPreferences parent, String name )
+    {
+        super( parent, name );
+    }
+
+    @Override
+    protected void putSpi( String key, String value ) { values.put( key, value ); }
+
+    @Override
+    protected String getSpi( String key ) { return values.get( key ); }
+
+    @Override
+    protected void removeSpi( String key ) { values.remove( key ); }
+
+    @Override
+    protected void removeNodeSpi() { values.clear(); }
+
+    @Override
+    protected String[] keysSpi() { return values.keySet().toArray( new String[values.size()] ); }
+
+    @Override
+    protected String[] childrenNamesSpi() { return children.keySet().toArray( new String[children.size()] ); }
+
+    @Override
+    protected AbstractPreferences childSpi( String name )
+    {
+        MemoryPreferences child = children.get( name );
+        if( child == null )
+        {
+            child = new MemoryPreferences( this, name );
+            children.put( name, child );
+        }
+        return child;
+    }
+
+    @Override
+    protected void syncSpi() { }
+
+    @Override
+    protected void flushSpi() { }
+}
@@ -0,0 +1,114 @@
+/*
+    Copyright 2016 Mark Otway
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.otway.picasasync.benchmarks;
+
+import com.otway.picasasync.metadata.ImageInformation;
+import com.otway.picasasync.metadata.RemotePhoto;
+import com.otway.picasasync.metadata.SimpleImageInfo;
+import com.otway.picasasync.metadata.UniquePhoto;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reading local image metadata, and building the identifiers used to match
+ * photos against the Recycle Bin. By default the image is a small generated
+ * JPEG with no EXIF; pass -p imagePath=/some/photo.jpg to measure against
+ * a real camera file.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class MetadataBenchmark
+{
+    @Param({ "" })
+    public String imagePath;
+
+    private File folder;
+    private File imageFile;
+    private RemotePhoto remotePhoto;
+    private RemotePhoto remotePhotoNoExif;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception
+    {
+        Fixtures.quietLogging();
+
+        folder = Fixtures.createFolder( "metadata" );
+
+        if( imagePath.isEmpty() )
+        {
+            imageFile = new File( folder, Fixtures.photoName( 1 ) );
+            Fixtures.writeFile( imageFile, Fixtures.createJpeg( 1024, 768 ), Fixtures.BASE_TIME );
+        }
+        else
+            imageFile = new File( imagePath );
+
+        remotePhoto = Fixtures.createRemotePhotos( 1 ).get( 0 );
+
+        // Without an EXIF ID the identifier falls back to name and time
+        remotePhotoNoExif = new RemotePhoto( remotePhoto.getPhotoId(), remotePhoto.getTitle(), remotePhoto.getUpdated(),
+                remotePhoto.getTimestamp(), remotePhoto.getSize(), remotePhoto.getChecksum(), null, null, null,
+                0, remotePhoto.getSelfLink() );
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown()
+    {
+        Fixtures.deleteFolder( folder );
+    }
+
+    @Benchmark
+    public ImageInformation readImageInformation() throws Exception
+    {
+        return ImageInformation.readImageInformation( imageFile );
+    }
+
+    @Benchmark
+    public ImageInformation safeReadImageInformation()
+    {
+        return ImageInformation.safeReadImageInformation( imageFile );
+    }
+
+    @Benchmark
+    public SimpleImageInfo simpleImageInfo() throws Exception
+    {
+        return new SimpleImageInfo( imageFile );
+    }
+
+    @Benchmark
+    public String uniqueIdentifierFromRemote()
+    {
+        return new UniquePhoto( remotePhoto ).getUniqueIdentifier();
+    }
+
+    @Benchmark
+    public String uniqueIdentifierFromRemoteNoExif()
+    {
+        return new UniquePhoto( remotePhotoNoExif ).getUniqueIdentifier();
+    }
+
+    @Benchmark
+    public String uniqueIdentifierFromFile() throws Exception
+    {
+        return new UniquePhoto( imageFile ).getUniqueIdentifier();
+    }
+}
@@ -0,0 +1,82 @@
+/*
+    Copyright 2016 Mark Otway
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.otway.picasasync.benchmarks;
+
+import com.otway.picasasync.picasaini.PicasaIniParser;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing a folder's .picasa.ini, with a section per image in the shape
+ * Picasa writes them (faces, filters, stars).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class PicasaIniBenchmark
+{
+    @Param({ "100", "5000" })
+    public int imageCount;
+
+    private File folder;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception
+    {
+        Fixtures.quietLogging();
+
+        folder = Fixtures.createFolder( "picasaini" );
+
+        StringBuilder sb = new StringBuilder();
+        sb.append( "[Picasa]\r\nname=Synthetic album\r\ndate=41275.500000\r\n" );
+        sb.append( "[Contacts2]\r\n8e62398ebda8c1a5=Somebody;;\r\n" );
+
+        for( int i = 0; i < imageCount; i++ )
+        {
+            sb.append( '[' ).append( Fixtures.photoName( i ) ).append( "]\r\n" );
+            sb.append( "faces=rect64(3f845bcb59418507),8e62398ebda8c1a5\r\n" );
+            sb.append( "backuphash=" ).append( 10000 + i ).append( "\r\n" );
+            if( i % 3 == 0 )
+                sb.append( "star=yes\r\n" );
+            if( i % 7 == 0 )
+                sb.append( "filters=crop64=1,1a0b0000e5f4ffff;\r\n" );
+        }
+
+        Fixtures.writeFile( new File( folder, ".picasa.ini" ), sb.toString().getBytes( StandardCharsets.UTF_8 ),
+                Fixtures.BASE_TIME );
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown()
+    {
+        Fixtures.deleteFolder( folder );
+    }
+
+    @Benchmark
+    public PicasaIniParser parse() throws Exception
+    {
+        PicasaIniParser parser = new PicasaIniParser( folder );
+        parser.parse();
+        return parser;
+    }
+}
@@ -0,0 +1,149 @@
+/*
+    Copyright 2016 Mark Otway
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+
+package com.otway.picasasync.benchmarks;
+
+import com.otway.picasasync.syncutil.SyncState;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The per-file bookkeeping every transfer thread does against the shared
+ * SyncState - check for cancellation, count the transfer in and out of its
+ * lane, add the stats - with the GUI polling for snapshots alongside.
+ * The locked variant is SyncState as it was, with every read and write
+ * under one monitor, as a baseline. Each group is four transfer threads
+ * and one poller; try other thread counts with, e.g.
+ *
+ *     java -jar target/benchmarks.jar SyncStateBenchmark -tg 8,1
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SyncStateBenchmark
+{
+    /*
+     * The previous implementation, kept here for comparison.
+     */
+    static class LockedSyncState
+    {
+        private final Object lock = new Object();
+        private boolean cancelled;
+        private int totalDownloaded;
+        private int totalUploaded;
+        private int totalFailed;
+        private long bytesDownloaded;
+        private long downloadMillis;
+        private long inFlight;
+        private long queued;
+
+        boolean getIsCancelled() { synchronized( lock ) { return cancelled; } }
+
+        void transferStarted() { synchronized( lock ) { queued--; inFlight++; } }
+        void transferEnded() { synchronized( lock ) { inFlight--; } }
+
+        void addStats( int downloaded, int uploaded, int failed )
+        {
+            synchronized( lock ) {
+                totalDownloaded += downloaded;
+                totalUploaded += uploaded;
+                totalFailed += failed;
+            }
+        }
+
+        void addTransfer( long bytes, long millis )
+        {
+            synchronized( lock ) {
+                bytesDownloaded += bytes;
+                downloadMillis += millis;
+            }
+        }
+
+        String getStats()
+        {
+            synchronized( lock ) {
+                return String.format( "%d downloaded, %d uploaded, %d failed",
+                                      totalDownloaded, totalUploaded, totalFailed );
+            }
+        }
+    }
+
+    @State(Scope.Group)
+    public static class Shared
+    {
+        SyncState lockFree;
+        LockedSyncState locked;
+
+        @Setup(Level.Trial)
+        public void setUp()
+        {
+            lockFree = new SyncState();
+            lockFree.start();
+            locked = new LockedSyncState();
+        }
+    }
+
+    @Benchmark
+    @Group("lockFree")
+    @GroupThreads(4)
+    public boolean lockFreeTransfer( Shared shared )
+    {
+        SyncState state = shared.lockFree;
+
+        state.transferStarted( false );
+        state.transferEnded( false );
+        state.addStats( 1, 0, 0 );
+        state.addTransfer( false, 2048, 1 );
+        return state.getIsCancelled();
+    }
+
+    @Benchmark
+    @Group("lockFree")
+    @GroupThreads(1)
+    public void lockFreePoll( Shared shared, Blackhole blackhole )
+    {
+        SyncState.Snapshot snapshot = shared.lockFree.pollChanges();
+        if( snapshot != null )
+            blackhole.consume( snapshot.getStats() );
+    }
+
+    @Benchmark
+    @Group("locked")
+    @GroupThreads(4)
+    public boolean lockedTransfer( Shared shared )
+    {
+        LockedSyncState state = shared.locked;
+
+        state.transferStarted();
+        state.transferEnded();
+        state.addStats( 1, 0, 0 );
+        state.addTransfer( 2048, 1 );
+        return state.getIsCancelled();
+    }
+
+    @Benchmark
+    @Group("locked")
+    @GroupThreads(1)
+    public void lockedPoll( Shared shared, Blackhole blackhole )
+    {
+        blackhole.consume( shared.locked.getStats() );
+    }
+}
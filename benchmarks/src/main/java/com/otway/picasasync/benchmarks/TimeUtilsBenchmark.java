@@ -0,0 +1,154 @@
+/*
+    Copyright 2016 Mark Otway
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.otway.picasasync.benchmarks;
+
+import com.google.gdata.data.DateTime;
+import com.google.gdata.data.photos.AlbumEntry;
+import com.google.gdata.data.photos.PhotoEntry;
+import com.otway.picasasync.config.Settings;
+import com.otway.picasasync.metadata.RemotePhoto;
+import com.otway.picasasync.syncutil.AlbumSync;
+import com.otway.picasasync.utils.TimeUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The newest-first sorts in TimeUtils. Each benchmark sorts a fresh copy
+ * of a shuffled list, so the copy is included in the score. The folder and
+ * album sorts read dates from the file system in their comparators, which
+ * is the cost we want to see.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class TimeUtilsBenchmark
+{
+    private static final int FILES_PER_ALBUM = 20;
+
+    @Param({ "10000" })
+    public int photoCount;
+
+    @Param({ "200" })
+    public int albumCount;
+
+    private File rootFolder;
+    private List<RemotePhoto> remotePhotos;
+    private List<PhotoEntry> photoEntries;
+    private List<AlbumEntry> albumEntries;
+    private List<File> folders;
+    private List<AlbumSync> albums;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception
+    {
+        Fixtures.quietLogging();
+
+        Random random = new Random( Fixtures.SEED );
+
+        remotePhotos = Fixtures.createRemotePhotos( photoCount );
+        Collections.shuffle( remotePhotos, random );
+
+        photoEntries = new ArrayList<PhotoEntry>( photoCount );
+        for( RemotePhoto photo : remotePhotos )
+        {
+            PhotoEntry entry = new PhotoEntry();
+            entry.setUpdated( new DateTime( photo.getUpdated() ) );
+            photoEntries.add( entry );
+        }
+
+        rootFolder = Fixtures.createFolder( "sorts" );
+        Settings settings = Fixtures.createSettings( rootFolder );
+        byte[] jpeg = Fixtures.createJpeg( 16, 16 );
+
+        albumEntries = new ArrayList<AlbumEntry>( albumCount );
+        folders = new ArrayList<File>( albumCount );
+        albums = new ArrayList<AlbumSync>( albumCount );
+
+        for( int i = 0; i < albumCount; i++ )
+        {
+            long albumTime = Fixtures.photoTime( random );
+
+            AlbumEntry entry = new AlbumEntry();
+            entry.setUpdated( new DateTime( albumTime ) );
+            albumEntries.add( entry );
+
+            File folder = new File( rootFolder, String.format( "Album %04d", i ) );
+            folder.mkdirs();
+            for( int f = 0; f < FILES_PER_ALBUM; f++ )
+                Fixtures.writeFile( new File( folder, Fixtures.photoName( f ) ), jpeg, albumTime - f * 60000L );
+            folder.setLastModified( albumTime );
+
+            folders.add( folder );
+            albums.add( new AlbumSync( null, folder, null, settings ) );
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown()
+    {
+        Fixtures.deleteFolder( rootFolder );
+    }
+
+    @Benchmark
+    public List<RemotePhoto> sortRemotePhotos()
+    {
+        List<RemotePhoto> copy = new ArrayList<RemotePhoto>( remotePhotos );
+        TimeUtils.sortRemotePhotosNewestFirst( copy );
+        return copy;
+    }
+
+    @Benchmark
+    public List<PhotoEntry> sortPhotoEntries()
+    {
+        List<PhotoEntry> copy = new ArrayList<PhotoEntry>( photoEntries );
+        TimeUtils.sortPhotoEntriesNewestFirst( copy );
+        return copy;
+    }
+
+    @Benchmark
+    public List<AlbumEntry> sortAlbumEntries()
+    {
+        List<AlbumEntry> copy = new ArrayList<AlbumEntry>( albumEntries );
+        TimeUtils.sortAlbumEntriesNewestFirst( copy );
+        return copy;
+    }
+
+    @Benchmark
+    public List<File> sortFolders()
+    {
+        List<File> copy = new ArrayList<File>( folders );
+        TimeUtils.sortFoldersNewestFirst( copy );
+        return copy;
+    }
+
+    @Benchmark
+    public List<AlbumSync> sortAlbumSyncs()
+    {
+        List<AlbumSync> copy = new ArrayList<AlbumSync>( albums );
+        TimeUtils.sortSyncNewestFirst( copy );
+        return copy;
+    }
+}
@@ -0,0 +1,125 @@
+/*
+    Copyright 2016 Mark Otway
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.otway.picasasync.benchmarks;
+
+import com.google.gdata.data.media.MediaFileSource;
+import com.otway.picasasync.webclient.HashingMediaSource;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hashing an upload: HashingMediaSource computes the MD5 from the same
+ * read that sends the body, where the two-pass approach it replaced read
+ * the whole file to hash it, then again to send it. The "send" here just
+ * drains the stream.
+ *
+ * The file stays in the page cache between reads, which flatters the
+ * two-pass approach; the gap is wider on a spinning disk with a cold
+ * cache. Pass -p folder=/some/disk/path to put the file on another disk.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class UploadHashBenchmark
+{
+    @Param({ "4194304", "67108864" })
+    public int fileSize;
+
+    @Param({ "" })
+    public String folder;
+
+    private File benchmarkFolder;
+    private File file;
+    private byte[] sink;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception
+    {
+        Fixtures.quietLogging();
+
+        benchmarkFolder = folder.isEmpty() ? Fixtures.createFolder( "upload-hash" ) : new File( folder, "upload-hash" );
+        benchmarkFolder.mkdirs();
+
+        byte[] content = new byte[fileSize];
+        new Random( 1 ).nextBytes( content );
+
+        file = new File( benchmarkFolder, "VID_00001.MP4" );
+        Fixtures.writeFile( file, content, Fixtures.BASE_TIME );
+
+        sink = new byte[64 * 1024];
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown()
+    {
+        Fixtures.deleteFolder( benchmarkFolder );
+    }
+
+    @Benchmark
+    public String singlePass() throws IOException
+    {
+        HashingMediaSource source = new HashingMediaSource( file, "video/mp4" );
+        drain( source.getInputStream() );
+        return source.getDigest();
+    }
+
+    @Benchmark
+    public String twoPass() throws IOException
+    {
+        String md5;
+        InputStream fis = new FileInputStream( file );
+        try
+        {
+            md5 = DigestUtils.md5Hex( fis );
+        }
+        finally
+        {
+            fis.close();
+        }
+
+        drain( new MediaFileSource( file, "video/mp4" ).getInputStream() );
+        return md5;
+    }
+
+    private long drain( InputStream is ) throws IOException
+    {
+        long total = 0;
+        int read;
+
+        try
+        {
+            while( ( read = is.read( sink ) ) != -1 )
+                total += read;
+        }
+        finally
+        {
+            is.close();
+        }
+
+        return total;
+    }
+}
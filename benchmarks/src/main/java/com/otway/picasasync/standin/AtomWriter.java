@@ -0,0 +1,270 @@
+/*
+    Copyright 2016 Mark Otway
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.otway.picasasync.standin;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * Writes the Picasa feeds and entries served by the stand-in, with the
+ * same URL layout as the real API (relative to the server's base URL), so
+ * both the GData model and FeedParser can read them and links derived by
+ * the client (e.g. the resumable upload URL) land back on the stand-in.
+ */
+class AtomWriter
+{
+    static final String FEED_PATH = "/data/feed/api/user/";
+    static final String ENTRY_PATH = "/data/entry/api/user/";
+    static final String MEDIA_EDIT_PATH = "/data/media/api/user/";
+    static final String CREATE_SESSION_PATH = "/data/upload/resumable/media/create-session/feed/api/user/";
+    static final String SESSION_PATH = "/data/upload/resumable/session/";
+    static final String MEDIA_PATH = "/media/";
+
+    private static final String NAMESPACES = " xmlns='http://www.w3.org/2005/Atom'"
+            + " xmlns:gd='http://schemas.google.com/g/2005'"
+            + " xmlns:openSearch='http://a9.com/-/spec/opensearch/1.1/'"
+            + " xmlns:gphoto='http://schemas.google.com/photos/2007'"
+            + " xmlns:media='http://search.yahoo.com/mrss/'"
+            + " xmlns:exif='http://schemas.google.com/photos/exif/2007'";
+
+    private static final String KIND_SCHEME = "http://schemas.google.com/g/2005#kind";
+    private static final String KIND_PREFIX = "http://schemas.google.com/photos/2007#";
+    private static final String FEED_REL = "http://schemas.google.com/g/2005#feed";
+    private static final String RESUMABLE_REL = "http://schemas.google.com/photos/2007#resumable-create-media";
+
+    private final String baseUrl;
+    private final String user;
+
+    AtomWriter( String baseUrl, String user )
+    {
+        this.baseUrl = baseUrl;
+        this.user = user;
+    }
+
+    static String etag( long version )
+    {
+        return "W/\"" + Long.toHexString( version ) + "\"";
+    }
+
+    String albumFeedHref( SyntheticLibrary.Album album )
+    {
+        return baseUrl + FEED_PATH + user + "/albumid/" + album.getId();
+    }
+
+    String userFeed( List<SyntheticLibrary.Album> albums, long version )
+    {
+        StringBuilder sb = new StringBuilder( 1024 + albums.size() * 1500 );
+
+        sb.append( "<?xml version='1.0' encoding='UTF-8'?>\n" );
+        sb.append( "<feed" ).append( NAMESPACES ).append( " gd:etag='" ).append( escape( etag( version ) ) ).append( "'>" );
+        sb.append( "<id>" ).append( baseUrl ).append( FEED_PATH ).append( user ).append( "</id>" );
+        sb.append( "<updated>" ).append( date( System.currentTimeMillis() ) ).append( "</updated>" );
+        kind( sb, "user" );
+        sb.append( "<title type='text'>" ).append( escape( user ) ).append( "</title>" );
+        link( sb, FEED_REL, baseUrl + FEED_PATH + user );
+        link( sb, "self", baseUrl + FEED_PATH + user );
+        sb.append( "<author><name>" ).append( escape( user ) ).append( "</name></author>" );
+        sb.append( "<openSearch:totalResults>" ).append( albums.size() ).append( "</openSearch:totalResults>" );
+        sb.append( "<gphoto:user>" ).append( escape( user ) ).append( "</gphoto:user>" );
+
+        for( SyntheticLibrary.Album album : albums )
+            albumEntry( sb, album, false );
+
+        sb.append( "</feed>\n" );
+        return sb.toString();
+    }
+
+    String albumEntry( SyntheticLibrary.Album album )
+    {
+        StringBuilder sb = new StringBuilder( 2048 );
+        sb.append( "<?xml version='1.0' encoding='UTF-8'?>\n" );
+        albumEntry( sb, album, true );
+        return sb.toString();
+    }
+
+    private void albumEntry( StringBuilder sb, SyntheticLibrary.Album album, boolean standalone )
+    {
+        String entryHref = baseUrl + ENTRY_PATH + user + "/albumid/" + album.getId();
+
+        sb.append( "<entry" );
+        if( standalone )
+            sb.append( NAMESPACES );
+        sb.append( " gd:etag='" ).append( escape( etag( album.getUpdated() ) ) ).append( "'>" );
+        sb.append( "<id>" ).append( entryHref ).append( "</id>" );
+        sb.append( "<published>" ).append( date( album.getTimestamp() ) ).append( "</published>" );
+        sb.append( "<updated>" ).append( date( album.getUpdated() ) ).append( "</updated>" );
+        kind( sb, "album" );
+        sb.append( "<title type='text'>" ).append( escape( album.getTitle() ) ).append( "</title>" );
+        sb.append( "<summary type='text'></summary>" );
+        link( sb, FEED_REL, albumFeedHref( album ) );
+        link( sb, "self", entryHref );
+        link( sb, "edit", entryHref );
+        link( sb, RESUMABLE_REL, baseUrl + CREATE_SESSION_PATH + user + "/albumid/" + album.getId() );
+        sb.append( "<gphoto:id>" ).append( album.getId() ).append( "</gphoto:id>" );
+        sb.append( "<gphoto:name>" ).append( escape( album.getName() ) ).append( "</gphoto:name>" );
+        sb.append( "<gphoto:access>private</gphoto:access>" );
+        sb.append( "<gphoto:timestamp>" ).append( album.getTimestamp() ).append( "</gphoto:timestamp>" );
+        sb.append( "<gphoto:numphotos>" ).append( album.getNumPhotos() ).append( "</gphoto:numphotos>" );
+        sb.append( "<gphoto:user>" ).append( escape( user ) ).append( "</gphoto:user>" );
+        sb.append( "</entry>" );
+    }
+
+    /**
+     * One page of an album's photos. startIndex is 1-based, as in the API.
+     */
+    String albumFeed( SyntheticLibrary.Album album, List<SyntheticLibrary.Photo> photos, int startIndex,
+                      String nextHref )
+    {
+        StringBuilder sb = new StringBuilder( 1024 + photos.size() * 2000 );
+
+        sb.append( "<?xml version='1.0' encoding='UTF-8'?>\n" );
+        sb.append( "<feed" ).append( NAMESPACES ).append( " gd:etag='" ).append( escape( etag( album.getUpdated() ) ) ).append( "'>" );
+        sb.append( "<id>" ).append( albumFeedHref( album ) ).append( "</id>" );
+        sb.append( "<updated>" ).append( date( album.getUpdated() ) ).append( "</updated>" );
+        kind( sb, "album" );
+        sb.append( "<title type='text'>" ).append( escape( album.getTitle() ) ).append( "</title>" );
+        link( sb, FEED_REL, albumFeedHref( album ) );
+        link( sb, "self", albumFeedHref( album ) );
+        if( nextHref != null )
+            link( sb, "next", nextHref );
+        sb.append( "<author><name>" ).append( escape( user ) ).append( "</name></author>" );
+        sb.append( "<openSearch:totalResults>" ).append( album.getNumPhotos() ).append( "</openSearch:totalResults>" );
+        sb.append( "<openSearch:startIndex>" ).append( startIndex ).append( "</openSearch:startIndex>" );
+        sb.append( "<gphoto:id>" ).append( album.getId() ).append( "</gphoto:id>" );
+        sb.append( "<gphoto:name>" ).append( escape( album.getName() ) ).append( "</gphoto:name>" );
+        sb.append( "<gphoto:timestamp>" ).append( album.getTimestamp() ).append( "</gphoto:timestamp>" );
+        sb.append( "<gphoto:numphotos>" ).append( album.getNumPhotos() ).append( "</gphoto:numphotos>" );
+
+        for( SyntheticLibrary.Photo photo : photos )
+            photoEntry( sb, photo, false );
+
+        sb.append( "</feed>\n" );
+        return sb.toString();
+    }
+
+    String photoEntry( SyntheticLibrary.Photo photo )
+    {
+        StringBuilder sb = new StringBuilder( 2048 );
+        sb.append( "<?xml version='1.0' encoding='UTF-8'?>\n" );
+        photoEntry( sb, photo, true );
+        return sb.toString();
+    }
+
+    private void photoEntry( StringBuilder sb, SyntheticLibrary.Photo photo, boolean standalone )
+    {
+        String path = user + "/albumid/" + photo.getAlbumId() + "/photoid/" + photo.getId();
+        String entryHref = baseUrl + ENTRY_PATH + path;
+        String mediaUrl = mediaUrl( photo );
+
+        sb.append( "<entry" );
+        if( standalone )
+            sb.append( NAMESPACES );
+        sb.append( " gd:etag='" ).append( escape( etag( photo.getUpdated() ) ) ).append( "'>" );
+        sb.append( "<id>" ).append( entryHref ).append( "</id>" );
+        sb.append( "<published>" ).append( date( photo.getTimestamp() ) ).append( "</published>" );
+        sb.append( "<updated>" ).append( date( photo.getUpdated() ) ).append( "</updated>" );
+        kind( sb, "photo" );
+        sb.append( "<title type='text'>" ).append( escape( photo.getTitle() ) ).append( "</title>" );
+        sb.append( "<summary type='text'></summary>" );
+        sb.append( "<content type='image/jpeg' src='" ).append( escape( mediaUrl ) ).append( "'/>" );
+        link( sb, FEED_REL, baseUrl + FEED_PATH + path );
+        link( sb, "self", entryHref );
+        link( sb, "edit", entryHref );
+        link( sb, "edit-media", baseUrl + MEDIA_EDIT_PATH + path );
+        sb.append( "<gphoto:id>" ).append( photo.getId() ).append( "</gphoto:id>" );
+        sb.append( "<gphoto:albumid>" ).append( photo.getAlbumId() ).append( "</gphoto:albumid>" );
+        sb.append( "<gphoto:width>32</gphoto:width><gphoto:height>24</gphoto:height>" );
+        sb.append( "<gphoto:size>" ).append( photo.getSize() ).append( "</gphoto:size>" );
+        if( photo.getChecksum() != null )
+            sb.append( "<gphoto:checksum>" ).append( escape( photo.getChecksum() ) ).append( "</gphoto:checksum>" );
+        sb.append( "<gphoto:timestamp>" ).append( photo.getTimestamp() ).append( "</gphoto:timestamp>" );
+        sb.append( "<exif:tags>" );
+        sb.append( "<exif:time>" ).append( photo.getTimestamp() ).append( "</exif:time>" );
+        sb.append( "<exif:imageUniqueID>" ).append( photo.getExifUniqueId() ).append( "</exif:imageUniqueID>" );
+        sb.append( "</exif:tags>" );
+        sb.append( "<media:group>" );
+        sb.append( "<media:content url='" ).append( escape( mediaUrl ) ).append( "' height='24' width='32'" );
+        sb.append( " type='image/jpeg' medium='image'/>" );
+        sb.append( "<media:keywords>" ).append( escape( photo.getKeywords() ) ).append( "</media:keywords>" );
+        sb.append( "<media:title type='plain'>" ).append( escape( photo.getTitle() ) ).append( "</media:title>" );
+        sb.append( "</media:group>" );
+        sb.append( "</entry>" );
+    }
+
+    private String mediaUrl( SyntheticLibrary.Photo photo )
+    {
+        try
+        {
+            return baseUrl + MEDIA_PATH + photo.getId() + "/" + URLEncoder.encode( photo.getTitle(), "UTF-8" );
+        }
+        catch( UnsupportedEncodingException ex )
+        {
+            throw new IllegalStateException( ex );
+        }
+    }
+
+    private static void kind( StringBuilder sb, String kind )
+    {
+        sb.append( "<category scheme='" ).append( KIND_SCHEME ).append( "' term='" ).append( KIND_PREFIX ).append( kind ).append( "'/>" );
+    }
+
+    private static void link( StringBuilder sb, String rel, String href )
+    {
+        sb.append( "<link rel='" ).append( rel ).append( "' type='application/atom+xml' href='" ).append( escape( href ) ).append( "'/>" );
+    }
+
+    private static String date( long millis )
+    {
+        return Instant.ofEpochMilli( millis ).toString();
+    }
+
+    static String escape( String text )
+    {
+        StringBuilder sb = null;
+
+        for( int i = 0; i < text.length(); i++ )
+        {
+            char c = text.charAt( i );
+            String replacement;
+
+            switch( c )
+            {
+                case '&': replacement = "&amp;"; break;
+                case '<': replacement = "&lt;"; break;
+                case '>': replacement = "&gt;"; break;
+                case '\'': replacement = "&apos;"; break;
+                case '"': replacement = "&quot;"; break;
+                default: replacement = null;
+            }
+
+            if( replacement != null && sb == null )
+                sb = new StringBuilder( text.substring( 0, i ) );
+
+            if( sb != null )
+            {
+                if( replacement != null )
+                    sb.append( replacement );
+                else
+                    sb.append( c );
+            }
+        }
+
+        return sb != null ? sb.toString() : text;
+    }
+}
@@ -0,0 +1,334 @@
+/*
+    Copyright 2016 Mark Otway
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+
+package com.otway.picasasync.standin;
+
+import com.otway.picasasync.utils.FileUtilities;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Builds a synthetic photo library on local disk for scale testing the
+ * directory scan and diff, and a manifest of it that the stand-in server
+ * can serve as the matching remote library:
+ *
+ *     java -cp benchmarks/target/benchmarks.jar com.otway.picasasync.standin.LibraryGenerator -folder=/tmp/library -albums=2000 -photos=500
+ *     java -cp benchmarks/target/benchmarks.jar com.otway.picasasync.standin.StandInLoadTest -folder=/tmp/library -manifest=/tmp/library/.picasync/library-manifest.tsv
+ *
+ * Each album is a folder of real JPEGs with EXIF dates and unique IDs,
+ * file times to match, and occasional IPTC "delete" keywords. Some folders
+ * get a .picasa.ini with starred photos. Some photos exist only locally
+ * (to upload) or only remotely (to download), and some remote albums and
+ * photos duplicate another's title. The same seed gives the same library.
+ *
+ * Files can be written in full, sparse (metadata then a hole), or as hard
+ * links to a pool of prototype files. Hard links share their content and
+ * file times, so linked photos share the prototype's date and unique ID.
+ */
+public class LibraryGenerator
+{
+    public static final String MANIFEST_NAME = "library-manifest.tsv";
+
+    private static final long DAY_MS = 24L * 60 * 60 * 1000;
+    private static final int PROTOTYPE_COUNT = 256;
+    private static final double STAR_RATE = 0.1;
+    private static final String PROTOTYPE_FOLDER = "generator-prototypes";
+    // Comfortably more than the JPEG and its metadata, which files are padded out from
+    private static final long MIN_PHOTO_SIZE = 4096;
+
+
+    enum Mode { full, sparse, link }
+
+    private static class PhotoSpec
+    {
+        private final long size;
+        private final long timestamp;
+        private final String uniqueId;
+        private final String keywords;
+        private File prototype;
+
+        private PhotoSpec( long size, long timestamp, String uniqueId, String keywords )
+        {
+            this.size = size;
+            this.timestamp = timestamp;
+            this.uniqueId = uniqueId;
+            this.keywords = keywords;
+        }
+    }
+
+    private final byte[] padding = new byte[64 * 1024];
+    private SyntheticJpeg jpeg;
+    private Random random;
+
+    File rootFolder = null;
+    long seed = 1;
+    int albums = 100;
+    int photosPerAlbum = 100;
+    long meanPhotoSize = 256 * 1024;
+    Mode mode = Mode.full;
+    double localOnlyRate = 0.01;
+    double remoteOnlyRate = 0.01;
+    double duplicateRate = 0.005;
+    double deleteRate = 0.001;
+    double picasaIniRate = 0.2;
+
+    private final List<PhotoSpec> prototypes = new ArrayList<PhotoSpec>();
+    private long filesWritten;
+    private long bytesWritten;
+
+    public static void main( String[] args ) throws Exception
+    {
+        LibraryGenerator generator = new LibraryGenerator();
+
+        for( String arg : args )
+        {
+            int equals = arg.indexOf( '=' );
+            String name = equals > 0 ? arg.substring( 0, equals ) : arg;
+            String value = equals > 0 ? arg.substring( equals + 1 ) : "true";
+
+            if( name.equals("-folder") )
+                generator.rootFolder = new File( value );
+            else if( name.equals("-seed") )
+                generator.seed = Long.parseLong( value );
+            else if( name.equals("-albums") )
+                generator.albums = Integer.parseInt( value );
+            else if( name.equals("-photos") )
+                generator.photosPerAlbum = Integer.parseInt( value );
+            else if( name.equals("-size") )
+                generator.meanPhotoSize = Long.parseLong( value );
+            else if( name.equals("-mode") )
+                generator.mode = Mode.valueOf( value );
+            else if( name.equals("-localOnly") )
+                generator.localOnlyRate = Double.parseDouble( value );
+            else if( name.equals("-remoteOnly") )
+                generator.remoteOnlyRate = Double.parseDouble( value );
+            else if( name.equals("-duplicates") )
+                generator.duplicateRate = Double.parseDouble( value );
+            else if( name.equals("-deletes") )
+                generator.deleteRate = Double.parseDouble( value );
+            else if( name.equals("-picasaIni") )
+                generator.picasaIniRate = Double.parseDouble( value );
+            else
+                throw new IllegalArgumentException( "Unknown option " + arg );
+        }
+
+        if( generator.rootFolder == null )
+            throw new IllegalArgumentException( "A -folder is required" );
+
+        long start = System.nanoTime();
+        File manifest = generator.generate();
+        double seconds = ( System.nanoTime() - start ) / 1e9;
+
+        System.out.println( String.format( "Wrote %d files (%d MB) in %.1fs. Manifest: %s",
+                generator.filesWritten, generator.bytesWritten / ( 1024 * 1024 ), seconds, manifest ) );
+    }
+
+    /**
+     * Writes the library and returns the manifest file.
+     */
+    File generate() throws IOException
+    {
+        random = new Random( seed );
+        jpeg = new SyntheticJpeg();
+
+        File manifestFile = new File( FileUtilities.getAppFolder( rootFolder ), MANIFEST_NAME );
+        long now = System.currentTimeMillis();
+
+        if( mode == Mode.link )
+            createPrototypes( now );
+
+        Writer manifest = new BufferedWriter( new OutputStreamWriter( new FileOutputStream( manifestFile ),
+                                                                     StandardCharsets.UTF_8 ) );
+
+        try
+        {
+            manifest.write( "# type\ttitle\ttimestamp\twhere\tsize\tuniqueId\tkeywords\n" );
+
+            for( int a = 0; a < albums; a++ )
+            {
+                String title = String.format( "Synthetic Album %05d", a );
+                long albumTime = seconds( now - (long)( random.nextDouble() * 365 * DAY_MS ) );
+
+                generateAlbum( manifest, title, albumTime );
+
+                if( random.nextDouble() < duplicateRate )
+                {
+                    // A remote album with the same title as one we already have
+                    writeAlbum( manifest, title, albumTime, SyntheticLibrary.MANIFEST_REMOTE );
+                    writePhoto( manifest, "IMG_00000.JPG", SyntheticLibrary.MANIFEST_REMOTE, createSpec( albumTime ) );
+                }
+
+                if( ( a + 1 ) % 100 == 0 )
+                    System.out.println( "Generated " + ( a + 1 ) + " of " + albums + " albums..." );
+            }
+        }
+        finally
+        {
+            manifest.close();
+        }
+
+        return manifestFile;
+    }
+
+    private void generateAlbum( Writer manifest, String title, long albumTime ) throws IOException
+    {
+        File folder = new File( rootFolder, title );
+        if( ! folder.isDirectory() && ! folder.mkdirs() )
+            throw new IOException( "Unable to create " + folder );
+
+        writeAlbum( manifest, title, albumTime, SyntheticLibrary.MANIFEST_BOTH );
+
+        boolean picasaIni = random.nextDouble() < picasaIniRate;
+        List<String> starred = new ArrayList<String>();
+
+        for( int p = 0; p < photosPerAlbum; p++ )
+        {
+            String name = String.format( "IMG_%05d.JPG", p );
+            PhotoSpec spec = mode == Mode.link ? prototypes.get( random.nextInt( prototypes.size() ) )
+                                               : createSpec( albumTime );
+
+            double placement = random.nextDouble();
+            String where = placement < localOnlyRate ? SyntheticLibrary.MANIFEST_LOCAL
+                         : placement < localOnlyRate + remoteOnlyRate ? SyntheticLibrary.MANIFEST_REMOTE : SyntheticLibrary.MANIFEST_BOTH;
+
+            if( ! where.equals( SyntheticLibrary.MANIFEST_REMOTE ) )
+                writeImage( new File( folder, name ), spec );
+
+            writePhoto( manifest, name, where, spec );
+
+            if( ! where.equals( SyntheticLibrary.MANIFEST_LOCAL ) && random.nextDouble() < duplicateRate )
+            {
+                // Another remote photo with the same title
+                writePhoto( manifest, name, SyntheticLibrary.MANIFEST_REMOTE, createSpec( albumTime ) );
+            }
+
+            if( picasaIni && random.nextDouble() < STAR_RATE )
+                starred.add( name );
+        }
+
+        if( picasaIni )
+            writePicasaIni( folder, title, starred );
+    }
+
+    /*
+     * Photos from the week before the album date, to the second (as EXIF
+     * dates are).
+     */
+    private PhotoSpec createSpec( long albumTime )
+    {
+        long size = Math.max( MIN_PHOTO_SIZE, meanPhotoSize / 2 + (long)( random.nextDouble() * meanPhotoSize ) );
+        long timestamp = seconds( albumTime - (long)( random.nextDouble() * 7 * DAY_MS ) );
+        String uniqueId = String.format( "%016x%016x", random.nextLong(), random.nextLong() );
+        String keywords = random.nextDouble() < deleteRate ? "delete" : "";
+
+        return new PhotoSpec( size, timestamp, uniqueId, keywords );
+    }
+
+    private void createPrototypes( long now ) throws IOException
+    {
+        File folder = new File( FileUtilities.getAppFolder( rootFolder ), PROTOTYPE_FOLDER );
+        if( ! folder.isDirectory() && ! folder.mkdirs() )
+            throw new IOException( "Unable to create " + folder );
+
+        for( int i = 0; i < PROTOTYPE_COUNT; i++ )
+        {
+            PhotoSpec spec = createSpec( seconds( now - (long)( random.nextDouble() * 365 * DAY_MS ) ) );
+            spec.prototype = new File( folder, String.format( "prototype_%03d.jpg", i ) );
+            writeFile( spec.prototype, spec );
+            prototypes.add( spec );
+        }
+    }
+
+    private void writeImage( File file, PhotoSpec spec ) throws IOException
+    {
+        if( spec.prototype != null )
+        {
+            Files.deleteIfExists( file.toPath() );
+            Files.createLink( file.toPath(), spec.prototype.toPath() );
+            filesWritten++;
+        }
+        else
+            writeFile( file, spec );
+    }
+
+    private void writeFile( File file, PhotoSpec spec ) throws IOException
+    {
+        byte[] content = jpeg.create( spec.timestamp, spec.uniqueId,
+                                      spec.keywords.isEmpty() ? new String[0] : spec.keywords.split( "," ) );
+        RandomAccessFile out = new RandomAccessFile( file, "rw" );
+
+        try
+        {
+            out.setLength( 0 );
+            out.write( content );
+
+            if( mode == Mode.sparse )
+            {
+                out.setLength( spec.size );
+                bytesWritten += content.length;
+            }
+            else
+            {
+                for( long remaining = spec.size - content.length; remaining > 0; remaining -= padding.length )
+                    out.write( padding, 0, (int)Math.min( remaining, padding.length ) );
+
+                bytesWritten += spec.size;
+            }
+        }
+        finally
+        {
+            out.close();
+        }
+
+        if( ! file.setLastModified( spec.timestamp ) )
+            throw new IOException( "Unable to set the time of " + file );
+
+        filesWritten++;
+    }
+
+    private static void writePicasaIni( File folder, String title, List<String> starred ) throws IOException
+    {
+        StringBuilder ini = new StringBuilder();
+        ini.append( "[Picasa]\r\nname=" ).append( title ).append( "\r\n" );
+
+        for( String name : starred )
+            ini.append( '[' ).append( name ).append( "]\r\nstar=yes\r\n" );
+
+        Files.write( new File( folder, ".picasa.ini" ).toPath(), ini.toString().getBytes( StandardCharsets.UTF_8 ) );
+    }
+
+    private static void writeAlbum( Writer manifest, String title, long timestamp, String where ) throws IOException
+    {
+        manifest.write( SyntheticLibrary.MANIFEST_ALBUM + "\t" + title + "\t" + timestamp + "\t" + where + "\n" );
+    }
+
+    private static void writePhoto( Writer manifest, String title, String where, PhotoSpec spec ) throws IOException
+    {
+        manifest.write( SyntheticLibrary.MANIFEST_PHOTO + "\t" + title + "\t" + spec.timestamp + "\t" + where + "\t" + spec.size + "\t"
+                        + spec.uniqueId + "\t" + spec.keywords + "\n" );
+    }
+
+    private static long seconds( long millis )
+    {
+        return millis - millis % 1000;
+    }
+}
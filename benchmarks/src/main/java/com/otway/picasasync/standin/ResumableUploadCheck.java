@@ -0,0 +1,165 @@
+/*
+    Copyright 2016 Mark Otway
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.otway.picasasync.standin;
+
+import com.google.api.client.auth.oauth2.BearerToken;
+import com.google.api.client.auth.oauth2.Credential;
+import com.otway.picasasync.webclient.ResumableUploader;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.log4j.BasicConfigurator;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Checks that resumable uploads survive dropped connections: uploads files
+ * of several chunks each to a stand-in server that drops a fraction of the
+ * chunk requests half way, then checks the server ended up with every byte
+ * and no session files were left behind. Exits non-zero on failure.
+ *
+ *     java -cp benchmarks/target/benchmarks.jar com.otway.picasasync.standin.ResumableUploadCheck -drops=0.3 -photos=5
+ *
+ * -size is the size of each file; the default spans three chunks.
+ */
+public class ResumableUploadCheck
+{
+    public static void main( String[] args ) throws Exception
+    {
+        StandInOptions defaults = new StandInOptions();
+        defaults.photosPerAlbum = 5;
+        defaults.meanPhotoSize = 20 * 1024 * 1024;
+        defaults.dropRate = 0.3;
+
+        StandInOptions options = StandInOptions.parse( args, defaults );
+
+        BasicConfigurator.configure();
+        Logger.getRootLogger().setLevel( Level.WARN );
+
+        int fileCount = options.photosPerAlbum;
+        long size = options.meanPhotoSize;
+
+        SyntheticLibrary library = new SyntheticLibrary( options.seed );
+        SyntheticLibrary.Album album = library.addAlbum( "Resumable", System.currentTimeMillis() );
+
+        StandInServer server = new StandInServer( library, options.seed );
+        server.setLatencyMs( options.latencyMs );
+        server.setErrorRate( options.errorRate );
+        server.setDropRate( options.dropRate );
+        server.setRetainUploads( true );
+        server.start( 0 );
+
+        Credential credential = new Credential( BearerToken.authorizationHeaderAccessMethod() );
+        credential.setAccessToken( "stand-in" );
+
+        ResumableUploader uploader = new ResumableUploader( credential );
+        URL createSessionUrl = new URL( server.getBaseUrl() + AtomWriter.CREATE_SESSION_PATH
+                                        + "default/albumid/" + album.getId() );
+
+        File folder = Files.createTempDirectory( "picasync-resumable" ).toFile();
+        Random random = new Random( options.seed );
+        int failures = 0;
+
+        try
+        {
+            for( int i = 0; i < fileCount; i++ )
+            {
+                String name = String.format( "VID_%05d.MP4", i );
+                byte[] content = new byte[(int)size];
+                random.nextBytes( content );
+
+                File file = new File( folder, name );
+                FileUtils.writeByteArrayToFile( file, content );
+
+                byte[] entryXml = ( "<entry xmlns='http://www.w3.org/2005/Atom'><title>" + name + "</title></entry>" )
+                        .getBytes( StandardCharsets.UTF_8 );
+
+                long errors = server.getErrorsInjected();
+                long start = System.nanoTime();
+
+                try
+                {
+                    uploader.upload( createSessionUrl, file, "video/mp4", entryXml, null );
+                }
+                catch( Exception ex )
+                {
+                    System.out.println( name + ": upload failed - " + ex );
+                    failures++;
+                    continue;
+                }
+
+                boolean intact = matches( library, album, name, content );
+                if( ! intact )
+                    failures++;
+
+                System.out.println( String.format( "%s: %s in %.1fs with %d injected failures, %s", name,
+                        FileUtils.byteCountToDisplaySize( size ), ( System.nanoTime() - start ) / 1e9,
+                        server.getErrorsInjected() - errors, intact ? "intact" : "CONTENT MISMATCH" ) );
+            }
+
+            String[] leftOver = folder.list( new FilenameFilter() {
+                public boolean accept( File dir, String name ) {
+                    return ResumableUploader.isSessionFile( name );
+                }
+            } );
+
+            if( leftOver.length > 0 )
+            {
+                System.out.println( "Session files left behind: " + Arrays.toString( leftOver ) );
+                failures++;
+            }
+        }
+        finally
+        {
+            server.stop();
+            FileUtils.deleteDirectory( folder );
+        }
+
+        System.out.println( failures == 0 ? "All uploads complete and intact." : failures + " failures." );
+        System.exit( failures == 0 ? 0 : 1 );
+    }
+
+    private static boolean matches( SyntheticLibrary library, SyntheticLibrary.Album album, String title,
+                                    byte[] expected ) throws Exception
+    {
+        for( SyntheticLibrary.Photo photo : library.getPhotos( album ) )
+        {
+            if( ! photo.getTitle().equals( title ) )
+                continue;
+
+            InputStream is = library.openMedia( photo );
+            try
+            {
+                return Arrays.equals( IOUtils.toByteArray( is ), expected );
+            }
+            finally
+            {
+                is.close();
+            }
+        }
+
+        return false;
+    }
+}
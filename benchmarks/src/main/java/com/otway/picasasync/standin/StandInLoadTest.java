@@ -0,0 +1,114 @@
+/*
+    Copyright 2016 Mark Otway
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.otway.picasasync.standin;
+
+import com.otway.picasasync.config.Settings;
+import com.otway.picasasync.metrics.MetricsRegistry;
+import com.otway.picasasync.syncutil.SyncManager;
+import com.otway.picasasync.syncutil.SyncState;
+import com.otway.picasasync.utils.FileUtilities;
+import com.otway.picasasync.webclient.PicasawebClient;
+import org.apache.commons.io.FileUtils;
+import org.apache.log4j.BasicConfigurator;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.prefs.Preferences;
+
+/**
+ * Drives complete syncs against an in-process stand-in server and reports
+ * the throughput of each pass. The first pass downloads the library; later
+ * passes show the cost of a sync with nothing (or little) to do.
+ *
+ *     java -cp benchmarks/target/benchmarks.jar com.otway.picasasync.standin.StandInLoadTest -albums=50 -photos=200 -latency=20
+ *
+ * Settings are kept in their own preferences node, so the user's real
+ * settings are untouched.
+ */
+public class StandInLoadTest
+{
+    private static final String PREFS_NODE = "com/otway/picasasync/standin";
+
+    public static void main( String[] args ) throws Exception
+    {
+        StandInOptions options = StandInOptions.parse( args );
+
+        BasicConfigurator.configure();
+        Logger.getRootLogger().setLevel( Level.WARN );
+
+        File folder = options.folder != null ? new File( options.folder )
+                                             : Files.createTempDirectory( "picasync-standin" ).toFile();
+
+        StandInServer server = options.createServer();
+        server.start( 0 );
+
+        Preferences prefs = Preferences.userRoot().node( PREFS_NODE );
+        prefs.put( "SyncFolder", folder.getAbsolutePath() );
+        prefs.put( "DateRange", "3650" );
+
+        Settings settings = new Settings( prefs );
+        settings.loadSettings();
+
+        PicasawebClient client = server.createClient();
+        SyncManager manager = new SyncManager( settings );
+        manager.useWebClient( client );
+        manager.setWriteMetricsReport( true );
+
+        System.out.println( "Syncing " + server.getLibrary().getPhotoCount() + " photos into " + folder );
+
+        try
+        {
+            for( int pass = 1; pass <= options.passes; pass++ )
+            {
+                long requests = server.getRequestCount();
+                long served = server.getBytesServed();
+                long received = server.getBytesReceived();
+                long errors = server.getErrorsInjected();
+                long start = System.nanoTime();
+
+                manager.BeginCompleteSync();
+
+                double seconds = ( System.nanoTime() - start ) / 1e9;
+                long bytes = ( server.getBytesServed() - served ) + ( server.getBytesReceived() - received );
+                SyncState state = manager.getSyncState();
+
+                System.out.println( String.format( "Pass %d: %.1fs, %d requests, %s down, %s up, %.1f MB/s, "
+                                + "%d errors injected. %d downloaded, %d uploaded, %d failed. %s",
+                        pass, seconds, server.getRequestCount() - requests,
+                        FileUtils.byteCountToDisplaySize( server.getBytesServed() - served ),
+                        FileUtils.byteCountToDisplaySize( server.getBytesReceived() - received ),
+                        bytes / seconds / ( 1024 * 1024 ), server.getErrorsInjected() - errors,
+                        state.getTotalDownloaded(), state.getTotalUploaded(), state.getTotalFailed(),
+                        state.getStatus() ) );
+            }
+
+            System.out.println( "Phase timings for the last pass are in "
+                    + new File( new File( folder, FileUtilities.APP_FOLDER_NAME ), MetricsRegistry.REPORT_FILE_NAME ) );
+        }
+        finally
+        {
+            manager.shutDown();
+            client.shutDown();
+            server.stop();
+            prefs.removeNode();
+        }
+
+        System.exit( 0 );
+    }
+}
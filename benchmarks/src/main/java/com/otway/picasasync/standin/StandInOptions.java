@@ -0,0 +1,109 @@
+/*
+    Copyright 2016 Mark Otway
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.otway.picasasync.standin;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Command-line options for the stand-in server and load test, in the same
+ * -name=value form as the main app's.
+ */
+class StandInOptions
+{
+    int port = 8089;
+    int albums = 20;
+    int photosPerAlbum = 100;
+    long meanPhotoSize = 2 * 1024 * 1024;
+    int latencyMs = 0;
+    long bandwidth = 0;
+    double errorRate = 0;
+    double dropRate = 0;
+    boolean retainUploads = false;
+    long seed = 1;
+    // A generated library's manifest, served instead of a generated-on-the-fly library
+    String manifest = null;
+
+    // Load test only
+    String folder = null;
+    int passes = 2;
+
+    static StandInOptions parse( String[] args )
+    {
+        return parse( args, new StandInOptions() );
+    }
+
+    /**
+     * Parses the arguments over the given options, for tools that want
+     * different defaults.
+     */
+    static StandInOptions parse( String[] args, StandInOptions options )
+    {
+        for( String arg : args )
+        {
+            int equals = arg.indexOf( '=' );
+            String name = equals > 0 ? arg.substring( 0, equals ) : arg;
+            String value = equals > 0 ? arg.substring( equals + 1 ) : "true";
+
+            if( name.equals("-port") )
+                options.port = Integer.parseInt( value );
+            else if( name.equals("-albums") )
+                options.albums = Integer.parseInt( value );
+            else if( name.equals("-photos") )
+                options.photosPerAlbum = Integer.parseInt( value );
+            else if( name.equals("-size") )
+                options.meanPhotoSize = Long.parseLong( value );
+            else if( name.equals("-latency") )
+                options.latencyMs = Integer.parseInt( value );
+            else if( name.equals("-bandwidth") )
+                options.bandwidth = Long.parseLong( value );
+            else if( name.equals("-errors") )
+                options.errorRate = Double.parseDouble( value );
+            else if( name.equals("-drops") )
+                options.dropRate = Double.parseDouble( value );
+            else if( name.equals("-retain") )
+                options.retainUploads = Boolean.parseBoolean( value );
+            else if( name.equals("-seed") )
+                options.seed = Long.parseLong( value );
+            else if( name.equals("-manifest") )
+                options.manifest = value;
+            else if( name.equals("-folder") )
+                options.folder = value;
+            else if( name.equals("-passes") )
+                options.passes = Integer.parseInt( value );
+            else
+                throw new IllegalArgumentException( "Unknown option " + arg );
+        }
+
+        return options;
+    }
+
+    StandInServer createServer() throws IOException
+    {
+        SyntheticLibrary library = manifest != null
+                ? SyntheticLibrary.readManifest( new File( manifest ), seed )
+                : SyntheticLibrary.generate( albums, photosPerAlbum, meanPhotoSize, seed );
+
+        StandInServer server = new StandInServer( library, seed );
+        server.setLatencyMs( latencyMs );
+        server.setBandwidth( bandwidth );
+        server.setErrorRate( errorRate );
+        server.setDropRate( dropRate );
+        server.setRetainUploads( retainUploads );
+        return server;
+    }
+}
@@ -0,0 +1,899 @@
+/*
+    Copyright 2016 Mark Otway
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.otway.picasasync.standin;
+
+import com.google.api.client.auth.oauth2.BearerToken;
+import com.google.api.client.auth.oauth2.Credential;
+import com.otway.picasasync.webclient.PicasawebClient;
+import org.apache.log4j.BasicConfigurator;
+import org.apache.log4j.Logger;
+import org.eclipse.jetty.io.EofException;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.eclipse.jetty.server.nio.SelectChannelConnector;
+
+import javax.mail.BodyPart;
+import javax.mail.MessagingException;
+import javax.mail.internet.MimeMultipart;
+import javax.mail.util.ByteArrayDataSource;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Embeddable stand-in for the Picasa Web Albums API, serving a synthetic
+ * library so the whole sync loop can be run and load-tested offline.
+ *
+ * It handles everything PicasawebClient does against the real service:
+ * user and album feeds (paged, with ETag revalidation), album inserts and
+ * updates, photo inserts, metadata updates and moves, media updates,
+ * resumable uploads, and media downloads. Latency, bandwidth and failures
+ * can be dialled in to see how the sync behaves under them.
+ */
+public class StandInServer
+{
+    private static final Logger log = Logger.getLogger(StandInServer.class);
+
+    private static final String ATOM_NS = "http://www.w3.org/2005/Atom";
+    private static final String GPHOTO_NS = "http://schemas.google.com/photos/2007";
+    private static final String ATOM_CONTENT_TYPE = "application/atom+xml; charset=UTF-8";
+    private static final int DEFAULT_MAX_RESULTS = 1000;
+    private static final int HTTP_RESUME_INCOMPLETE = 308;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final XMLInputFactory xmlFactory = createXmlFactory();
+
+    private final SyntheticLibrary library;
+    private final Map<String, UploadSession> sessions = new ConcurrentHashMap<String, UploadSession>();
+    private final AtomicLong nextSessionId = new AtomicLong();
+    private final Random random;
+    private Server server;
+    private int port;
+
+    private volatile int latencyMs;
+    private volatile long bandwidthBytesPerSec;
+    private volatile double errorRate;
+    private volatile double dropRate;
+    private volatile boolean retainUploads;
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong errorsInjected = new AtomicLong();
+    private final AtomicLong bytesServed = new AtomicLong();
+    private final AtomicLong bytesReceived = new AtomicLong();
+
+    private static class UploadSession
+    {
+        private final String albumId;
+        private final String title;
+        private final long length;
+        private final Map<String, String> entry;
+        private final ByteArrayOutputStream content;
+        private long received;
+        private SyntheticLibrary.Photo photo;
+
+        private UploadSession( String albumId, String title, long length, Map<String, String> entry, boolean retain )
+        {
+            this.albumId = albumId;
+            this.title = title;
+            this.length = length;
+            this.entry = entry;
+            this.content = retain ? new ByteArrayOutputStream( (int)Math.min( length, Integer.MAX_VALUE ) ) : null;
+        }
+    }
+
+    private static class Upload
+    {
+        private Map<String, String> entry = new HashMap<String, String>();
+        private byte[] media;
+    }
+
+    public StandInServer( SyntheticLibrary library, long seed )
+    {
+        this.library = library;
+        this.random = new Random( seed );
+    }
+
+    public SyntheticLibrary getLibrary() { return library; }
+
+    /** Delay added before every request is handled. */
+    public void setLatencyMs( int latencyMs ) { this.latencyMs = latencyMs; }
+
+    /** Per-connection limit for media up and downloads; 0 for unlimited. */
+    public void setBandwidth( long bytesPerSec ) { this.bandwidthBytesPerSec = bytesPerSec; }
+
+    /** Fraction of requests that fail with a 503 before being handled. */
+    public void setErrorRate( double errorRate ) { this.errorRate = errorRate; }
+
+    /** Fraction of media transfers whose connection is dropped half way. */
+    public void setDropRate( double dropRate ) { this.dropRate = dropRate; }
+
+    /** Keep uploaded bytes, rather than serving synthetic content of the same size. */
+    public void setRetainUploads( boolean retainUploads ) { this.retainUploads = retainUploads; }
+
+    public long getRequestCount() { return requests.get(); }
+    public long getErrorsInjected() { return errorsInjected.get(); }
+    public long getBytesServed() { return bytesServed.get(); }
+    public long getBytesReceived() { return bytesReceived.get(); }
+
+    /**
+     * Starts the server on the loopback interface. Pass 0 to pick a free port.
+     */
+    public void start( int requestedPort ) throws Exception
+    {
+        SelectChannelConnector connector = new SelectChannelConnector();
+        connector.setHost( "127.0.0.1" );
+        connector.setPort( requestedPort );
+
+        server = new Server();
+        server.addConnector( connector );
+        server.setHandler( new AbstractHandler()
+        {
+            public void handle( String target, Request baseRequest, HttpServletRequest request,
+                                HttpServletResponse response ) throws IOException
+            {
+                baseRequest.setHandled( true );
+                handleRequest( target, request, response );
+            }
+        });
+
+        server.start();
+        port = connector.getLocalPort();
+
+        log.info("Stand-in server started at " + getApiPrefix() + " serving " + library.getAlbums().size()
+                + " albums, " + library.getPhotoCount() + " photos.");
+    }
+
+    public void stop() throws Exception
+    {
+        if( server != null )
+        {
+            server.stop();
+            server = null;
+        }
+    }
+
+    public void join() throws InterruptedException
+    {
+        server.join();
+    }
+
+    public int getPort() { return port; }
+
+    public String getBaseUrl() { return "http://127.0.0.1:" + port; }
+
+    /**
+     * The prefix to use in place of the real API's, either through
+     * PicasawebClient.setApiPrefix or the picasasync.api.prefix property.
+     */
+    public String getApiPrefix() { return getBaseUrl() + AtomWriter.FEED_PATH; }
+
+    /**
+     * Creates a web client pointed at this server. The stand-in doesn't
+     * check tokens, so it's given a dummy one rather than going through OAuth.
+     */
+    public PicasawebClient createClient()
+    {
+        Credential credential = new Credential( BearerToken.authorizationHeaderAccessMethod() );
+        credential.setAccessToken( "stand-in" );
+
+        PicasawebClient client = new PicasawebClient( credential );
+        client.setApiPrefix( getApiPrefix() );
+        return client;
+    }
+
+    private void handleRequest( String target, HttpServletRequest request, HttpServletResponse response )
+            throws IOException
+    {
+        requests.incrementAndGet();
+        String method = request.getMethod();
+
+        if( log.isDebugEnabled() )
+            log.debug(method + " " + target);
+
+        sleep( latencyMs );
+
+        if( chance( errorRate ) )
+        {
+            errorsInjected.incrementAndGet();
+            response.sendError( HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Injected failure" );
+            return;
+        }
+
+        try
+        {
+            if( target.startsWith( AtomWriter.MEDIA_PATH ) && method.equals("GET") )
+                serveMedia( target, response );
+            else if( target.startsWith( AtomWriter.CREATE_SESSION_PATH ) && method.equals("POST") )
+                createSession( target.substring( AtomWriter.CREATE_SESSION_PATH.length() ), request, response );
+            else if( target.startsWith( AtomWriter.SESSION_PATH ) && method.equals("PUT") )
+                uploadChunk( target.substring( AtomWriter.SESSION_PATH.length() ), request, response );
+            else if( target.startsWith( AtomWriter.MEDIA_EDIT_PATH ) && method.equals("PUT") )
+                updateMedia( target.substring( AtomWriter.MEDIA_EDIT_PATH.length() ), request, response );
+            else if( target.startsWith( AtomWriter.FEED_PATH ) )
+                handleApi( target.substring( AtomWriter.FEED_PATH.length() ), false, request, response );
+            else if( target.startsWith( AtomWriter.ENTRY_PATH ) )
+                handleApi( target.substring( AtomWriter.ENTRY_PATH.length() ), true, request, response );
+            else
+                response.sendError( HttpServletResponse.SC_NOT_FOUND );
+        }
+        catch( BadRequestException ex )
+        {
+            response.sendError( HttpServletResponse.SC_BAD_REQUEST, ex.getMessage() );
+        }
+    }
+
+    /*
+     * Feed and entry URLs: {user}[/albumid/{id}[/photoid/{id}]]
+     */
+    private void handleApi( String path, boolean isEntry, HttpServletRequest request, HttpServletResponse response )
+            throws IOException
+    {
+        String[] parts = path.split( "/" );
+        String user = parts[0];
+        String method = request.getMethod();
+        AtomWriter writer = new AtomWriter( getBaseUrl(), user );
+
+        if( parts.length == 1 )
+        {
+            if( method.equals("GET") )
+                serveUserFeed( writer, request, response );
+            else if( method.equals("POST") )
+                insertAlbum( writer, request, response );
+            else
+                response.sendError( HttpServletResponse.SC_METHOD_NOT_ALLOWED );
+            return;
+        }
+
+        if( parts.length == 3 && parts[1].equals("albumid") )
+        {
+            SyntheticLibrary.Album album = library.getAlbum( parts[2] );
+
+            if( album == null )
+                response.sendError( HttpServletResponse.SC_NOT_FOUND );
+            else if( method.equals("GET") && isEntry )
+                writeXml( response, HttpServletResponse.SC_OK, albumEntry( writer, album ), null );
+            else if( method.equals("GET") )
+                serveAlbumFeed( writer, album, request, response );
+            else if( method.equals("POST") )
+                insertPhoto( writer, album, request, response );
+            else if( method.equals("PUT") )
+                updateAlbum( writer, album, request, response );
+            else
+                response.sendError( HttpServletResponse.SC_METHOD_NOT_ALLOWED );
+            return;
+        }
+
+        if( parts.length == 5 && parts[3].equals("photoid") )
+        {
+            // Photos are looked up by ID alone, as the album part may be stale after a move
+            SyntheticLibrary.Photo photo = library.getPhoto( parts[4] );
+
+            if( photo == null )
+                response.sendError( HttpServletResponse.SC_NOT_FOUND );
+            else if( method.equals("GET") )
+                writeXml( response, HttpServletResponse.SC_OK, photoEntry( writer, photo ), null );
+            else if( method.equals("PUT") )
+                updatePhoto( writer, photo, request, response );
+            else if( method.equals("DELETE") )
+            {
+                library.deletePhoto( photo );
+                response.setStatus( HttpServletResponse.SC_OK );
+            }
+            else
+                response.sendError( HttpServletResponse.SC_METHOD_NOT_ALLOWED );
+            return;
+        }
+
+        response.sendError( HttpServletResponse.SC_NOT_FOUND );
+    }
+
+    private void serveUserFeed( AtomWriter writer, HttpServletRequest request, HttpServletResponse response )
+            throws IOException
+    {
+        String xml;
+        String etag;
+
+        synchronized( library )
+        {
+            etag = AtomWriter.etag( library.getVersion() );
+
+            if( etag.equals( request.getHeader("If-None-Match") ) )
+            {
+                response.setStatus( HttpServletResponse.SC_NOT_MODIFIED );
+                return;
+            }
+
+            // Tags aren't modelled; the sync never asks for them
+            List<SyntheticLibrary.Album> albums = library.getAlbums();
+            if( "tag".equals( request.getParameter("kind") ) )
+                albums.clear();
+
+            xml = writer.userFeed( albums, library.getVersion() );
+        }
+
+        writeXml( response, HttpServletResponse.SC_OK, xml, etag );
+    }
+
+    private void serveAlbumFeed( AtomWriter writer, SyntheticLibrary.Album album, HttpServletRequest request,
+                                 HttpServletResponse response ) throws IOException
+    {
+        int startIndex = Math.max( 1, intParameter( request, "start-index", 1 ) );
+        int maxResults = Math.max( 1, intParameter( request, "max-results", DEFAULT_MAX_RESULTS ) );
+        String xml;
+        String etag;
+
+        synchronized( library )
+        {
+            etag = AtomWriter.etag( album.getUpdated() );
+
+            if( etag.equals( request.getHeader("If-None-Match") ) )
+            {
+                response.setStatus( HttpServletResponse.SC_NOT_MODIFIED );
+                return;
+            }
+
+            List<SyntheticLibrary.Photo> photos = library.getPhotos( album );
+            int from = Math.min( startIndex - 1, photos.size() );
+            int to = Math.min( from + maxResults, photos.size() );
+            String nextHref = to < photos.size() ? nextPageHref( request, to + 1 ) : null;
+
+            xml = writer.albumFeed( album, photos.subList( from, to ), startIndex, nextHref );
+        }
+
+        writeXml( response, HttpServletResponse.SC_OK, xml, etag );
+    }
+
+    private String nextPageHref( HttpServletRequest request, int startIndex )
+    {
+        StringBuilder sb = new StringBuilder( getBaseUrl() ).append( request.getRequestURI() );
+        char separator = '?';
+
+        String query = request.getQueryString();
+        if( query != null )
+        {
+            for( String param : query.split( "&" ) )
+            {
+                if( param.isEmpty() || param.startsWith( "start-index=" ) )
+                    continue;
+
+                sb.append( separator ).append( param );
+                separator = '&';
+            }
+        }
+
+        sb.append( separator ).append( "start-index=" ).append( startIndex );
+        return sb.toString();
+    }
+
+    private void insertAlbum( AtomWriter writer, HttpServletRequest request, HttpServletResponse response )
+            throws IOException
+    {
+        Map<String, String> entry = parseEntry( new ByteArrayInputStream( readBody( request, -1 ) ) );
+        String title = entry.get( "title" );
+
+        if( title == null )
+            throw new BadRequestException( "Album has no title" );
+
+        SyntheticLibrary.Album album = library.addAlbum( title, longValue( entry, "timestamp", System.currentTimeMillis() ) );
+        log.debug("Created album " + title);
+
+        writeXml( response, HttpServletResponse.SC_CREATED, albumEntry( writer, album ), null );
+    }
+
+    private void updateAlbum( AtomWriter writer, SyntheticLibrary.Album album, HttpServletRequest request,
+                              HttpServletResponse response ) throws IOException
+    {
+        Map<String, String> entry = parseEntry( new ByteArrayInputStream( readBody( request, -1 ) ) );
+
+        library.setAlbumTimestamp( album, longValue( entry, "timestamp", album.getTimestamp() ) );
+
+        writeXml( response, HttpServletResponse.SC_OK, albumEntry( writer, album ), null );
+    }
+
+    private void insertPhoto( AtomWriter writer, SyntheticLibrary.Album album, HttpServletRequest request,
+                              HttpServletResponse response ) throws IOException
+    {
+        Upload upload = readUpload( request );
+
+        if( upload.media == null )
+            throw new BadRequestException( "Photo insert has no media" );
+
+        String title = titleOf( upload.entry, request );
+        SyntheticLibrary.Photo photo = library.addPhoto( album, title,
+                longValue( upload.entry, "timestamp", System.currentTimeMillis() ),
+                retainUploads ? upload.media : null, upload.media.length, upload.entry.get( "checksum" ) );
+
+        writeXml( response, HttpServletResponse.SC_CREATED, photoEntry( writer, photo ), null );
+    }
+
+    /*
+     * Metadata updates. The only change the sync makes is to move the photo
+     * to a different album.
+     */
+    private void updatePhoto( AtomWriter writer, SyntheticLibrary.Photo photo, HttpServletRequest request,
+                              HttpServletResponse response ) throws IOException
+    {
+        Map<String, String> entry = parseEntry( new ByteArrayInputStream( readBody( request, -1 ) ) );
+        String albumId = entry.get( "albumid" );
+
+        if( albumId != null && ! library.movePhoto( photo, albumId ) )
+            throw new BadRequestException( "No such album " + albumId );
+
+        writeXml( response, HttpServletResponse.SC_OK, photoEntry( writer, photo ), null );
+    }
+
+    private void updateMedia( String path, HttpServletRequest request, HttpServletResponse response )
+            throws IOException
+    {
+        String[] parts = path.split( "/" );
+        SyntheticLibrary.Photo photo = parts.length == 5 ? library.getPhoto( parts[4] ) : null;
+
+        if( photo == null )
+        {
+            response.sendError( HttpServletResponse.SC_NOT_FOUND );
+            return;
+        }
+
+        Upload upload = readUpload( request );
+
+        if( upload.media == null )
+            throw new BadRequestException( "Media update has no media" );
+
+        library.setMedia( photo, retainUploads ? upload.media : null, upload.media.length, upload.entry.get( "checksum" ) );
+
+        writeXml( response, HttpServletResponse.SC_OK, photoEntry( new AtomWriter( getBaseUrl(), parts[0] ), photo ), null );
+    }
+
+    private void serveMedia( String target, HttpServletResponse response ) throws IOException
+    {
+        String[] parts = target.substring( AtomWriter.MEDIA_PATH.length() ).split( "/" );
+        SyntheticLibrary.Photo photo = library.getPhoto( parts[0] );
+
+        if( photo == null )
+        {
+            response.sendError( HttpServletResponse.SC_NOT_FOUND );
+            return;
+        }
+
+        long size = photo.getSize();
+        boolean drop = chance( dropRate );
+
+        response.setStatus( HttpServletResponse.SC_OK );
+        response.setContentType( "image/jpeg" );
+        response.setHeader( "Content-Length", Long.toString( size ) );
+
+        InputStream is = library.openMedia( photo );
+        try
+        {
+            OutputStream os = response.getOutputStream();
+            copy( is, os, drop ? size / 2 : size, bytesServed );
+
+            if( drop )
+            {
+                os.flush();
+                errorsInjected.incrementAndGet();
+                throw new EofException( "Injected connection drop" );
+            }
+        }
+        finally
+        {
+            is.close();
+        }
+    }
+
+    private void createSession( String path, HttpServletRequest request, HttpServletResponse response )
+            throws IOException
+    {
+        String[] parts = path.split( "/" );
+        SyntheticLibrary.Album album = parts.length == 3 ? library.getAlbum( parts[2] ) : null;
+
+        if( album == null )
+        {
+            response.sendError( HttpServletResponse.SC_NOT_FOUND );
+            return;
+        }
+
+        long length;
+        try
+        {
+            length = Long.parseLong( request.getHeader("X-Upload-Content-Length") );
+        }
+        catch( NumberFormatException ex )
+        {
+            throw new BadRequestException( "Missing upload length" );
+        }
+
+        Map<String, String> entry = parseEntry( new ByteArrayInputStream( readBody( request, -1 ) ) );
+        String sessionId = Long.toString( nextSessionId.incrementAndGet() );
+
+        sessions.put( sessionId, new UploadSession( album.getId(), titleOf( entry, request ), length, entry, retainUploads ) );
+
+        response.setStatus( HttpServletResponse.SC_OK );
+        response.setHeader( "Location", getBaseUrl() + AtomWriter.SESSION_PATH + sessionId );
+    }
+
+    private void uploadChunk( String sessionId, HttpServletRequest request, HttpServletResponse response )
+            throws IOException
+    {
+        UploadSession session = sessions.get( sessionId );
+
+        if( session == null )
+        {
+            response.sendError( HttpServletResponse.SC_NOT_FOUND );
+            return;
+        }
+
+        // Content-Range is either 'bytes */total' (a status query) or 'bytes first-last/total'
+        String range = request.getHeader("Content-Range");
+        long first = -1;
+
+        if( range != null && range.startsWith( "bytes " ) && ! range.startsWith( "bytes */" ) )
+        {
+            try
+            {
+                first = Long.parseLong( range.substring( 6, range.indexOf( '-' ) ) );
+            }
+            catch( RuntimeException ex )
+            {
+                throw new BadRequestException( "Bad Content-Range " + range );
+            }
+        }
+
+        synchronized( session )
+        {
+            if( session.photo == null && first >= 0 && first == session.received )
+            {
+                long chunkLength = request.getContentLength();
+                boolean drop = chance( dropRate );
+                OutputStream sink = session.content != null ? session.content : new NullOutputStream();
+
+                // A dropped connection still leaves the server with whatever arrived
+                long read = copy( request.getInputStream(), sink, drop ? chunkLength / 2 : chunkLength, bytesReceived );
+                session.received += read;
+
+                if( drop )
+                {
+                    errorsInjected.incrementAndGet();
+                    throw new EofException( "Injected connection drop" );
+                }
+
+                if( session.received >= session.length )
+                    completeSession( session );
+            }
+
+            if( session.photo != null )
+            {
+                AtomWriter writer = new AtomWriter( getBaseUrl(), "default" );
+                writeXml( response, HttpServletResponse.SC_CREATED, photoEntry( writer, session.photo ), null );
+                return;
+            }
+
+            response.setStatus( HTTP_RESUME_INCOMPLETE );
+            if( session.received > 0 )
+                response.setHeader( "Range", "bytes=0-" + ( session.received - 1 ) );
+        }
+    }
+
+    private void completeSession( UploadSession session )
+    {
+        SyntheticLibrary.Album album = library.getAlbum( session.albumId );
+
+        if( album == null )
+            throw new BadRequestException( "Album was removed during upload" );
+
+        byte[] content = session.content != null ? session.content.toByteArray() : null;
+
+        session.photo = library.addPhoto( album, session.title,
+                longValue( session.entry, "timestamp", System.currentTimeMillis() ), content, session.received,
+                session.entry.get( "checksum" ) );
+    }
+
+    private String albumEntry( AtomWriter writer, SyntheticLibrary.Album album )
+    {
+        synchronized( library )
+        {
+            return writer.albumEntry( album );
+        }
+    }
+
+    private String photoEntry( AtomWriter writer, SyntheticLibrary.Photo photo )
+    {
+        synchronized( library )
+        {
+            return writer.photoEntry( photo );
+        }
+    }
+
+    /*
+     * Media inserts and updates are multipart/related (entry then media);
+     * plain media with a Slug header is accepted too.
+     */
+    private Upload readUpload( HttpServletRequest request ) throws IOException
+    {
+        Upload upload = new Upload();
+        String contentType = request.getContentType();
+        byte[] body = readBody( request, -1 );
+
+        if( contentType == null )
+            throw new BadRequestException( "Missing content type" );
+
+        if( contentType.startsWith( "multipart/" ) )
+        {
+            try
+            {
+                MimeMultipart multipart = new MimeMultipart( new ByteArrayDataSource( body, contentType ) );
+
+                for( int i = 0; i < multipart.getCount(); i++ )
+                {
+                    BodyPart part = multipart.getBodyPart( i );
+
+                    if( part.getContentType().contains( "atom+xml" ) )
+                        upload.entry = parseEntry( part.getInputStream() );
+                    else
+                        upload.media = toBytes( part.getInputStream() );
+                }
+            }
+            catch( MessagingException ex )
+            {
+                throw new BadRequestException( "Unreadable multipart body: " + ex.getMessage() );
+            }
+        }
+        else if( contentType.contains( "atom+xml" ) )
+            upload.entry = parseEntry( new ByteArrayInputStream( body ) );
+        else
+            upload.media = body;
+
+        return upload;
+    }
+
+    private static String titleOf( Map<String, String> entry, HttpServletRequest request )
+    {
+        String title = entry.get( "title" );
+
+        if( title == null )
+            title = request.getHeader("Slug");
+
+        if( title == null )
+            throw new BadRequestException( "Photo has no title" );
+
+        return title;
+    }
+
+    /*
+     * Pulls out the few fields the stand-in cares about from an incoming
+     * entry: the Atom title and the gphoto albumid, checksum and timestamp.
+     */
+    private static Map<String, String> parseEntry( InputStream is ) throws IOException
+    {
+        Map<String, String> fields = new HashMap<String, String>();
+
+        try
+        {
+            XMLStreamReader reader = xmlFactory.createXMLStreamReader( is );
+
+            try
+            {
+                while( reader.hasNext() )
+                {
+                    if( reader.next() != XMLStreamConstants.START_ELEMENT )
+                        continue;
+
+                    String ns = reader.getNamespaceURI();
+                    String name = reader.getLocalName();
+
+                    if( ATOM_NS.equals( ns ) && name.equals("title") )
+                        fields.put( "title", reader.getElementText().trim() );
+                    else if( GPHOTO_NS.equals( ns ) &&
+                            ( name.equals("albumid") || name.equals("checksum") || name.equals("timestamp") ) )
+                        fields.put( name, reader.getElementText().trim() );
+                }
+            }
+            finally
+            {
+                reader.close();
+            }
+        }
+        catch( XMLStreamException ex )
+        {
+            throw new BadRequestException( "Unreadable entry: " + ex.getMessage() );
+        }
+
+        // Empty values are as good as missing
+        Map<String, String> result = new HashMap<String, String>();
+        for( Map.Entry<String, String> field : fields.entrySet() )
+        {
+            if( ! field.getValue().isEmpty() )
+                result.put( field.getKey(), field.getValue() );
+        }
+
+        return result;
+    }
+
+    private byte[] readBody( HttpServletRequest request, long limit ) throws IOException
+    {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream( Math.max( 0, request.getContentLength() ) );
+        copy( request.getInputStream(), bos, limit, bytesReceived );
+        return bos.toByteArray();
+    }
+
+    private void writeXml( HttpServletResponse response, int status, String xml, String etag ) throws IOException
+    {
+        byte[] bytes = xml.getBytes( StandardCharsets.UTF_8 );
+
+        response.setStatus( status );
+        response.setContentType( ATOM_CONTENT_TYPE );
+        response.setContentLength( bytes.length );
+        if( etag != null )
+            response.setHeader( "ETag", etag );
+
+        response.getOutputStream().write( bytes );
+        bytesServed.addAndGet( bytes.length );
+    }
+
+    /*
+     * Copies up to limit bytes (or everything, if limit is negative), held
+     * to the configured bandwidth.
+     */
+    private long copy( InputStream is, OutputStream os, long limit, AtomicLong counter ) throws IOException
+    {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long start = System.nanoTime();
+        long total = 0;
+
+        while( limit < 0 || total < limit )
+        {
+            int wanted = limit < 0 ? buffer.length : (int)Math.min( buffer.length, limit - total );
+            int read = is.read( buffer, 0, wanted );
+            if( read < 0 )
+                break;
+
+            os.write( buffer, 0, read );
+            total += read;
+            counter.addAndGet( read );
+
+            long bandwidth = bandwidthBytesPerSec;
+            if( bandwidth > 0 )
+            {
+                long dueMs = total * 1000 / bandwidth;
+                long elapsedMs = ( System.nanoTime() - start ) / 1000000;
+                sleep( (int)Math.min( Integer.MAX_VALUE, dueMs - elapsedMs ) );
+            }
+        }
+
+        return total;
+    }
+
+    private boolean chance( double rate )
+    {
+        return rate > 0 && random.nextDouble() < rate;
+    }
+
+    private static void sleep( int millis ) throws InterruptedIOException
+    {
+        if( millis <= 0 )
+            return;
+
+        try
+        {
+            Thread.sleep( millis );
+        }
+        catch( InterruptedException ex )
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException( "Interrupted" );
+        }
+    }
+
+    private static int intParameter( HttpServletRequest request, String name, int defaultValue )
+    {
+        try
+        {
+            String value = request.getParameter( name );
+            return value != null ? Integer.parseInt( value ) : defaultValue;
+        }
+        catch( NumberFormatException ex )
+        {
+            return defaultValue;
+        }
+    }
+
+    private static long longValue( Map<String, String> entry, String name, long defaultValue )
+    {
+        try
+        {
+            String value = entry.get( name );
+            return value != null ? Long.parseLong( value ) : defaultValue;
+        }
+        catch( NumberFormatException ex )
+        {
+            return defaultValue;
+        }
+    }
+
+    private static byte[] toBytes( InputStream is ) throws IOException
+    {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int read;
+
+        try
+        {
+            while( ( read = is.read( buffer ) ) != -1 )
+                bos.write( buffer, 0, read );
+        }
+        finally
+        {
+            is.close();
+        }
+
+        return bos.toByteArray();
+    }
+
+    private static XMLInputFactory createXmlFactory()
+    {
+        XMLInputFactory xif = XMLInputFactory.newInstance();
+        xif.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+        xif.setProperty(XMLInputFactory.IS_COALESCING, true);
+        xif.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        return xif;
+    }
+
+    private static class NullOutputStream extends OutputStream
+    {
+        @Override
+        public void write( int b ) { }
+
+        @Override
+        public void write( byte[] buffer, int offset, int length ) { }
+    }
+
+    private static class BadRequestException extends RuntimeException
+    {
+        private BadRequestException( String message )
+        {
+            super( message );
+        }
+    }
+
+    /**
+     * Runs the stand-in on its own, e.g. for pointing a separately started
+     * client at it with -Dpicasasync.api.prefix.
+     */
+    public static void main( String[] args ) throws Exception
+    {
+        StandInOptions options = StandInOptions.parse( args );
+
+        BasicConfigurator.configure();
+
+        StandInServer server = options.createServer();
+        server.start( options.port );
+        System.out.println( "Stand-in API prefix: " + server.getApiPrefix() );
+        server.join();
+    }
+}
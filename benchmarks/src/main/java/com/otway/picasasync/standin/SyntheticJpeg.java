@@ -0,0 +1,179 @@
+/*
+    Copyright 2016 Mark Otway
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+
+package com.otway.picasasync.standin;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Builds small but real JPEGs carrying the metadata the sync reads: an
+ * EXIF APP1 segment with the date taken and an image unique ID, and an
+ * IPTC APP13 segment with keywords. The image itself is a fixed 32x24
+ * frame (the size the stand-in server reports), encoded once; only the
+ * metadata segments are built per file.
+ */
+class SyntheticJpeg
+{
+    static final int WIDTH = 32;
+    static final int HEIGHT = 24;
+
+    private static final DateTimeFormatter EXIF_DATE = DateTimeFormatter.ofPattern( "yyyy:MM:dd HH:mm:ss" )
+                                                                        .withZone( ZoneOffset.UTC );
+    private static final int TAG_DATETIME = 0x0132;
+    private static final int TAG_EXIF_IFD = 0x8769;
+    private static final int TAG_DATETIME_ORIGINAL = 0x9003;
+    private static final int TAG_IMAGE_UNIQUE_ID = 0xA420;
+    private static final short TYPE_ASCII = 2;
+    private static final short TYPE_LONG = 4;
+    private static final int IFD_ENTRY_SIZE = 12;
+
+    private final byte[] frame;
+
+    SyntheticJpeg() throws IOException
+    {
+        BufferedImage image = new BufferedImage( WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB );
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ImageIO.write( image, "jpg", bytes );
+        frame = bytes.toByteArray();
+    }
+
+    /**
+     * The JPEG for a photo taken at the given time. Keywords may be empty.
+     */
+    byte[] create( long timestamp, String uniqueId, String[] keywords )
+    {
+        byte[] exif = exifSegment( timestamp, uniqueId );
+        byte[] iptc = keywords.length > 0 ? iptcSegment( keywords ) : new byte[0];
+
+        // SOI, then our segments, then the encoder's output minus its SOI
+        ByteBuffer jpeg = ByteBuffer.allocate( 2 + exif.length + iptc.length + frame.length - 2 );
+        jpeg.put( frame, 0, 2 );
+        jpeg.put( exif );
+        jpeg.put( iptc );
+        jpeg.put( frame, 2, frame.length - 2 );
+        return jpeg.array();
+    }
+
+    /*
+     * A big-endian TIFF structure: IFD0 holding DateTime and a pointer to
+     * the EXIF sub-IFD, which holds DateTimeOriginal and ImageUniqueID.
+     */
+    private static byte[] exifSegment( long timestamp, String uniqueId )
+    {
+        byte[] date = ascii( EXIF_DATE.format( Instant.ofEpochMilli( timestamp ) ) );
+        byte[] id = ascii( uniqueId );
+
+        int ifd0 = 8;
+        int ifd0Data = ifd0 + ifdSize( 2 );
+        int subIfd = ifd0Data + date.length;
+        int subIfdData = subIfd + ifdSize( 2 );
+        int tiffLength = subIfdData + date.length + id.length;
+
+        ByteBuffer tiff = ByteBuffer.allocate( tiffLength );
+        tiff.put( (byte)'M' ).put( (byte)'M' ).putShort( (short)42 ).putInt( ifd0 );
+
+        tiff.putShort( (short)2 );
+        ifdEntry( tiff, TAG_DATETIME, TYPE_ASCII, date.length, ifd0Data );
+        ifdEntry( tiff, TAG_EXIF_IFD, TYPE_LONG, 1, subIfd );
+        tiff.putInt( 0 );
+        tiff.put( date );
+
+        tiff.putShort( (short)2 );
+        ifdEntry( tiff, TAG_DATETIME_ORIGINAL, TYPE_ASCII, date.length, subIfdData );
+        ifdEntry( tiff, TAG_IMAGE_UNIQUE_ID, TYPE_ASCII, id.length, subIfdData + date.length );
+        tiff.putInt( 0 );
+        tiff.put( date );
+        tiff.put( id );
+
+        byte[] header = "Exif\0\0".getBytes( StandardCharsets.US_ASCII );
+        return segment( 0xE1, header, tiff.array() );
+    }
+
+    /*
+     * A Photoshop image resource block holding an IPTC-NAA record: the
+     * record version, then a keywords dataset (2:25) per keyword.
+     */
+    private static byte[] iptcSegment( String[] keywords )
+    {
+        ByteArrayOutputStream iptc = new ByteArrayOutputStream();
+        iptc.write( 0x1C );
+        iptc.write( 2 );
+        iptc.write( 0 );
+        iptc.write( 0 );
+        iptc.write( 2 );
+        iptc.write( 0 );
+        iptc.write( 4 );
+
+        for( String keyword : keywords )
+        {
+            byte[] value = keyword.getBytes( StandardCharsets.UTF_8 );
+            iptc.write( 0x1C );
+            iptc.write( 2 );
+            iptc.write( 25 );
+            iptc.write( value.length >> 8 );
+            iptc.write( value.length & 0xff );
+            iptc.write( value, 0, value.length );
+        }
+
+        byte[] record = iptc.toByteArray();
+        int padded = record.length + ( record.length & 1 );
+
+        // 8BIM, resource 0x0404 (IPTC-NAA), an empty (padded) name, then the data
+        ByteBuffer resource = ByteBuffer.allocate( 4 + 2 + 2 + 4 + padded );
+        resource.put( ascii( "8BIM" ), 0, 4 ).putShort( (short)0x0404 ).putShort( (short)0 ).putInt( record.length );
+        resource.put( record );
+
+        byte[] header = "Photoshop 3.0\0".getBytes( StandardCharsets.US_ASCII );
+        return segment( 0xED, header, resource.array() );
+    }
+
+    private static int ifdSize( int entries )
+    {
+        return 2 + entries * IFD_ENTRY_SIZE + 4;
+    }
+
+    private static void ifdEntry( ByteBuffer tiff, int tag, short type, int count, int valueOrOffset )
+    {
+        tiff.putShort( (short)tag ).putShort( type ).putInt( count ).putInt( valueOrOffset );
+    }
+
+    private static byte[] segment( int marker, byte[] header, byte[] body )
+    {
+        int length = 2 + header.length + body.length;
+
+        ByteBuffer segment = ByteBuffer.allocate( 2 + length );
+        segment.put( (byte)0xFF ).put( (byte)marker ).putShort( (short)length );
+        segment.put( header ).put( body );
+        return segment.array();
+    }
+
+    /*
+     * NUL-terminated, as EXIF ASCII values are.
+     */
+    private static byte[] ascii( String value )
+    {
+        return ( value + "\0" ).getBytes( StandardCharsets.US_ASCII );
+    }
+}
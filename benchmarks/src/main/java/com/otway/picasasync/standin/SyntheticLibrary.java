@@ -0,0 +1,418 @@
+/*
+    Copyright 2016 Mark Otway
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.otway.picasasync.standin;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * In-memory photo library for the stand-in server. Generated photos don't
+ * hold their bytes: the content is a small real JPEG followed by padding
+ * from a seeded generator, so any photo can be streamed at its full size
+ * on demand and always comes out the same. Uploaded photos keep their
+ * bytes only if asked to.
+ *
+ * All methods synchronize on the library, so callers that need several
+ * fields to be consistent (e.g. while writing a feed) can do the same.
+ */
+public class SyntheticLibrary
+{
+    private static final long ALBUM_ID_BASE = 5000000000000000000L;
+    private static final long PHOTO_ID_BASE = 6000000000000000000L;
+    private static final long DAY_MS = 24L * 60 * 60 * 1000;
+
+    // LibraryGenerator's manifest: an album line, then a line for each of its photos
+    static final String MANIFEST_ALBUM = "A";
+    static final String MANIFEST_PHOTO = "P";
+    static final String MANIFEST_BOTH = "both";
+    static final String MANIFEST_LOCAL = "local";
+    static final String MANIFEST_REMOTE = "remote";
+
+    public static class Album
+    {
+        private final String id;
+        private final String title;
+        private final String name;
+        private final List<Photo> photos = new ArrayList<Photo>();
+        private long timestamp;
+        private long updated;
+
+        private Album( String id, String title, long timestamp )
+        {
+            this.id = id;
+            this.title = title;
+            this.name = title.replaceAll( "[^A-Za-z0-9]", "" );
+            this.timestamp = timestamp;
+            this.updated = timestamp;
+        }
+
+        public String getId() { return id; }
+        public String getTitle() { return title; }
+        public String getName() { return name; }
+        public long getTimestamp() { return timestamp; }
+        public long getUpdated() { return updated; }
+        public int getNumPhotos() { return photos.size(); }
+    }
+
+    public static class Photo
+    {
+        private final String id;
+        private final String title;
+        private final long timestamp;
+        private final String exifUniqueId;
+        private final String keywords;
+        private String albumId;
+        private long size;
+        private long seed;
+        private byte[] content;
+        private String checksum;
+        private long updated;
+
+        private Photo( String id, String albumId, String title, long timestamp, String exifUniqueId, String keywords )
+        {
+            this.id = id;
+            this.albumId = albumId;
+            this.title = title;
+            this.timestamp = timestamp;
+            this.exifUniqueId = exifUniqueId;
+            this.keywords = keywords;
+            this.updated = timestamp;
+        }
+
+        public String getId() { return id; }
+        public String getAlbumId() { return albumId; }
+        public String getTitle() { return title; }
+        public long getSize() { return size; }
+        public String getChecksum() { return checksum; }
+        public long getTimestamp() { return timestamp; }
+        public long getUpdated() { return updated; }
+        public String getExifUniqueId() { return exifUniqueId; }
+        /** Comma-separated, as in a media:keywords element. */
+        public String getKeywords() { return keywords; }
+    }
+
+    private final Map<String, Album> albums = new LinkedHashMap<String, Album>();
+    private final Map<String, Photo> photos = new HashMap<String, Photo>();
+    private final byte[] jpegHeader;
+    private final Random random;
+    private long nextAlbumId = ALBUM_ID_BASE;
+    private long nextPhotoId = PHOTO_ID_BASE;
+    private long version;
+
+    public SyntheticLibrary( long seed )
+    {
+        this.random = new Random( seed );
+        this.jpegHeader = createJpeg();
+    }
+
+    /**
+     * Generates a library of albums of photos, with sizes spread evenly
+     * between half and one and a half times the mean, and dates spread over
+     * the last year.
+     */
+    public static SyntheticLibrary generate( int albumCount, int photosPerAlbum, long meanPhotoSize, long seed )
+    {
+        SyntheticLibrary library = new SyntheticLibrary( seed );
+        long now = System.currentTimeMillis();
+
+        for( int a = 0; a < albumCount; a++ )
+        {
+            long albumTime = now - (long)( library.random.nextDouble() * 365 * DAY_MS );
+            Album album = library.addAlbum( String.format( "Synthetic Album %04d", a ), albumTime );
+
+            for( int p = 0; p < photosPerAlbum; p++ )
+            {
+                long size = meanPhotoSize / 2 + (long)( library.random.nextDouble() * meanPhotoSize );
+                long time = albumTime - (long)( library.random.nextDouble() * 7 * DAY_MS );
+                library.addSyntheticPhoto( album, String.format( "IMG_%05d.JPG", p ), size, time );
+            }
+        }
+
+        return library;
+    }
+
+    /**
+     * Builds the remote side of a library made by LibraryGenerator from
+     * its manifest, for the stand-in server to serve. Photos that only
+     * exist locally are left out.
+     */
+    public static SyntheticLibrary readManifest( File manifestFile, long seed ) throws IOException
+    {
+        SyntheticLibrary library = new SyntheticLibrary( seed );
+        BufferedReader reader = new BufferedReader( new InputStreamReader( new FileInputStream( manifestFile ),
+                                                                          StandardCharsets.UTF_8 ) );
+
+        try
+        {
+            SyntheticLibrary.Album album = null;
+            String line;
+
+            while( ( line = reader.readLine() ) != null )
+            {
+                if( line.isEmpty() || line.startsWith( "#" ) )
+                    continue;
+
+                String[] fields = line.split( "\t", -1 );
+
+                if( fields[0].equals( MANIFEST_ALBUM ) )
+                    album = library.addAlbum( fields[1], Long.parseLong( fields[2] ) );
+                else if( fields[0].equals( MANIFEST_PHOTO ) && ! fields[3].equals( MANIFEST_LOCAL ) )
+                {
+                    if( album == null )
+                        throw new IOException( "Photo before any album in " + manifestFile );
+
+                    library.addSyntheticPhoto( album, fields[1], Long.parseLong( fields[4] ),
+                                               Long.parseLong( fields[2] ), fields[5], fields[6] );
+                }
+            }
+        }
+        finally
+        {
+            reader.close();
+        }
+
+        return library;
+    }
+
+    public synchronized long getVersion() { return version; }
+
+    public synchronized List<Album> getAlbums()
+    {
+        return new ArrayList<Album>( albums.values() );
+    }
+
+    public synchronized Album getAlbum( String albumId )
+    {
+        return albums.get( albumId );
+    }
+
+    public synchronized List<Photo> getPhotos( Album album )
+    {
+        return new ArrayList<Photo>( album.photos );
+    }
+
+    public synchronized Photo getPhoto( String photoId )
+    {
+        return photos.get( photoId );
+    }
+
+    public synchronized int getPhotoCount()
+    {
+        return photos.size();
+    }
+
+    public synchronized Album addAlbum( String title, long timestamp )
+    {
+        Album album = new Album( String.valueOf( nextAlbumId++ ), title, timestamp );
+        albums.put( album.id, album );
+        version++;
+        return album;
+    }
+
+    private synchronized Photo addSyntheticPhoto( Album album, String title, long size, long timestamp )
+    {
+        return addSyntheticPhoto( album, title, size, timestamp, Long.toHexString( random.nextLong() ), "" );
+    }
+
+    /**
+     * Adds a photo served as synthetic content, with the given metadata -
+     * e.g. to match a file generated on disk.
+     */
+    public synchronized Photo addSyntheticPhoto( Album album, String title, long size, long timestamp,
+                                                 String exifUniqueId, String keywords )
+    {
+        Photo photo = newPhoto( album, title, timestamp, exifUniqueId, keywords );
+        photo.size = Math.max( size, jpegHeader.length );
+        photo.seed = random.nextLong();
+        return photo;
+    }
+
+    /**
+     * Adds an uploaded photo. If the content is null the photo is served as
+     * synthetic content of the same size.
+     */
+    public synchronized Photo addPhoto( Album album, String title, long timestamp, byte[] content, long size,
+                                        String checksum )
+    {
+        Photo photo = newPhoto( album, title, timestamp, Long.toHexString( random.nextLong() ), "" );
+        setMedia( photo, content, size, checksum );
+        return photo;
+    }
+
+    private Photo newPhoto( Album album, String title, long timestamp, String exifUniqueId, String keywords )
+    {
+        String id = String.valueOf( nextPhotoId++ );
+        Photo photo = new Photo( id, album.id, title, timestamp, exifUniqueId, keywords );
+        photos.put( id, photo );
+        album.photos.add( photo );
+        album.updated = System.currentTimeMillis();
+        version++;
+        return photo;
+    }
+
+    public synchronized void setMedia( Photo photo, byte[] content, long size, String checksum )
+    {
+        photo.content = content;
+        photo.size = Math.max( size, jpegHeader.length );
+        photo.seed = random.nextLong();
+        photo.checksum = checksum;
+        touch( photo );
+    }
+
+    public synchronized boolean movePhoto( Photo photo, String albumId )
+    {
+        Album from = albums.get( photo.albumId );
+        Album to = albums.get( albumId );
+
+        if( to == null )
+            return false;
+
+        if( from != to )
+        {
+            if( from != null )
+            {
+                from.photos.remove( photo );
+                from.updated = System.currentTimeMillis();
+            }
+
+            to.photos.add( photo );
+            photo.albumId = albumId;
+        }
+
+        touch( photo );
+        return true;
+    }
+
+    public synchronized void deletePhoto( Photo photo )
+    {
+        Album album = albums.get( photo.albumId );
+        if( album != null )
+        {
+            album.photos.remove( photo );
+            album.updated = System.currentTimeMillis();
+        }
+
+        photos.remove( photo.id );
+        version++;
+    }
+
+    public synchronized void setAlbumTimestamp( Album album, long timestamp )
+    {
+        album.timestamp = timestamp;
+        album.updated = System.currentTimeMillis();
+        version++;
+    }
+
+    private void touch( Photo photo )
+    {
+        photo.updated = System.currentTimeMillis();
+
+        Album album = albums.get( photo.albumId );
+        if( album != null )
+            album.updated = photo.updated;
+
+        version++;
+    }
+
+    /**
+     * Opens the photo's content: the stored bytes if there are any,
+     * otherwise the synthetic content.
+     */
+    public synchronized InputStream openMedia( Photo photo )
+    {
+        if( photo.content != null )
+            return new ByteArrayInputStream( photo.content );
+
+        return new SyntheticContent( jpegHeader, photo.size, photo.seed );
+    }
+
+    private static byte[] createJpeg()
+    {
+        try
+        {
+            // A real (if tiny) image, so metadata reads on downloaded files succeed
+            BufferedImage image = new BufferedImage( 32, 24, BufferedImage.TYPE_INT_RGB );
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            ImageIO.write( image, "jpg", bytes );
+            return bytes.toByteArray();
+        }
+        catch( IOException ex )
+        {
+            throw new IllegalStateException( "Unable to create synthetic JPEG", ex );
+        }
+    }
+
+    /**
+     * The JPEG followed by seeded padding, up to the photo's size.
+     */
+    private static class SyntheticContent extends InputStream
+    {
+        private final byte[] header;
+        private final long size;
+        private final Random padding;
+        private final byte[] block = new byte[8192];
+        private int blockPos = block.length;
+        private long position;
+
+        private SyntheticContent( byte[] header, long size, long seed )
+        {
+            this.header = header;
+            this.size = size;
+            this.padding = new Random( seed );
+        }
+
+        @Override
+        public int read()
+        {
+            byte[] one = new byte[1];
+            return read( one, 0, 1 ) < 0 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read( byte[] buffer, int offset, int length )
+        {
+            if( position >= size )
+                return -1;
+
+            int count = (int)Math.min( length, size - position );
+
+            if( position < header.length )
+            {
+                count = (int)Math.min( count, header.length - position );
+                System.arraycopy( header, (int)position, buffer, offset, count );
+            }
+            else
+            {
+                if( blockPos == block.length )
+                {
+                    padding.nextBytes( block );
+                    blockPos = 0;
+                }
+
+                count = Math.min( count, block.length - blockPos );
+                System.arraycopy( block, blockPos, buffer, offset, count );
+                blockPos += count;
+            }
+
+            position += count;
+            return count;
+        }
+    }
+}
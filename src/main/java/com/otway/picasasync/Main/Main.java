@@ -19,7 +19,10 @@ package com.otway.picasasync.Main;
 import java.io.File;
 
 import com.otway.picasasync.config.Settings;
+import com.otway.picasasync.control.ControlServer;
+import com.otway.picasasync.metrics.FlightRecording;
 import com.otway.picasasync.syncutil.SyncManager;
+import com.otway.picasasync.syncutil.SyncPlan;
 import com.otway.picasasync.ui.SyncTrayIcon;
 import org.apache.log4j.*;
 
@@ -29,11 +32,21 @@ public class Main {
 
     private static final Logger log = Logger.getLogger(Main.class);
     private static String headlessSettings = null;
+    private static boolean planOnly = false;
+    private static String flightRecording = null;
+    private static String controlPort = null;
+    // Shut down on the way out, so queued file times aren't lost
+    private static volatile SyncManager activeManager = null;
+    // Room for a good burst of per-image messages before any are dropped
+    private static final int LOG_BUFFER_SIZE = 4096;
 
     public static boolean isHeadless() { return headlessSettings != null; }
     public Main() {
         initLogging();
 
+        if( flightRecording != null )
+            FlightRecording.start( new File( flightRecording ) );
+
         boolean guiEnabled = ! isHeadless();
 
         if( guiEnabled )
@@ -48,6 +61,13 @@ public class Main {
             if( settings.loadSettings() ) {
 
                 SyncManager manager = new SyncManager(settings);
+                activeManager = manager;
+
+                if( planOnly )
+                {
+                    printSyncPlan(settings, manager);
+                    return;
+                }
 
                 if( guiEnabled )
                 {
@@ -56,7 +76,13 @@ public class Main {
                     log.info("Application started successfully.");
                 }
                 else
+                {
                     log.info("Starting headless sync process...");
+                    manager.setWriteMetricsReport( true );
+                }
+
+                if( controlPort != null )
+                    startControlServer( manager, settings );
 
                 // Allow interactive login the first time - if we're not headless
                 if( manager.initWebClient( guiEnabled ) )
@@ -73,14 +99,43 @@ public class Main {
         }
     }
 
+    /*
+     * Dry run: print what a sync would do, and how long it's likely to
+     * take, then exit without changing anything.
+     */
+    private void printSyncPlan(Settings settings, SyncManager manager) throws Exception {
+
+        log.info("Planning sync (dry run)...");
+
+        if( manager.initWebClient( ! isHeadless() ) )
+        {
+            SyncPlan plan = manager.planSync();
+
+            if( plan != null )
+                System.out.print( plan.format( settings.getPhotoRootFolder() ) );
+        }
+        else
+            log.error("Unable to authenticate. No plan produced.");
+
+        manager.shutDown();
+        System.exit( 0 );
+    }
+
+    /*
+     * The console and file appenders sit behind an AsyncAppender, so the
+     * sync threads only hand each event to a buffer and carry on; a
+     * background thread does the formatting and the I/O. If the buffer
+     * fills, events are dropped (and the number dropped is logged) rather
+     * than holding up transfers. The patterns avoid location info (%C, %L
+     * etc.), which costs a stack trace per message.
+     */
     private void initLogging() {
 
         ConsoleAppender console = new ConsoleAppender(); //create appender
-        String PATTERN = "%d [%p|%c|%C{1}] %m%n";
+        String PATTERN = "%d [%p|%c] %m%n";
         console.setLayout(new PatternLayout(PATTERN));
         console.setThreshold(Level.INFO);
         console.activateOptions();
-        Logger.getRootLogger().addAppender(console);
 
         RunRolledFileAppender fa = new RunRolledFileAppender();
         fa.setName("FileLogger");
@@ -91,7 +146,55 @@ public class Main {
         fa.activateOptions();
         fa.setMaxBackupIndex( 1 );
 
-        Logger.getRootLogger().addAppender(fa);
+        AsyncAppender async = new AsyncAppender();
+        async.setName("AsyncLogger");
+        async.setBufferSize(LOG_BUFFER_SIZE);
+        async.setBlocking(false);
+        async.setLocationInfo(false);
+        async.addAppender(console);
+        async.addAppender(fa);
+
+        Logger.getRootLogger().addAppender(async);
+
+        // On the way out (including Ctrl-C or SIGTERM when headless), write
+        // any queued file times, then flush whatever is still buffered. It's
+        // one hook so the two happen in that order.
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+            public void run() {
+                SyncManager manager = activeManager;
+                if( manager != null )
+                    manager.shutDown();
+
+                LogManager.shutdown();
+            }
+        });
+    }
+
+    /*
+     * The endpoint is optional, so if it can't be started the sync carries
+     * on without it.
+     */
+    private void startControlServer( SyncManager manager, Settings settings ) {
+        int port;
+
+        try {
+            port = Integer.parseInt( controlPort );
+        }
+        catch( NumberFormatException ex ) {
+            port = -1;
+        }
+
+        if( port < 0 || port > 65535 ) {
+            log.error("Invalid control port '" + controlPort + "'. Expected -control=<port>, e.g. -control=8090. Continuing without the control endpoint.");
+            return;
+        }
+
+        try {
+            new ControlServer( manager, settings ).start( port );
+        }
+        catch( Exception ex ) {
+            log.error("Unable to start the control endpoint on port " + port + ". Continuing without it.", ex);
+        }
     }
 
     private void setSystemLookAndFeel(){
@@ -120,12 +223,28 @@ public class Main {
     private static void processCmdLineArgs(String[] args)
     {
         final String settingsArg = "-settings=";
+        final String planArg = "-plan";
+        final String jfrArg = "-jfr=";
+        final String controlArg = "-control=";
         for( String arg : args )
         {
             if( arg.startsWith( settingsArg ))
             {
                 headlessSettings = arg.substring( settingsArg.length() );
             }
+            else if( arg.equals( planArg ))
+            {
+                planOnly = true;
+            }
+            else if( arg.startsWith( jfrArg ))
+            {
+                flightRecording = arg.substring( jfrArg.length() );
+            }
+            else if( arg.startsWith( controlArg ))
+            {
+                // Validated once logging is up
+                controlPort = arg.substring( controlArg.length() );
+            }
         }
     }
 }
@@ -44,6 +44,9 @@ public class Settings {
     private static final String AUTOBACKUP_DOWNLOAD = "AutoBackupDownload";
     private static final String AUTOBACKUP_UPLOAD = "AutoBackupUpload";
     private static final String DELETE_TAGGED = "DeleteTaggedFiles";
+    private static final String SPILL_THRESHOLD = "SpillThreshold";
+    private static final String UPLOAD_RATE = "UploadBytesPerSec";
+    private static final String DOWNLOAD_RATE = "DownloadBytesPerSec";
 
     private File photoRootFolder;
     private String refreshToken;
@@ -85,8 +88,29 @@ public class Settings {
     public void setAutoBackupDownload(boolean autoBackupDownload) {this.autoBackupDownload = autoBackupDownload; saveSettings();}
     public void setAutoBackupUpload(boolean autoBackupUpload) {this.autoBackupUpload = autoBackupUpload; saveSettings();}
 
+    // Albums with more entries than this are listed and queued via temp files
+    private Integer spillThreshold;
+    public int getSpillThreshold() { return spillThreshold; }
+    public void setSpillThreshold(int spillThreshold) {this.spillThreshold = spillThreshold; saveSettings();}
+
+    // Transfer throughput measured on previous syncs, for plan estimates. 0 = not yet known
+    private Long uploadBytesPerSec;
+    private Long downloadBytesPerSec;
+    public long getUploadBytesPerSec() { return uploadBytesPerSec; }
+    public long getDownloadBytesPerSec() { return downloadBytesPerSec; }
+    public void setMeasuredThroughput(long uploadBytesPerSec, long downloadBytesPerSec) {
+        this.uploadBytesPerSec = uploadBytesPerSec;
+        this.downloadBytesPerSec = downloadBytesPerSec;
+        saveSettings();
+    }
+
     public Settings() {
-        preferences = Preferences.userNodeForPackage(Settings.class);
+        this(Preferences.userNodeForPackage(Settings.class));
+    }
+
+    // Lets tools and benchmarks load settings without touching the user's own prefs
+    public Settings(Preferences preferences) {
+        this.preferences = preferences;
     }
 
     public boolean loadSettings() {
@@ -113,6 +137,9 @@ public class Settings {
         autoBackupDownload = Boolean.parseBoolean(preferences.get( AUTOBACKUP_DOWNLOAD, "true"));
         autoBackupUpload = Boolean.parseBoolean(preferences.get( AUTOBACKUP_UPLOAD, "false"));
         deleteTaggedFiles = Boolean.parseBoolean(preferences.get( DELETE_TAGGED, "false"));
+        spillThreshold = Integer.parseInt(preferences.get( SPILL_THRESHOLD, "20000"));
+        uploadBytesPerSec = Long.parseLong(preferences.get( UPLOAD_RATE, "0"));
+        downloadBytesPerSec = Long.parseLong(preferences.get( DOWNLOAD_RATE, "0"));
 
         log.info( "Settings loaded successfully.");
         return result;
@@ -149,6 +176,9 @@ public class Settings {
         preferences.put( AUTOBACKUP_DOWNLOAD, autoBackupDownload.toString() );
         preferences.put(AUTOBACKUP_UPLOAD, autoBackupUpload.toString());
         preferences.put(DELETE_TAGGED, deleteTaggedFiles.toString());
+        preferences.put(SPILL_THRESHOLD, spillThreshold.toString());
+        preferences.put(UPLOAD_RATE, uploadBytesPerSec.toString());
+        preferences.put(DOWNLOAD_RATE, downloadBytesPerSec.toString());
 
         if( getRefreshToken() != null )
             preferences.put( REFRESH_TOKEN, getRefreshToken() );
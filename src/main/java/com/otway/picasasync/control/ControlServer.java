@@ -0,0 +1,272 @@
+/*
+    Copyright 2016 Mark Otway
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+
+package com.otway.picasasync.control;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.otway.picasasync.config.Settings;
+import com.otway.picasasync.metrics.MetricsRegistry;
+import com.otway.picasasync.syncutil.SyncHistory;
+import com.otway.picasasync.syncutil.SyncManager;
+import com.otway.picasasync.syncutil.SyncReport;
+import com.otway.picasasync.syncutil.SyncState;
+import org.apache.log4j.Logger;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.eclipse.jetty.server.nio.SelectChannelConnector;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A small HTTP endpoint on the loopback interface, so a headless sync can
+ * be watched and driven without reading the log:
+ *
+ *     GET  /status   live state, queue depths, throughput, ETA and the last run's report, as JSON
+ *     POST /sync     start a sync now, rather than waiting for the next scheduled one
+ *     POST /pause    hold transfers (and scheduled syncs) until resumed
+ *     POST /resume   carry on after a pause
+ *     POST /cancel   cancel the sync in progress
+ *
+ * e.g. curl -X POST http://127.0.0.1:8090/sync
+ *
+ * Commands must be POSTs, and requests carrying an Origin header are
+ * refused, so a web page in a local browser can't drive the sync.
+ */
+public class ControlServer
+{
+    private static final Logger log = Logger.getLogger(ControlServer.class);
+    private static final String JSON_CONTENT_TYPE = "application/json; charset=UTF-8";
+    private static final double BYTES_PER_MB = 1024 * 1024;
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    private final SyncManager manager;
+    private final Settings settings;
+    private Server server;
+    private int port;
+
+    public ControlServer( SyncManager manager, Settings settings )
+    {
+        this.manager = manager;
+        this.settings = settings;
+    }
+
+    public int getPort() { return port; }
+
+    public void start( int requestedPort ) throws Exception
+    {
+        SelectChannelConnector connector = new SelectChannelConnector();
+        connector.setHost( "127.0.0.1" );
+        connector.setPort( requestedPort );
+
+        server = new Server();
+        server.addConnector( connector );
+        server.setStopAtShutdown( true );
+        server.setHandler( new AbstractHandler()
+        {
+            public void handle( String target, Request baseRequest, HttpServletRequest request,
+                                HttpServletResponse response ) throws IOException
+            {
+                baseRequest.setHandled( true );
+                handleRequest( target, request, response );
+            }
+        });
+
+        try
+        {
+            server.start();
+        }
+        catch( Exception ex )
+        {
+            // e.g. the port's in use. Don't leave Jetty's threads behind.
+            server.stop();
+            server = null;
+            throw ex;
+        }
+
+        port = connector.getLocalPort();
+
+        log.info("Control endpoint listening on http://127.0.0.1:" + port + "/status");
+    }
+
+    public void stop() throws Exception
+    {
+        if( server != null )
+        {
+            server.stop();
+            server = null;
+        }
+    }
+
+    private void handleRequest( String target, HttpServletRequest request, HttpServletResponse response )
+            throws IOException
+    {
+        if( request.getHeader( "Origin" ) != null )
+        {
+            response.sendError( HttpServletResponse.SC_FORBIDDEN );
+            return;
+        }
+
+        boolean post = request.getMethod().equals( "POST" );
+
+        if( target.equals( "/status" ) )
+        {
+            if( ! request.getMethod().equals( "GET" ) )
+                response.sendError( HttpServletResponse.SC_METHOD_NOT_ALLOWED );
+            else
+                writeJson( response, HttpServletResponse.SC_OK, getStatus() );
+            return;
+        }
+
+        if( ! target.equals( "/sync" ) && ! target.equals( "/pause" ) && ! target.equals( "/resume" )
+                && ! target.equals( "/cancel" ) )
+        {
+            response.sendError( HttpServletResponse.SC_NOT_FOUND );
+            return;
+        }
+
+        if( ! post )
+        {
+            response.sendError( HttpServletResponse.SC_METHOD_NOT_ALLOWED );
+            return;
+        }
+
+        log.info("Control endpoint command: " + target);
+
+        SyncState state = manager.getSyncState();
+        String result;
+        int code = HttpServletResponse.SC_OK;
+
+        if( target.equals( "/sync" ) )
+        {
+            if( state.getIsInProgress() )
+            {
+                code = HttpServletResponse.SC_CONFLICT;
+                result = "A sync is already in progress.";
+            }
+            else if( state.getIsPaused() )
+            {
+                code = HttpServletResponse.SC_CONFLICT;
+                result = "Sync is paused. Resume it first.";
+            }
+            else
+            {
+                manager.startSync();
+                result = "Sync started.";
+            }
+        }
+        else if( target.equals( "/pause" ) )
+        {
+            state.setPaused( true );
+            result = "Sync paused.";
+        }
+        else if( target.equals( "/resume" ) )
+        {
+            state.setPaused( false );
+            result = "Sync resumed.";
+        }
+        else
+        {
+            if( state.getIsInProgress() )
+            {
+                state.cancel( false );
+                result = "Sync cancelled.";
+            }
+            else
+            {
+                code = HttpServletResponse.SC_CONFLICT;
+                result = "No sync in progress.";
+            }
+        }
+
+        Map<String, Object> body = new LinkedHashMap<String, Object>();
+        body.put( "result", result );
+        writeJson( response, code, body );
+    }
+
+    private Map<String, Object> getStatus()
+    {
+        SyncState.Snapshot snapshot = manager.getSyncState().snapshot();
+
+        String phase = snapshot.isPaused() ? "paused" : snapshot.isInProgress() ? "syncing" : "idle";
+
+        Map<String, Object> status = new LinkedHashMap<String, Object>();
+        status.put( "phase", phase );
+        status.put( "status", snapshot.getStatus() );
+        status.put( "errorState", snapshot.isErrorState() );
+        status.put( "failed", snapshot.getFailed() );
+        status.put( "downloads", laneStatus( snapshot.getDownloads() ) );
+        status.put( "uploads", laneStatus( snapshot.getUploads() ) );
+        status.put( "deletionsQueued", MetricsRegistry.gauge( MetricsRegistry.DELETE_QUEUE ).getValue() );
+        status.put( "etaSecs", snapshot.isInProgress() ? etaSecs( snapshot ) : null );
+
+        List<SyncReport> lastRun = new SyncHistory( settings.getPhotoRootFolder() ).readRecent( 1 );
+        status.put( "lastRun", lastRun.isEmpty() ? null : lastRun.get( 0 ) );
+
+        return status;
+    }
+
+    private static Map<String, Object> laneStatus( SyncState.LaneSnapshot lane )
+    {
+        Map<String, Object> status = new LinkedHashMap<String, Object>();
+        status.put( "files", lane.getFiles() );
+        status.put( "bytes", lane.getBytes() );
+        status.put( "inFlight", lane.getInFlight() );
+        status.put( "queued", lane.getQueued() );
+        status.put( "MBps", lane.getMillis() > 0 ? lane.getBytes() / BYTES_PER_MB / ( lane.getMillis() / 1000.0 ) : 0 );
+        return status;
+    }
+
+    /*
+     * Transfers run one at a time, so the lanes' remaining times add up.
+     * Null until both busy lanes have a rate to go on.
+     */
+    private static Long etaSecs( SyncState.Snapshot snapshot )
+    {
+        long millis = 0;
+
+        for( SyncState.LaneSnapshot lane : new SyncState.LaneSnapshot[] { snapshot.getDownloads(), snapshot.getUploads() } )
+        {
+            if( ! lane.isBusy() )
+                continue;
+
+            long remaining = lane.getRemainingMillis();
+            if( remaining < 0 )
+                return null;
+
+            millis += remaining;
+        }
+
+        return millis / 1000;
+    }
+
+    private static void writeJson( HttpServletResponse response, int code, Object body ) throws IOException
+    {
+        byte[] json = mapper.writeValueAsBytes( body );
+
+        response.setStatus( code );
+        response.setContentType( JSON_CONTENT_TYPE );
+        response.setContentLength( json.length );
+        response.getOutputStream().write( json );
+    }
+}
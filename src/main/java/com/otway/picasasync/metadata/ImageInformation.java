@@ -11,6 +11,10 @@ import com.drew.metadata.exif.ExifSubIFDDirectory;
 import com.drew.metadata.iptc.IptcDescriptor;
 import com.drew.metadata.iptc.IptcDirectory;
 import com.drew.metadata.jpeg.JpegDirectory;
+import com.otway.picasasync.metrics.FlightEvents;
+import com.otway.picasasync.metrics.ImageReadEvent;
+import com.otway.picasasync.metrics.MetricsRegistry;
+import com.otway.picasasync.metrics.Phase;
 import com.sun.xml.internal.ws.api.wsdl.parser.MetaDataResolver;
 import org.apache.log4j.Logger;
 
@@ -69,8 +73,12 @@ public class ImageInformation {
     public static ImageInformation safeReadImageInformation( File imageFile )
     {
         ImageInformation info = null;
+        boolean exif = false;
+        ImageReadEvent event = FlightEvents.beginImageRead();
+        long start = System.nanoTime();
         try{
             info = readImageInformation( imageFile );
+            exif = true;
         }
         catch( Exception ex )
         {
@@ -84,6 +92,10 @@ public class ImageInformation {
             else
                 log.warn("Unable to get image information for " + imageFile );
         }
+        finally {
+            MetricsRegistry.record( Phase.exifRead, start );
+            FlightEvents.endImageRead( event, imageFile.getName(), exif, info != null );
+        }
 
         return info;
     }
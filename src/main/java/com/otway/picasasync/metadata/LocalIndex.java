@@ -0,0 +1,166 @@
+/*
+    Copyright 2016 Mark Otway
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.otway.picasasync.metadata;
+
+import org.apache.log4j.Logger;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.util.Properties;
+
+/**
+ * Per-folder index of content digests for files we've transferred, kept in
+ * a hidden file alongside the photos. Each entry records the size and
+ * modification time the file had when it was hashed, so a digest is only
+ * trusted while the file is unchanged.
+ */
+public class LocalIndex
+{
+    private static final Logger log = Logger.getLogger(LocalIndex.class);
+    public static final String INDEX_FILE_NAME = ".picasync.index";
+
+    private final File indexFile;
+    private final Properties entries = new Properties();
+    private boolean dirty;
+
+    private LocalIndex( File folder )
+    {
+        this.indexFile = new File( folder, INDEX_FILE_NAME );
+    }
+
+    /**
+     * Loads the index for the folder. A missing or unreadable index is
+     * just treated as empty.
+     */
+    public static LocalIndex load( File folder )
+    {
+        LocalIndex index = new LocalIndex( folder );
+
+        if( index.indexFile.exists() )
+        {
+            try
+            {
+                InputStream is = new BufferedInputStream( new FileInputStream( index.indexFile ) );
+                try
+                {
+                    index.entries.load( is );
+                }
+                finally
+                {
+                    is.close();
+                }
+            }
+            catch( Exception ex )
+            {
+                log.warn("Unable to read local index " + index.indexFile + ". Starting afresh.", ex);
+                index.entries.clear();
+            }
+        }
+
+        return index;
+    }
+
+    /**
+     * Returns the MD5 digest recorded for the file, or null if there isn't
+     * one or the file has changed since it was recorded.
+     */
+    public synchronized String getDigest( File file )
+    {
+        String value = entries.getProperty( file.getName() );
+        if( value == null )
+            return null;
+
+        String[] fields = value.split( "," );
+        if( fields.length != 3 )
+            return null;
+
+        try
+        {
+            if( Long.parseLong( fields[0] ) != file.length() || Long.parseLong( fields[1] ) != file.lastModified() )
+                return null;
+        }
+        catch( NumberFormatException ex )
+        {
+            return null;
+        }
+
+        return fields[2];
+    }
+
+    /**
+     * Records the digest for a file. The modification time is passed in
+     * rather than read, since file times are written behind the transfers
+     * and the file may not have its final time yet.
+     */
+    public synchronized void putDigest( File file, long size, long lastModified, String md5 )
+    {
+        entries.setProperty( file.getName(), size + "," + lastModified + "," + md5 );
+        dirty = true;
+    }
+
+    public synchronized void remove( File file )
+    {
+        if( entries.remove( file.getName() ) != null )
+            dirty = true;
+    }
+
+    /**
+     * Writes the index back out, if it has changed.
+     */
+    public synchronized void save()
+    {
+        if( ! dirty || ! indexFile.getParentFile().exists() )
+            return;
+
+        File tempFile = new File( indexFile.getPath() + ".new" );
+
+        try
+        {
+            OutputStream os = new BufferedOutputStream( new FileOutputStream( tempFile ) );
+            try
+            {
+                entries.store( os, "Picasync local index" );
+            }
+            finally
+            {
+                os.close();
+            }
+
+            if( indexFile.exists() && ! indexFile.delete() )
+                throw new IOException("Unable to replace " + indexFile);
+
+            if( ! tempFile.renameTo( indexFile ) )
+                throw new IOException("Unable to rename " + tempFile);
+
+            try
+            {
+                // Hidden by name on Unix; on Windows it needs the attribute
+                Files.setAttribute( indexFile.toPath(), "dos:hidden", true );
+            }
+            catch( Exception ex )
+            {
+                // Not a DOS file system
+            }
+
+            dirty = false;
+        }
+        catch( IOException ex )
+        {
+            log.warn("Unable to save local index " + indexFile, ex);
+        }
+    }
+}
@@ -0,0 +1,56 @@
+/*
+    Copyright 2016 Mark Otway
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.otway.picasasync.metadata;
+
+/**
+ * Compact, immutable record of an album from the user feed.
+ */
+public class RemoteAlbum
+{
+    private final String albumId;
+    private final String title;
+    private final String name;
+    private final long updated;
+    private final String albumType;
+    private final int numPhotos;
+    private final String feedLink;
+
+    public RemoteAlbum( String albumId, String title, String name, long updated, String albumType, int numPhotos, String feedLink )
+    {
+        this.albumId = albumId;
+        this.title = title;
+        this.name = name;
+        this.updated = updated;
+        this.albumType = albumType;
+        this.numPhotos = numPhotos;
+        this.feedLink = feedLink;
+    }
+
+    public String getAlbumId() { return albumId; }
+    public String getTitle() { return title; }
+    public String getName() { return name; }
+    public long getUpdated() { return updated; }
+    public String getAlbumType() { return albumType; }
+    public int getNumPhotos() { return numPhotos; }
+    public String getFeedLink() { return feedLink; }
+
+    @Override
+    public String toString()
+    {
+        return String.format( "%s (%s)", title, name );
+    }
+}
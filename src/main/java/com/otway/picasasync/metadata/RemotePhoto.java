@@ -0,0 +1,162 @@
+/*
+    Copyright 2016 Mark Otway
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.otway.picasasync.metadata;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Compact, immutable record of a photo in a remote album. Holds just the
+ * fields the sync reads, so album listings don't need the GData object
+ * model. Timestamps are epoch milliseconds, with 0 meaning unknown.
+ */
+public class RemotePhoto
+{
+    private static final String[] NONE = new String[0];
+
+    private final String photoId;
+    private final String title;
+    private final long updated;
+    private final long timestamp;
+    private final long size;
+    private final String checksum;
+    private final String[] keywords;
+    private final String[] mediaUrls;
+    private final String exifUniqueId;
+    private final long exifTime;
+    private final String selfLink;
+
+    public RemotePhoto( String photoId, String title, long updated, long timestamp, long size, String checksum,
+                        String[] keywords, String[] mediaUrls, String exifUniqueId, long exifTime, String selfLink )
+    {
+        this.photoId = photoId;
+        // Titles repeat a lot across auto-backup albums (IMG_0001.JPG etc)
+        this.title = title != null ? title.intern() : null;
+        this.updated = updated;
+        this.timestamp = timestamp;
+        this.size = size;
+        this.checksum = checksum;
+        this.keywords = keywords != null ? keywords : NONE;
+        this.mediaUrls = mediaUrls != null ? mediaUrls : NONE;
+        this.exifUniqueId = exifUniqueId;
+        this.exifTime = exifTime;
+        this.selfLink = selfLink;
+    }
+
+    public String getPhotoId() { return photoId; }
+    public String getTitle() { return title; }
+    public long getUpdated() { return updated; }
+    public long getTimestamp() { return timestamp; }
+    public long getSize() { return size; }
+    public String getChecksum() { return checksum; }
+    public String getExifUniqueId() { return exifUniqueId; }
+    public long getExifTime() { return exifTime; }
+    public String getSelfLink() { return selfLink; }
+
+    public List<String> getKeywords() { return Collections.unmodifiableList( Arrays.asList( keywords ) ); }
+    public List<String> getMediaUrls() { return Collections.unmodifiableList( Arrays.asList( mediaUrls ) ); }
+
+    public boolean hasKeyword( String keyword )
+    {
+        for( String tag : keywords )
+            if( tag.equals( keyword ) )
+                return true;
+
+        return false;
+    }
+
+    // Videos have more than one media stream (the poster frame, plus encodings)
+    public boolean isVideo() { return mediaUrls.length > 1; }
+
+    /**
+     * Writes the record in a compact binary form, for spilling big album
+     * listings to disk. Read back with readFrom.
+     */
+    public void writeTo( DataOutput out ) throws IOException
+    {
+        writeString( out, photoId );
+        writeString( out, title );
+        out.writeLong( updated );
+        out.writeLong( timestamp );
+        out.writeLong( size );
+        writeString( out, checksum );
+        writeStrings( out, keywords );
+        writeStrings( out, mediaUrls );
+        writeString( out, exifUniqueId );
+        out.writeLong( exifTime );
+        writeString( out, selfLink );
+    }
+
+    public static RemotePhoto readFrom( DataInput in ) throws IOException
+    {
+        String photoId = readString( in );
+        String title = readString( in );
+        long updated = in.readLong();
+        long timestamp = in.readLong();
+        long size = in.readLong();
+        String checksum = readString( in );
+        String[] keywords = readStrings( in );
+        String[] mediaUrls = readStrings( in );
+        String exifUniqueId = readString( in );
+        long exifTime = in.readLong();
+        String selfLink = readString( in );
+
+        return new RemotePhoto( photoId, title, updated, timestamp, size, checksum,
+                                keywords, mediaUrls, exifUniqueId, exifTime, selfLink );
+    }
+
+    private static void writeString( DataOutput out, String value ) throws IOException
+    {
+        out.writeBoolean( value != null );
+        if( value != null )
+            out.writeUTF( value );
+    }
+
+    private static String readString( DataInput in ) throws IOException
+    {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static void writeStrings( DataOutput out, String[] values ) throws IOException
+    {
+        out.writeInt( values.length );
+        for( String value : values )
+            out.writeUTF( value );
+    }
+
+    private static String[] readStrings( DataInput in ) throws IOException
+    {
+        int count = in.readInt();
+        if( count == 0 )
+            return NONE;
+
+        String[] values = new String[count];
+        for( int i = 0; i < count; i++ )
+            values[i] = in.readUTF();
+        return values;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format( "%s (%s)", title, photoId );
+    }
+}
@@ -40,6 +40,14 @@ public class UniquePhoto
         setFileName( photo.getTitle().getPlainText() );
     }
 
+    public UniquePhoto( RemotePhoto photo )
+    {
+        setDateTimeTaken(photo.getTimestamp());
+        setUniqueExifID(photo.getExifUniqueId());
+        setCheckSum(photo.getChecksum());
+        setFileName( photo.getTitle() );
+    }
+
     public String toString() {
         return String.format("%s - %s (%s)", this.fileName, new Date( this.dateTimeTaken ).toString(), this.uniqueExifID );
     }
@@ -0,0 +1,54 @@
+/*
+    Copyright 2016 Mark Otway
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+
+package com.otway.picasasync.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * One album's sync, from the start of its diff to the end of its finishing
+ * work. Its transfers are interleaved with other albums', so the duration
+ * includes time spent on those too.
+ */
+@Name("com.otway.picasasync.AlbumSync")
+@Label("Album Sync")
+@Category("PicaSync")
+@Description("An album's diff, transfers and finishing work")
+public class AlbumSyncEvent extends Event
+{
+    @Label("Album")
+    public String album;
+
+    @Label("Transfers Queued")
+    public long transfersQueued;
+
+    @Label("Deletions Queued")
+    public long deletionsQueued;
+
+    @Label("Uploaded")
+    public int uploaded;
+
+    @Label("Downloaded")
+    public int downloaded;
+
+    @Label("Failed")
+    public int failed;
+}
@@ -0,0 +1,34 @@
+/*
+    Copyright 2016 Mark Otway
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+
+package com.otway.picasasync.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A running total, e.g. of bytes transferred. Cheap to update from any thread.
+ */
+public class Counter implements CounterMBean
+{
+    private final LongAdder value = new LongAdder();
+
+    public void increment() { value.increment(); }
+    public void add( long amount ) { value.add( amount ); }
+    public void reset() { value.reset(); }
+
+    public long getValue() { return value.sum(); }
+}
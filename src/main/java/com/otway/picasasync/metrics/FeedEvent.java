@@ -0,0 +1,56 @@
+/*
+    Copyright 2016 Mark Otway
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+
+package com.otway.picasasync.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * Fetching one page of a feed. For the feeds read through the GData model,
+ * which fetches and parses in one go, the size and parse time aren't known.
+ */
+@Name("com.otway.picasasync.Feed")
+@Label("Feed Fetch")
+@Category("PicaSync")
+@Description("A request for one page of an album, photo or tag feed")
+public class FeedEvent extends Event
+{
+    @Label("Feed Type")
+    @Description("user, album, tag or comment")
+    public String feedType;
+
+    @Label("Entries")
+    public int entries;
+
+    @Label("Size")
+    @DataAmount
+    public long bytes;
+
+    @Label("Parse Time")
+    @Timespan
+    public long parseTime;
+
+    @Label("Not Modified")
+    @Description("The cached copy was still current")
+    public boolean notModified;
+}
@@ -0,0 +1,187 @@
+/*
+    Copyright 2016 Mark Otway
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+
+package com.otway.picasasync.metrics;
+
+/**
+ * Creates and commits the app's Flight Recorder events. Callers only hold
+ * the events, so nothing touches the JFR API on a JVM that doesn't have it
+ * (where every begin method returns null and every end method does nothing).
+ *
+ * When nothing is recording, JFR makes begin() and commit() all but free,
+ * and the fields are only filled in for events that will be kept.
+ */
+public class FlightEvents
+{
+    private static final boolean AVAILABLE = detect();
+
+    // The transfer in progress on each thread, so retries deep in the uploader can be counted against it
+    private static final ThreadLocal<TransferEvent> currentTransfer = new ThreadLocal<TransferEvent>();
+
+    private FlightEvents()
+    {
+    }
+
+    private static boolean detect()
+    {
+        try
+        {
+            Class.forName( "jdk.jfr.Event" );
+            return true;
+        }
+        catch( ClassNotFoundException ex )
+        {
+            return false;
+        }
+    }
+
+    public static boolean isAvailable() { return AVAILABLE; }
+
+    public static AlbumSyncEvent beginAlbum( String album )
+    {
+        if( ! AVAILABLE )
+            return null;
+
+        AlbumSyncEvent event = new AlbumSyncEvent();
+        event.album = album;
+        event.begin();
+        return event;
+    }
+
+    public static void albumQueued( AlbumSyncEvent event, long transfers, long deletions )
+    {
+        if( event != null )
+        {
+            event.transfersQueued = transfers;
+            event.deletionsQueued = deletions;
+        }
+    }
+
+    public static void endAlbum( AlbumSyncEvent event, int uploaded, int downloaded, int failed )
+    {
+        if( event != null && event.shouldCommit() )
+        {
+            event.uploaded = uploaded;
+            event.downloaded = downloaded;
+            event.failed = failed;
+            event.commit();
+        }
+    }
+
+    public static TransferEvent beginTransfer( String album, String file, boolean upload )
+    {
+        if( ! AVAILABLE )
+            return null;
+
+        TransferEvent event = new TransferEvent();
+        event.album = album;
+        event.file = file;
+        event.upload = upload;
+        event.begin();
+        currentTransfer.set( event );
+        return event;
+    }
+
+    /**
+     * Counts a retry against the transfer in progress on this thread, if any.
+     */
+    public static void transferRetried()
+    {
+        if( AVAILABLE )
+        {
+            TransferEvent event = currentTransfer.get();
+            if( event != null )
+                event.retries++;
+        }
+    }
+
+    public static void endTransfer( TransferEvent event, long bytes, boolean success )
+    {
+        if( event == null )
+            return;
+
+        currentTransfer.remove();
+
+        if( event.shouldCommit() )
+        {
+            event.bytes = bytes;
+            event.success = success;
+            event.commit();
+        }
+    }
+
+    public static FeedEvent beginFeed()
+    {
+        if( ! AVAILABLE )
+            return null;
+
+        FeedEvent event = new FeedEvent();
+        event.begin();
+        return event;
+    }
+
+    public static void endFeed( FeedEvent event, String feedHref, int entries, long bytes, long parseNanos,
+                                boolean notModified )
+    {
+        if( event != null && event.shouldCommit() )
+        {
+            event.feedType = feedType( feedHref );
+            event.entries = entries;
+            event.bytes = bytes;
+            event.parseTime = parseNanos;
+            event.notModified = notModified;
+            event.commit();
+        }
+    }
+
+    /**
+     * The kind of feed, from its URL. The URLs themselves are too varied to
+     * group by, and can identify the user.
+     */
+    static String feedType( String feedHref )
+    {
+        if( feedHref.contains( "kind=tag" ) )
+            return "tag";
+        if( feedHref.contains( "kind=comment" ) )
+            return "comment";
+        if( feedHref.contains( "/albumid/" ) )
+            return "album";
+
+        return "user";
+    }
+
+    public static ImageReadEvent beginImageRead()
+    {
+        if( ! AVAILABLE )
+            return null;
+
+        ImageReadEvent event = new ImageReadEvent();
+        event.begin();
+        return event;
+    }
+
+    public static void endImageRead( ImageReadEvent event, String file, boolean exif, boolean success )
+    {
+        if( event != null && event.shouldCommit() )
+        {
+            event.file = file;
+            event.exif = exif;
+            event.success = success;
+            event.commit();
+        }
+    }
+}
@@ -0,0 +1,73 @@
+/*
+    Copyright 2016 Mark Otway
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+
+package com.otway.picasasync.metrics;
+
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+import org.apache.log4j.Logger;
+
+import java.io.File;
+
+/**
+ * Starts a Flight Recording for the life of the process, written to the
+ * given file when it exits. Uses the JDK's "default" settings, which are
+ * designed to be left on in production, plus all of the app's own events.
+ *
+ * The same can be done with -XX:StartFlightRecording; this is just easier
+ * to switch on for the packaged app.
+ */
+public class FlightRecording
+{
+    private static final Logger log = Logger.getLogger(FlightRecording.class);
+    private static final String SETTINGS = "default";
+
+    private FlightRecording()
+    {
+    }
+
+    public static boolean start( File destination )
+    {
+        if( ! FlightEvents.isAvailable() )
+        {
+            log.warn("This JVM doesn't support Flight Recorder. Not recording.");
+            return false;
+        }
+
+        try
+        {
+            Recording recording = new Recording( Configuration.getConfiguration( SETTINGS ) );
+            recording.setName( "PicaSync" );
+            recording.enable( AlbumSyncEvent.class );
+            recording.enable( TransferEvent.class );
+            recording.enable( FeedEvent.class );
+            recording.enable( ImageReadEvent.class );
+            recording.setToDisk( true );
+            recording.setDumpOnExit( true );
+            recording.setDestination( destination.toPath() );
+            recording.start();
+
+            log.info("Flight recording started. It will be written to " + destination + " on exit.");
+            return true;
+        }
+        catch( Exception ex )
+        {
+            log.warn("Unable to start flight recording.", ex);
+            return false;
+        }
+    }
+}
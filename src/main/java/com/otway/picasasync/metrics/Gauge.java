@@ -0,0 +1,57 @@
+/*
+    Copyright 2016 Mark Otway
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+
+package com.otway.picasasync.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A level that goes up and down, e.g. a queue depth, along with the highest
+ * level it has reached.
+ */
+public class Gauge implements GaugeMBean
+{
+    private final AtomicLong value = new AtomicLong();
+    private final AtomicLong peak = new AtomicLong();
+
+    public void add( long amount )
+    {
+        updatePeak( value.addAndGet( amount ) );
+    }
+
+    public void set( long newValue )
+    {
+        value.set( newValue );
+        updatePeak( newValue );
+    }
+
+    public void reset()
+    {
+        value.set( 0 );
+        peak.set( 0 );
+    }
+
+    private void updatePeak( long level )
+    {
+        long current = peak.get();
+        while( level > current && ! peak.compareAndSet( current, level ) )
+            current = peak.get();
+    }
+
+    public long getValue() { return value.get(); }
+    public long getPeak() { return peak.get(); }
+}
@@ -0,0 +1,44 @@
+/*
+    Copyright 2016 Mark Otway
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+
+package com.otway.picasasync.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Reading the metadata from a local image.
+ */
+@Name("com.otway.picasasync.ImageRead")
+@Label("Image Metadata Read")
+@Category("PicaSync")
+@Description("Reading EXIF and IPTC metadata from a local file")
+public class ImageReadEvent extends Event
+{
+    @Label("File")
+    public String file;
+
+    @Label("EXIF Read")
+    @Description("False if the file had to be read for its basic dimensions instead")
+    public boolean exif;
+
+    @Label("Succeeded")
+    public boolean success;
+}
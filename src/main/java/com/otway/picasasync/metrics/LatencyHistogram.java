@@ -0,0 +1,132 @@
+/*
+    Copyright 2016 Mark Otway
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.otway.picasasync.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Fixed-size latency histogram in the style of HdrHistogram: values are
+ * bucketed by their power of two, and each power of two is split into 32
+ * linear sub-buckets. That keeps every recorded value to within about 3%
+ * across the whole range of a long, in under 2,000 counters, with no
+ * allocation or locking when recording.
+ *
+ * Values are nanoseconds. Recording is safe from any thread; reads taken
+ * while values are being recorded may be very slightly inconsistent.
+ */
+public class LatencyHistogram implements LatencyHistogramMBean
+{
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    // Enough for any positive long; values below 64ns are counted exactly
+    private static final int BUCKET_COUNT = ( 64 - SUB_BUCKET_BITS ) * SUB_BUCKETS;
+    private static final double NANOS_PER_MILLI = 1000000.0;
+
+    private final AtomicLongArray counts = new AtomicLongArray( BUCKET_COUNT );
+    private final LongAdder count = new LongAdder();
+    private final LongAdder total = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    public void record( long nanos )
+    {
+        if( nanos < 0 )
+            nanos = 0;
+
+        counts.incrementAndGet( indexOf( nanos ) );
+        count.increment();
+        total.add( nanos );
+
+        long currentMax = max.get();
+        while( nanos > currentMax && ! max.compareAndSet( currentMax, nanos ) )
+            currentMax = max.get();
+    }
+
+    /**
+     * Records the time elapsed since the given System.nanoTime().
+     */
+    public void recordSince( long startNanos )
+    {
+        record( System.nanoTime() - startNanos );
+    }
+
+    public void reset()
+    {
+        for( int i = 0; i < BUCKET_COUNT; i++ )
+            counts.set( i, 0 );
+
+        count.reset();
+        total.reset();
+        max.set( 0 );
+    }
+
+    static int indexOf( long value )
+    {
+        int shift = Math.max( 0, 63 - Long.numberOfLeadingZeros( value ) - SUB_BUCKET_BITS );
+        return shift * SUB_BUCKETS + (int)( value >>> shift );
+    }
+
+    /**
+     * The midpoint of the range of values counted in the bucket.
+     */
+    static long valueAt( int index )
+    {
+        int shift = Math.max( 0, index / SUB_BUCKETS - 1 );
+        long lowest = (long)( index - shift * SUB_BUCKETS ) << shift;
+        return lowest + ( ( 1L << shift ) >> 1 );
+    }
+
+    /**
+     * The value (in nanoseconds) that the given percentage of recorded values
+     * are at or below.
+     */
+    public long getValueAtPercentile( double percentile )
+    {
+        long recorded = count.sum();
+        if( recorded == 0 )
+            return 0;
+
+        long target = Math.max( 1, (long)Math.ceil( recorded * percentile / 100 ) );
+        long seen = 0;
+
+        for( int i = 0; i < BUCKET_COUNT; i++ )
+        {
+            seen += counts.get( i );
+            if( seen >= target )
+                return Math.min( valueAt( i ), max.get() );
+        }
+
+        return max.get();
+    }
+
+    public long getCount() { return count.sum(); }
+    public long getTotalNanos() { return total.sum(); }
+    public long getMaxNanos() { return max.get(); }
+
+    public double getTotalMillis() { return total.sum() / NANOS_PER_MILLI; }
+    public double getMaxMillis() { return max.get() / NANOS_PER_MILLI; }
+    public double getMedianMillis() { return getValueAtPercentile( 50 ) / NANOS_PER_MILLI; }
+    public double get90thPercentileMillis() { return getValueAtPercentile( 90 ) / NANOS_PER_MILLI; }
+    public double get99thPercentileMillis() { return getValueAtPercentile( 99 ) / NANOS_PER_MILLI; }
+
+    public double getMeanMillis()
+    {
+        long recorded = count.sum();
+        return recorded == 0 ? 0 : total.sum() / NANOS_PER_MILLI / recorded;
+    }
+}
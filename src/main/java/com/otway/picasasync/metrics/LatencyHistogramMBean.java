@@ -0,0 +1,31 @@
+/*
+    Copyright 2016 Mark Otway
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.otway.picasasync.metrics;
+
+/**
+ * JMX view of a latency histogram. Times are in milliseconds.
+ */
+public interface LatencyHistogramMBean
+{
+    long getCount();
+    double getTotalMillis();
+    double getMeanMillis();
+    double getMedianMillis();
+    double get90thPercentileMillis();
+    double get99thPercentileMillis();
+    double getMaxMillis();
+}
@@ -0,0 +1,224 @@
+/*
+    Copyright 2016 Mark Otway
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+
+package com.otway.picasasync.metrics;
+
+import com.otway.picasasync.utils.FileUtilities;
+import org.apache.commons.io.FileUtils;
+import org.apache.log4j.Logger;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.time.LocalDateTime;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Process-wide metrics for the sync: a latency histogram for each phase,
+ * counters (e.g. bytes transferred) and gauges (e.g. queue depths). Each
+ * is published over JMX under the com.otway.picasasync domain, and the
+ * lot can be dumped as plain text at the end of a pass.
+ *
+ * Everything is reset at the start of each sync pass, so the figures always
+ * cover the current (or most recent) pass. Phases are timed as:
+ *
+ *     long start = System.nanoTime();
+ *     try { ... } finally { MetricsRegistry.record( Phase.upload, start ); }
+ */
+public class MetricsRegistry
+{
+    public static final String BYTES_DOWNLOADED = "bytesDownloaded";
+    public static final String BYTES_UPLOADED = "bytesUploaded";
+    public static final String PHOTOS_DOWNLOADED = "photosDownloaded";
+    public static final String PHOTOS_UPLOADED = "photosUploaded";
+    public static final String PHOTOS_RECYCLED = "photosRecycled";
+    public static final String TRANSFERS_FAILED = "transfersFailed";
+    public static final String FEED_PAGES = "feedPages";
+    public static final String FEED_CACHE_HITS = "feedCacheHits";
+    public static final String FEED_CACHE_MISSES = "feedCacheMisses";
+
+    public static final String TRANSFER_QUEUE = "transferQueue";
+    public static final String DELETE_QUEUE = "deleteQueue";
+
+    public static final String REPORT_FILE_NAME = "metrics.txt";
+
+    private static final Logger log = Logger.getLogger(MetricsRegistry.class);
+    private static final String JMX_DOMAIN = "com.otway.picasasync";
+
+    private static final Map<Phase, LatencyHistogram> phases = new EnumMap<Phase, LatencyHistogram>( Phase.class );
+    private static final ConcurrentMap<String, Counter> counters = new ConcurrentSkipListMap<String, Counter>();
+    private static final ConcurrentMap<String, Gauge> gauges = new ConcurrentSkipListMap<String, Gauge>();
+    private static volatile LocalDateTime passStarted = LocalDateTime.now();
+    private static volatile long passStartNanos = System.nanoTime();
+
+    static
+    {
+        for( Phase phase : Phase.values() )
+        {
+            LatencyHistogram histogram = new LatencyHistogram();
+            phases.put( phase, histogram );
+            register( "Phase", phase.name(), histogram );
+        }
+
+        // Create the standard ones up front, so they're visible (as zero) before they're used
+        for( String name : new String[] { BYTES_DOWNLOADED, BYTES_UPLOADED, PHOTOS_DOWNLOADED, PHOTOS_UPLOADED,
+                                          PHOTOS_RECYCLED, TRANSFERS_FAILED, FEED_PAGES, FEED_CACHE_HITS,
+                                          FEED_CACHE_MISSES } )
+            counter( name );
+
+        gauge( TRANSFER_QUEUE );
+        gauge( DELETE_QUEUE );
+    }
+
+    private MetricsRegistry()
+    {
+    }
+
+    public static LatencyHistogram histogram( Phase phase )
+    {
+        return phases.get( phase );
+    }
+
+    /**
+     * Records the time for the phase since the given System.nanoTime().
+     */
+    public static void record( Phase phase, long startNanos )
+    {
+        phases.get( phase ).recordSince( startNanos );
+    }
+
+    public static Counter counter( String name )
+    {
+        Counter counter = counters.get( name );
+
+        if( counter == null )
+        {
+            Counter created = new Counter();
+            counter = counters.putIfAbsent( name, created );
+
+            if( counter == null )
+            {
+                counter = created;
+                register( "Counter", name, counter );
+            }
+        }
+
+        return counter;
+    }
+
+    public static Gauge gauge( String name )
+    {
+        Gauge gauge = gauges.get( name );
+
+        if( gauge == null )
+        {
+            Gauge created = new Gauge();
+            gauge = gauges.putIfAbsent( name, created );
+
+            if( gauge == null )
+            {
+                gauge = created;
+                register( "Gauge", name, gauge );
+            }
+        }
+
+        return gauge;
+    }
+
+    /**
+     * Clears everything down for a new sync pass.
+     */
+    public static void startPass()
+    {
+        for( LatencyHistogram histogram : phases.values() )
+            histogram.reset();
+        for( Counter counter : counters.values() )
+            counter.reset();
+        for( Gauge gauge : gauges.values() )
+            gauge.reset();
+
+        passStarted = LocalDateTime.now();
+        passStartNanos = System.nanoTime();
+    }
+
+    private static void register( String type, String name, Object mbean )
+    {
+        try
+        {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName( JMX_DOMAIN + ":type=" + type + ",name=" + name );
+
+            if( ! server.isRegistered( objectName ) )
+                server.registerMBean( mbean, objectName );
+        }
+        catch( JMException ex )
+        {
+            log.warn( "Unable to register " + name + " with JMX.", ex );
+        }
+    }
+
+    /**
+     * Formats the metrics for this pass as a plain-text table.
+     */
+    public static String format()
+    {
+        StringBuilder sb = new StringBuilder();
+        double elapsed = ( System.nanoTime() - passStartNanos ) / 1e9;
+
+        sb.append( String.format( "Sync pass started %s, %.1fs elapsed%n%n", passStarted, elapsed ) );
+
+        sb.append( String.format( "%-16s %8s %10s %10s %10s %10s %10s %12s%n", "Phase (ms)", "Count",
+                                    "Mean", "p50", "p90", "p99", "Max", "Total" ) );
+
+        for( Phase phase : Phase.values() )
+        {
+            LatencyHistogram h = phases.get( phase );
+            sb.append( String.format( "%-16s %8d %10.1f %10.1f %10.1f %10.1f %10.1f %12.1f%n",
+                    phase.getDescription(), h.getCount(), h.getMeanMillis(), h.getMedianMillis(),
+                    h.get90thPercentileMillis(), h.get99thPercentileMillis(), h.getMaxMillis(),
+                    h.getTotalMillis() ) );
+        }
+
+        sb.append( String.format( "%n%-16s %14s%n", "Counter", "Value" ) );
+        for( Map.Entry<String, Counter> entry : counters.entrySet() )
+            sb.append( String.format( "%-16s %14d%n", entry.getKey(), entry.getValue().getValue() ) );
+
+        sb.append( String.format( "%n%-16s %14s %10s%n", "Gauge", "Value", "Peak" ) );
+        for( Map.Entry<String, Gauge> entry : gauges.entrySet() )
+            sb.append( String.format( "%-16s %14d %10d%n", entry.getKey(), entry.getValue().getValue(),
+                                        entry.getValue().getPeak() ) );
+
+        return sb.toString();
+    }
+
+    /**
+     * Writes the metrics for this pass to metrics.txt in the app folder
+     * under the sync root, replacing the previous pass's.
+     */
+    public static File writeReport( File rootFolder ) throws IOException
+    {
+        File report = new File( FileUtilities.getAppFolder( rootFolder ), REPORT_FILE_NAME );
+        FileUtils.writeStringToFile( report, format(), "UTF-8" );
+        return report;
+    }
+}
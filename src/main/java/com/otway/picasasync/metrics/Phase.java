@@ -0,0 +1,42 @@
+/*
+    Copyright 2016 Mark Otway
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.otway.picasasync.metrics;
+
+/**
+ * The timed phases of a sync. Some nest: the diff includes the EXIF reads
+ * it triggers, and parsing a streamed feed includes reading its body.
+ */
+public enum Phase
+{
+    feedFetch( "Feed fetch" ),
+    feedParse( "Feed parse" ),
+    directoryScan( "Directory scan" ),
+    exifRead( "EXIF read" ),
+    diff( "Diff" ),
+    upload( "Upload" ),
+    download( "Download" ),
+    recycle( "Recycle" );
+
+    private final String description;
+
+    Phase( String description )
+    {
+        this.description = description;
+    }
+
+    public String getDescription() { return description; }
+}
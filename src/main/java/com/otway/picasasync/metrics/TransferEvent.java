@@ -0,0 +1,55 @@
+/*
+    Copyright 2016 Mark Otway
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+
+package com.otway.picasasync.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A single photo upload or download.
+ */
+@Name("com.otway.picasasync.Transfer")
+@Label("Photo Transfer")
+@Category("PicaSync")
+@Description("An upload or download of one photo")
+public class TransferEvent extends Event
+{
+    @Label("Album")
+    public String album;
+
+    @Label("File")
+    public String file;
+
+    @Label("Upload")
+    public boolean upload;
+
+    @Label("Size")
+    @DataAmount
+    public long bytes;
+
+    @Label("Retries")
+    @Description("Chunks retried during a resumable upload")
+    public int retries;
+
+    @Label("Succeeded")
+    public boolean success;
+}
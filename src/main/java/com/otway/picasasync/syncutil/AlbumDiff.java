@@ -0,0 +1,296 @@
+/*
+    Copyright 2016 Mark Otway
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.otway.picasasync.syncutil;
+
+import com.google.gdata.util.ServiceException;
+import com.otway.picasasync.config.Settings;
+import com.otway.picasasync.metadata.ImageInformation;
+import com.otway.picasasync.metadata.LocalIndex;
+import com.otway.picasasync.metadata.RemotePhoto;
+import com.otway.picasasync.metadata.UniquePhoto;
+import com.otway.picasasync.metrics.MetricsRegistry;
+import com.otway.picasasync.metrics.Phase;
+import com.otway.picasasync.utils.ExternalSorter;
+import com.otway.picasasync.utils.TempFileManager;
+import com.otway.picasasync.webclient.ResumableUploader;
+import org.apache.log4j.LogSF;
+import org.apache.log4j.Logger;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.*;
+
+/**
+ * Diffs the local and remote listings for one album.
+ *
+ * Both sides are sorted by normalised (lower-cased) name and merge-joined
+ * in a single pass, so each pair is classified and handed to the listener
+ * as it is reached, with no intermediate collections. Where several remote
+ * photos share a title, one is chosen and the rest are ignored; a local
+ * file matching any of them is treated as that photo.
+ */
+public class AlbumDiff
+{
+    public interface Listener
+    {
+        void onImage( ImageSync image, ImageSync.UpdateAction action ) throws ServiceException;
+    }
+
+    private static final Logger log = Logger.getLogger(AlbumDiff.class);
+
+    public static final Comparator<RemotePhoto> BY_NAME = new Comparator<RemotePhoto>()
+    {
+        public int compare( RemotePhoto x, RemotePhoto y )
+        {
+            return normalise( x.getTitle() ).compareTo( normalise( y.getTitle() ) );
+        }
+    };
+
+    private static final Comparator<File> FILES_BY_NAME = new Comparator<File>()
+    {
+        public int compare( File x, File y )
+        {
+            return normalise( x.getName() ).compareTo( normalise( y.getName() ) );
+        }
+    };
+
+    private static final ExternalSorter.Codec<File> FILE_CODEC = new ExternalSorter.Codec<File>()
+    {
+        public void write( DataOutput out, File file ) throws IOException
+        {
+            out.writeUTF( file.getPath() );
+        }
+
+        public File read( DataInput in ) throws IOException
+        {
+            return new File( in.readUTF() );
+        }
+    };
+
+    private final Settings settings;
+    private final SyncManager syncManager;
+    private final boolean isAutoBackup;
+    private final LocalDateTime oldestDate;
+    private final LocalIndex localIndex;
+
+    public AlbumDiff( Settings settings, SyncManager syncManager, boolean isAutoBackup, LocalDateTime oldestDate,
+                      LocalIndex localIndex )
+    {
+        this.settings = settings;
+        this.syncManager = syncManager;
+        this.isAutoBackup = isAutoBackup;
+        this.oldestDate = oldestDate;
+        this.localIndex = localIndex;
+    }
+
+    public static String normalise( String name )
+    {
+        return name.toLowerCase();
+    }
+
+    public static void sortByName( List<RemotePhoto> photos )
+    {
+        Collections.sort( photos, BY_NAME );
+    }
+
+    /**
+     * Streams the visible files in the folder into a sorter by normalised
+     * name. Like the remote listing, it spills to disk past the threshold,
+     * so a huge folder is never held in memory all at once. The caller
+     * closes the sorter.
+     */
+    public static ExternalSorter<File> sortLocalFiles( File localFolder, int spillThreshold ) throws IOException
+    {
+        long start = System.nanoTime();
+        ExternalSorter<File> sorter = new ExternalSorter<File>( FILES_BY_NAME, FILE_CODEC, spillThreshold );
+
+        try
+        {
+            scanLocalFiles( localFolder, sorter );
+        }
+        catch( IOException ex )
+        {
+            sorter.close();
+            throw ex;
+        }
+        finally
+        {
+            MetricsRegistry.record( Phase.directoryScan, start );
+        }
+
+        return sorter;
+    }
+
+    private static void scanLocalFiles( File localFolder, ExternalSorter<File> sorter ) throws IOException
+    {
+        if( ! localFolder.isDirectory() )
+            return;
+
+        DirectoryStream<Path> entries = Files.newDirectoryStream( localFolder.toPath(), new DirectoryStream.Filter<Path>()
+        {
+            public boolean accept( Path entry ) throws IOException
+            {
+                String name = entry.getFileName().toString();
+
+                // Skip in-flight transfers and our index, which aren't always hidden
+                if( TempFileManager.isTempFile( name ) || name.startsWith( LocalIndex.INDEX_FILE_NAME )
+                        || ResumableUploader.isSessionFile( name ) )
+                    return false;
+
+                File file = entry.toFile();
+                return file.isFile() && !file.isHidden();
+            }
+        });
+
+        try
+        {
+            for( Path entry : entries )
+                sorter.add( entry.toFile() );
+        }
+        finally
+        {
+            entries.close();
+        }
+    }
+
+    /**
+     * Merge-joins the two listings, both of which must already be sorted by
+     * normalised name, classifying each image as it goes.
+     */
+    public void diff( Iterator<RemotePhoto> remote, Iterator<File> local, File localFolder, Listener listener )
+            throws ServiceException
+    {
+        RemotePhoto nextRemote = remote.hasNext() ? remote.next() : null;
+        File nextLocal = local.hasNext() ? local.next() : null;
+        int dupesDiscarded = 0;
+
+        while( nextRemote != null || nextLocal != null )
+        {
+            int cmp;
+
+            if( nextRemote == null )
+                cmp = 1;
+            else if( nextLocal == null )
+                cmp = -1;
+            else
+                cmp = normalise( nextRemote.getTitle() ).compareTo( normalise( nextLocal.getName() ) );
+
+            if( cmp > 0 )
+            {
+                // Local file with no remote counterpart - a candidate for upload
+                classify( new ImageSync( null, nextLocal ), listener );
+                nextLocal = local.hasNext() ? local.next() : null;
+                continue;
+            }
+
+            // Deal with the fact that an album can have multiple images with the same
+            // filename. We'll arbitrarily pick the one with the highest ID, and ignore the rest.
+            String key = normalise( nextRemote.getTitle() );
+            RemotePhoto photoToUse = nextRemote;
+            nextRemote = remote.hasNext() ? remote.next() : null;
+
+            while( nextRemote != null && normalise( nextRemote.getTitle() ).equals( key ) )
+            {
+                if( photoToUse.getPhotoId().compareTo( nextRemote.getPhotoId() ) < 0 )
+                    photoToUse = nextRemote;
+
+                dupesDiscarded++;
+                nextRemote = remote.hasNext() ? remote.next() : null;
+            }
+
+            // Any local files with this name are represented by the remote photo
+            while( nextLocal != null && normalise( nextLocal.getName() ).equals( key ) )
+                nextLocal = local.hasNext() ? local.next() : null;
+
+            if( settings.getExcludeVideos() && photoToUse.isVideo() )
+            {
+                LogSF.info(log, "Exclude Video enabled: skipping {}", photoToUse.getTitle());
+                continue;
+            }
+
+            classify( new ImageSync( photoToUse, new File( localFolder, photoToUse.getTitle() ) ), listener );
+        }
+
+        if( dupesDiscarded > 0 )
+            log.info("Ignored " + dupesDiscarded + " duplicate photos in " + localFolder.getName() );
+    }
+
+    private void classify( ImageSync image, Listener listener ) throws ServiceException
+    {
+        // Filter out anything that's too old
+        if( ! image.newerThan( oldestDate ) )
+        {
+            listener.onImage( image, ImageSync.UpdateAction.none );
+            return;
+        }
+
+        if( isDeletion( image ) )
+        {
+            listener.onImage( image, ImageSync.UpdateAction.delete );
+            return;
+        }
+
+        listener.onImage( image, image.evaluateAction( settings, isAutoBackup, localIndex ) );
+    }
+
+    private boolean isDeletion(ImageSync image)
+    {
+        RemotePhoto photo = image.getRemotePhoto();
+
+        if( photo != null )
+        {
+            if( photo.hasKeyword("delete") )
+                return true;
+
+            UniquePhoto up = new UniquePhoto( photo );
+
+            // See if this image is in the 'Recycle Bin' album
+            if (syncManager.isDeleted( up ))
+                return true;
+        }
+
+        // No remote photo. See if the local folder has a 'deleted' tag
+        ImageInformation localInfo = ImageInformation.safeReadImageInformation( image.getLocalFile() );
+
+        if( localInfo != null && localInfo.getDeleteTag() )
+            return true;
+
+        // It's possible the photo may be sitting in the recycle bin in the
+        // cloud because it's already been deleted. So we'll have a look and
+        // see if we can identify it as having already been deleted.
+
+        try
+        {
+            UniquePhoto up = new UniquePhoto(image.getLocalFile());
+            if (syncManager.isDeleted(up))
+                return true;
+
+        }
+        catch( Exception ex )
+        {
+            // Don't care
+        }
+
+        return false;
+    }
+}
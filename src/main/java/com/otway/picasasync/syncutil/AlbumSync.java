@@ -17,22 +17,25 @@
 package com.otway.picasasync.syncutil;
 
 import com.google.gdata.data.DateTime;
-import com.google.gdata.data.media.mediarss.MediaKeywords;
 import com.google.gdata.data.photos.AlbumEntry;
-import com.google.gdata.data.photos.PhotoEntry;
 import com.google.gdata.util.ServiceException;
 import com.otway.picasasync.config.Settings;
-import com.otway.picasasync.metadata.ImageInformation;
-import com.otway.picasasync.metadata.UniquePhoto;
+import com.otway.picasasync.metadata.LocalIndex;
+import com.otway.picasasync.metadata.RemoteAlbum;
+import com.otway.picasasync.metadata.RemotePhoto;
+import com.otway.picasasync.metrics.AlbumSyncEvent;
+import com.otway.picasasync.metrics.FlightEvents;
+import com.otway.picasasync.metrics.MetricsRegistry;
+import com.otway.picasasync.metrics.Phase;
+import com.otway.picasasync.metrics.TransferEvent;
 import com.otway.picasasync.picasaini.PicasaIniParser;
+import com.otway.picasasync.utils.ExternalSorter;
 import com.otway.picasasync.utils.FileUtilities;
+import com.otway.picasasync.webclient.FeedParser;
 import com.otway.picasasync.webclient.PicasawebClient;
-import org.apache.commons.io.FilenameUtils;
 import org.apache.log4j.Logger;
 
-import java.io.File;
-import java.io.FilenameFilter;
-import java.io.IOException;
+import java.io.*;
 import java.time.LocalDateTime;
 import java.util.*;
 
@@ -42,10 +45,34 @@ import java.util.*;
 public class AlbumSync
 {
     private static final Logger log = Logger.getLogger(AlbumSync.class);
+
+    private static final ExternalSorter.Codec<RemotePhoto> REMOTE_PHOTO_CODEC = new ExternalSorter.Codec<RemotePhoto>()
+    {
+        public void write( DataOutput out, RemotePhoto photo ) throws IOException
+        {
+            photo.writeTo( out );
+        }
+
+        public RemotePhoto read( DataInput in ) throws IOException
+        {
+            return RemotePhoto.readFrom( in );
+        }
+    };
+
     private AlbumEntry albumEntry;
     private final File localFolder;
     private final SyncManager syncManager;
     private final Settings settings;
+    private ExternalSorter<TransferTask> transfers;
+    private ImageQueue deletes;
+    private LocalIndex localIndex;
+    private AlbumSyncEvent albumEvent;
+    // Set from prepare() until close(), while the album counts towards the sync report
+    private String visitingName;
+    private long busyNanos;
+    private int uploaded;
+    private int downloaded;
+    private int failed;
 
     @Override
     public String toString() {
@@ -95,298 +122,480 @@ public class AlbumSync
         }
     }
 
-    public void process( PicasawebClient webClient, LocalDateTime oldestDate, AlbumEntry recycleAlbum )
+    /**
+     * Diffs the album and queues up its work. Transfers are kept sorted
+     * newest first so the scheduler can interleave them with other albums';
+     * deletions wait until the album is finished.
+     */
+    public void prepare( PicasawebClient webClient, LocalDateTime oldestDate )
                             throws IOException, ServiceException
     {
-        log.info( "Beginning sync for album: " + getAlbumName() + " (Name: " + albumEntry.getName() + ")" );
-        syncManager.updateProgress(String.format("Synchronising %s...", getAlbumName()));
+        log.info( "Preparing sync for album: " + getAlbumName() + " (Name: " + albumEntry.getName() + ")" );
+        syncManager.updateProgress(String.format("Checking %s...", getAlbumName()));
+        syncManager.getSyncState().setStatus("Querying Google for album " + getAlbumName() );
 
         boolean isAutoBackup = PicasawebClient.isInstantUpload(albumEntry);
 
         // PicasaIniParser parser = PicasaIniParser.getPicasaIni( localFolder );
 
         // Calculate what images we need to upload - i.e., the diff
-        // (including size and date) of the local images vs online
-        List<ImageSync> images = buildImageList(webClient, localFolder, albumEntry, oldestDate);
-
-        List<ImageSync> downloads = new ArrayList<ImageSync>();
-        List<ImageSync> uploads = new ArrayList<ImageSync>();
-        List<ImageSync> deletes = new ArrayList<ImageSync>();
+        // (including size and date) of the local images vs online.
+        // Unchanged images are dropped as the diff streams past; the
+        // rest are queued, spilling to disk for very large albums.
+        close();
+        albumEvent = FlightEvents.beginAlbum(getAlbumName());
+        visitingName = getAlbumName();
+        long start = System.nanoTime();
+
+        final int spillThreshold = settings.getSpillThreshold();
+        final ExternalSorter<TransferTask> pending = new ExternalSorter<TransferTask>(TransferTask.NEWEST_FIRST,
+                                                                TransferTask.CODEC, spillThreshold);
+        final ImageQueue pendingDeletes = new ImageQueue(spillThreshold);
+        transfers = pending;
+        deletes = pendingDeletes;
+        boolean prepared = false;
 
-        for( ImageSync image : images )
+        try
         {
-            if( isDeletion(image) )
+            diffAlbum(webClient, oldestDate, isAutoBackup, new AlbumDiff.Listener()
             {
-                deletes.add( image );
-                continue;
-            }
+                public void onImage(ImageSync image, ImageSync.UpdateAction action) throws ServiceException
+                {
+                    try
+                    {
+                        switch( action )
+                        {
+                            case upload:
+                            case download:
+                                pending.add(new TransferTask(image, action));
+                                syncManager.getSyncState().addQueued(action == ImageSync.UpdateAction.upload, 1);
+                                break;
+                            case delete:
+                                pendingDeletes.add(image);
+                                break;
+                            default:
+                                log.debug("Photo " + image.getName() + " was unchanged.");
+                        }
+                    }
+                    catch( IOException ex )
+                    {
+                        throw new UncheckedIOException( ex );
+                    }
+                }
+            });
 
-            switch( image.evaluateAction( settings, isAutoBackup ) )
-            {
-                case upload:
-                    uploads.add(image);
-                    break;
-                case download:
-                    downloads.add(image);
-                    break;
-                default:
-                    log.debug("Photo " + image.getName() + " was unchanged.");
-            }
+            prepared = true;
         }
-
-        // Now, do the upload
-        for (ImageSync image : uploads)
+        catch( UncheckedIOException ex )
         {
-            // Check that the album exists, create it and save if it doesn't.
-            albumEntry = webClient.prepareRemoteAlbum(albumEntry);
+            throw ex.getCause();
+        }
+        finally
+        {
+            busyNanos += System.nanoTime() - start;
 
-            syncManager.updateProgress(String.format("Uploading %s : %s...", getAlbumName(), image.getName()));
+            // Don't leave temp files behind for an album we couldn't diff
+            if( ! prepared )
+                close();
+        }
 
-            if( webClient.uploadImageToAlbum(image.getLocalFile(), image.getRemotePhoto(), albumEntry, image.getLocalMd5CheckSum() ) )
-            {
-                syncManager.getSyncState().addStats(0, 1, 0);
-            }
-            else
-                syncManager.getSyncState().addStats(0, 0, 1);
+        MetricsRegistry.gauge(MetricsRegistry.TRANSFER_QUEUE).add(pending.size());
+        MetricsRegistry.gauge(MetricsRegistry.DELETE_QUEUE).add(pendingDeletes.size());
+        FlightEvents.albumQueued(albumEvent, pending.size(), pendingDeletes.size());
 
-            if (syncManager.getSyncState().getIsCancelled())
-                break;
-        }
+        log.info(getAlbumName() + ": " + pending.size() + " transfers and " + pendingDeletes.size() + " deletions queued.");
+    }
 
-        if( uploads.size() > 0 )
-        {
-            // If we had any uploads for this album, set the remote album
-            // entry based on the most recent 'date taken' from the local
-            // metadata
-            webClient.setAlbumDateFromFolder(localFolder, albumEntry);
-        }
+    /**
+     * The folder's index of content digests, loaded on first use.
+     */
+    private LocalIndex getLocalIndex()
+    {
+        if( localIndex == null )
+            localIndex = LocalIndex.load( localFolder );
 
-        // Now download - but only if we have space on the local disk.
-        for (ImageSync image : downloads)
-        {
-            if (!checkDiskSpace())
-                break;
+        return localIndex;
+    }
+
+    /**
+     * Number of queued transfers currently held in memory.
+     */
+    public int getQueuedInMemory()
+    {
+        return transfers != null ? transfers.inMemory() : 0;
+    }
 
-            syncManager.updateProgress(String.format("Downloading %s : %s...", getAlbumName(), image.getName()));
+    /**
+     * Moves the queued transfers out to disk, while other albums are prepared.
+     */
+    public void spillToDisk() throws IOException
+    {
+        if( transfers != null )
+            transfers.spill();
+    }
 
-            if (syncManager.getSyncState().getIsCancelled())
-                break;
+    /**
+     * This album's newest transfer, or null if there are none. Doesn't
+     * read any spilled transfers back from disk.
+     */
+    public TransferTask firstTransfer()
+    {
+        return transfers != null ? transfers.first() : null;
+    }
 
-            // And finally, download any new images - if the remote version is newer
-            if( downloadImage(image, webClient) )
-            {
-                syncManager.getSyncState().addStats(1, 0, 0);
-            }
-            else
-            {
-                syncManager.getSyncState().addStats(0, 0, 1);
-                syncManager.updateProgress( "Download error. Aborting." );
-                break;
-            }
-        }
+    /**
+     * Returns this album's transfers, newest first. Calling it again starts
+     * again from the newest, and closes the files of the previous iterator.
+     */
+    public Iterator<TransferTask> transferIterator() throws IOException
+    {
+        if( transfers == null )
+            return Collections.<TransferTask>emptyList().iterator();
 
-        // Now clean up any images that have been marked for deletion.
-        for (ImageSync image : deletes)
+        return transfers.sortedIterator();
+    }
+
+    /**
+     * Closes any files held open by the transfer iterator, while the album
+     * isn't transferring. The iterator carries on where it was when it's
+     * next used.
+     */
+    public void releaseTransferIterator()
+    {
+        if( transfers != null )
+            transfers.releaseFiles();
+    }
+
+    /**
+     * Performs one upload or download. Returns false if the rest of the
+     * album's transfers should be abandoned.
+     */
+    public boolean transfer( PicasawebClient webClient, TransferTask task ) throws IOException, ServiceException
+    {
+        SyncState syncState = syncManager.getSyncState();
+        long start = System.nanoTime();
+
+        syncState.transferStarted( task.isUpload() );
+
+        try
+        {
+            return transferImage( webClient, task );
+        }
+        finally
         {
-            syncManager.recyclePhoto( image );
+            syncState.transferEnded( task.isUpload() );
+            busyNanos += System.nanoTime() - start;
         }
     }
 
-    private boolean isDeletion(ImageSync image)
+    private boolean transferImage( PicasawebClient webClient, TransferTask task ) throws IOException, ServiceException
     {
-        if( image.getRemotePhoto() != null )
+        ImageSync image = task.getImage();
+        long start = System.currentTimeMillis();
+
+        MetricsRegistry.gauge(MetricsRegistry.TRANSFER_QUEUE).add(-1);
+
+        if( task.isUpload() )
         {
-            MediaKeywords keywords = image.getRemotePhoto().getMediaKeywords();
+            // Check that the album exists, create it and save if it doesn't.
+            albumEntry = webClient.prepareRemoteAlbum(albumEntry);
 
-            List<String> tags = keywords.getKeywords();
+            syncManager.updateProgress(String.format("Uploading %s : %s...", getAlbumName(), image.getName()));
 
-            for (String tag : tags)
-            {
-                if (tag.equals("delete"))
-                    return true;
-            }
+            // The digest (if we know it) isn't carried through the spill files, so look it up again
+            String localMd5 = getLocalIndex().getDigest(image.getLocalFile());
+            long size = image.getLocalFile().length();
+            TransferEvent event = FlightEvents.beginTransfer(getAlbumName(), image.getName(), true);
+            long uploadStart = System.nanoTime();
+            boolean success = false;
 
-            PhotoEntry photo = image.getRemotePhoto();
+            try {
+                success = webClient.uploadImageToAlbum(image.getLocalFile(), image.getRemotePhoto(), albumEntry, localMd5, getLocalIndex());
+            }
+            finally {
+                MetricsRegistry.record(Phase.upload, uploadStart);
+                FlightEvents.endTransfer(event, size, success);
+            }
 
-            if( photo != null )
+            if( success )
             {
-                UniquePhoto up = new UniquePhoto( photo );
-
-                // See if this image is in the 'Recycle Bin' album
-                if (syncManager.isDeleted( up ))
-                    return true;
+                syncManager.getSyncState().addStats(0, 1, 0);
+                syncManager.getSyncState().addTransfer(true, size, System.currentTimeMillis() - start);
+                MetricsRegistry.counter(MetricsRegistry.PHOTOS_UPLOADED).increment();
+                MetricsRegistry.counter(MetricsRegistry.BYTES_UPLOADED).add(size);
+                uploaded++;
+            }
+            else
+            {
+                syncManager.getSyncState().addStats(0, 0, 1);
+                syncManager.recordError("Upload failed");
+                MetricsRegistry.counter(MetricsRegistry.TRANSFERS_FAILED).increment();
+                failed++;
             }
+
+            return true;
         }
 
-        // No remote photo. See if the local folder has a 'deleted' tag
-        ImageInformation localInfo = ImageInformation.safeReadImageInformation( image.getLocalFile() );
+        // Only download if we have space on the local disk. If not, the download
+        // is skipped (and picked up on a later sync), but uploads carry on, and
+        // downloads resume if space is freed. The skipped downloads aren't
+        // errors; the sync reports them once at the end.
+        DiskSpaceManager diskSpace = syncManager.getDiskSpace();
+        long size = image.getRemotePhoto().getSize();
 
-        if( localInfo != null && localInfo.getDeleteTag() )
+        if( ! diskSpace.reserve( size ) )
+        {
+            syncManager.updateProgress("Not enough disk space. Downloads paused.");
             return true;
+        }
+
+        syncManager.updateProgress(String.format("Downloading %s : %s...", getAlbumName(), image.getName()));
 
-        // It's possible the photo may be sitting in the recycle bin in the
-        // cloud because it's already been deleted. So we'll have a look and
-        // see if we can identify it as having already been deleted.
+        boolean success = false;
+        TransferEvent event = FlightEvents.beginTransfer(getAlbumName(), image.getName(), false);
+        long downloadStart = System.nanoTime();
 
         try
         {
-            UniquePhoto up = new UniquePhoto(image.getLocalFile());
-            if (syncManager.isDeleted(up))
-                return true;
-
+            // And finally, download any new images - if the remote version is newer
+            success = downloadImage(image, webClient);
         }
-        catch( Exception ex )
+        finally
         {
-            // Don't care
+            MetricsRegistry.record(Phase.download, downloadStart);
+            FlightEvents.endTransfer(event, size, success);
+            diskSpace.release( size, success );
         }
 
-        return false;
-    }
-
-    private boolean checkDiskSpace()
-    {
-        final int MIN_FREE_DISK_SPACE_PERCENTAGE = 2;
-
-        double freeSpace = settings.getPhotoRootFolder().getFreeSpace();
-        double totalSpace = settings.getPhotoRootFolder().getTotalSpace();
-
-        double percentage = (freeSpace / totalSpace) * 100.0;
-        if( percentage > MIN_FREE_DISK_SPACE_PERCENTAGE)
+        if( success )
+        {
+            syncManager.getSyncState().addStats(1, 0, 0);
+            syncManager.getSyncState().addTransfer(false, size, System.currentTimeMillis() - start);
+            MetricsRegistry.counter(MetricsRegistry.PHOTOS_DOWNLOADED).increment();
+            MetricsRegistry.counter(MetricsRegistry.BYTES_DOWNLOADED).add(size);
+            downloaded++;
             return true;
+        }
 
-        syncManager.getSyncState().setStatus("Available disk space was less than " + MIN_FREE_DISK_SPACE_PERCENTAGE + "%. Skipping downloads.");
-        log.warn("Available disk space was less than " + MIN_FREE_DISK_SPACE_PERCENTAGE + "%. Skipping downloads.");
+        syncManager.getSyncState().addStats(0, 0, 1);
+        MetricsRegistry.counter(MetricsRegistry.TRANSFERS_FAILED).increment();
+        failed++;
+        syncManager.recordError("Download failed");
+        syncManager.updateProgress( "Download error. Aborting." );
         return false;
     }
 
-    private List<ImageSync> buildImageList(PicasawebClient webClient, File localFolder, AlbumEntry albumEntry, final LocalDateTime oldestDate) throws IOException, ServiceException {
+    /**
+     * Album-level work once all transfers are done: album and folder dates,
+     * then any deletions.
+     */
+    public void finish( PicasawebClient webClient ) throws IOException, ServiceException
+    {
+        long start = System.nanoTime();
 
-        List<ImageSync> allImages = new ArrayList<ImageSync>();
+        try
+        {
+            finishAlbum( webClient );
+        }
+        finally
+        {
+            busyNanos += System.nanoTime() - start;
+        }
 
-        syncManager.getSyncState().setStatus("Querying Google for album " + albumEntry.getTitle().getPlainText() );
+        log.info("Finished album " + getAlbumName() + ": " + uploaded + " uploaded, " + downloaded + " downloaded.");
+        close();
+    }
 
-        // Get the list of remote photos
-        List<PhotoEntry> photos = webClient.getPhotos( albumEntry );
+    private void finishAlbum( PicasawebClient webClient ) throws IOException, ServiceException
+    {
+        // The dates below depend on the file times written behind the transfers
+        webClient.flushFileTimes();
 
-        // Deal with the fact that an album can have multiple images with the same local filename.
-        HashMap<String, List<PhotoEntry>> fileGroups = new HashMap<String, List<PhotoEntry>>();
+        if( uploaded > 0 )
+        {
+            // If we had any uploads for this album, set the remote album
+            // entry based on the most recent 'date taken' from the local
+            // metadata
+            webClient.setAlbumDateFromFolder(localFolder, albumEntry);
+        }
 
-        for( PhotoEntry photo : photos )
+        if( downloaded > 0 )
         {
-            String imageName = photo.getTitle().getPlainText().toLowerCase();
+            // Set the local folder timestamp based on the downloaded files
+            updateFolderTimeStamp( localFolder );
+        }
 
-            if( FilenameUtils.getExtension( imageName ).toLowerCase().equals(".mov") )
+        // Now clean up any images that have been marked for deletion.
+        if( deletes != null )
+        {
+            for (ImageSync image : deletes)
             {
-                log.info( "Skipping file " + imageName + " with .mov file extension.");
-                continue;
+                MetricsRegistry.gauge(MetricsRegistry.DELETE_QUEUE).add(-1);
+                syncManager.recyclePhoto( image );
+                getLocalIndex().remove( image.getLocalFile() );
             }
+        }
+    }
 
-            List<PhotoEntry> photoList = null;
+    /**
+     * Releases the queued work, including any temp files.
+     */
+    public void close()
+    {
+        // Keep the digests of anything transferred so far, even if we were interrupted
+        if( localIndex != null )
+            localIndex.save();
+
+        // Abandoned albums are closed without being finished, so the event ends here either way
+        FlightEvents.endAlbum(albumEvent, uploaded, downloaded, failed);
+
+        if( visitingName != null )
+            syncManager.albumVisited(visitingName, busyNanos, uploaded, downloaded, failed);
+
+        if( transfers != null )
+            transfers.close();
+        if( deletes != null )
+            deletes.close();
+
+        transfers = null;
+        deletes = null;
+        localIndex = null;
+        albumEvent = null;
+        visitingName = null;
+        busyNanos = 0;
+        uploaded = 0;
+        downloaded = 0;
+        failed = 0;
+    }
 
-            if( ! fileGroups.containsKey( imageName ))
-            {
-                photoList = new ArrayList<PhotoEntry>();
-                fileGroups.put( imageName, photoList );
-            }
-            else
-                photoList = fileGroups.get( imageName );
+    /**
+     * Works out what a sync would do for this album, without doing it.
+     */
+    /**
+     * Plans the album from what's on disk, where that's enough to be sure
+     * nothing has changed: the remote album hasn't been updated since the
+     * given time (the end of the last complete sync), there are as many
+     * local files as remote photos, and the local index has a digest for
+     * every one of them that is still current. Returns null if the album's
+     * feed has to be fetched to find out.
+     */
+    public SyncPlan.AlbumPlan planFromIndex( long lastSyncMillis ) throws IOException, ServiceException
+    {
+        DateTime updated = albumEntry.getUpdated();
+        Integer remoteCount = albumEntry.getPhotosUsed();
 
-            photoList.add( photo );
-        }
+        if( updated == null || remoteCount == null || updated.getValue() >= lastSyncMillis || ! localFolder.exists() )
+            return null;
 
-        // So now we have a map of image name => List of photo entries which use that name.
-        List<PhotoEntry> nonDupePhotos = new ArrayList<PhotoEntry>();
+        ExternalSorter<File> localFiles = AlbumDiff.sortLocalFiles( localFolder, settings.getSpillThreshold() );
 
-        int dupesDiscarded = 0;
-        for (List<PhotoEntry> list : fileGroups.values()) {
-            String maxId = null;
-            PhotoEntry photoToUse = null;
+        try
+        {
+            if( localFiles.size() != remoteCount )
+                return null;
 
-            for( PhotoEntry photo : list )
+            Iterator<File> files = localFiles.sortedIterator();
+            while( files.hasNext() )
             {
-                String id = PicasawebClient.getPhotoId(photo);
-
-                // We'll arbitrarily pick the one with the lowest ID, and ignore the rest.
-                if( maxId == null || maxId.compareTo( id ) == -1 )
-                {
-                    maxId = id;
-                    photoToUse = photo;
-                }
+                if( getLocalIndex().getDigest( files.next() ) == null )
+                    return null;
             }
 
-            nonDupePhotos.add( photoToUse );
-
-            dupesDiscarded += list.size() - 1;
+            SyncPlan.AlbumPlan plan = new SyncPlan.AlbumPlan( getAlbumName(), false );
+            plan.addUnchanged( remoteCount );
+            return plan;
         }
-
-        if( dupesDiscarded > 0 )
+        catch( UncheckedIOException ex )
         {
-            log.info("Ignoring " + dupesDiscarded + " duplicate photos of " + photos.size() + " from album " + getAlbumName() );
+            throw ex.getCause();
         }
+        finally
+        {
+            localFiles.close();
+        }
+    }
 
-        List<ImageSync> remoteImages = new ArrayList<ImageSync>();
+    /**
+     * Plans the album by fetching its feed and running the same diff as a
+     * sync, so it costs a network round trip per page of the album.
+     */
+    public SyncPlan.AlbumPlan plan( PicasawebClient webClient, LocalDateTime oldestDate )
+                            throws IOException, ServiceException
+    {
+        final SyncPlan.AlbumPlan plan = new SyncPlan.AlbumPlan( getAlbumName(), albumEntry.getId() == null );
+        boolean isAutoBackup = PicasawebClient.isInstantUpload(albumEntry);
 
-        for( PhotoEntry photo : nonDupePhotos )
+        try
         {
-            String imageFile = photo.getTitle().getPlainText();
-
-            if( settings.getExcludeVideos() && photo.getMediaContents().size() > 1 )
+            diffAlbum(webClient, oldestDate, isAutoBackup, new AlbumDiff.Listener()
             {
-                log.info("Exclude Video enabled: skipping " + imageFile);
-                continue;
-            }
-
-            File localFileName = new File( localFolder, imageFile );
-            remoteImages.add(new ImageSync( photo, localFileName));
+                public void onImage(ImageSync image, ImageSync.UpdateAction action)
+                {
+                    plan.add(image, action);
+                }
+            });
+        }
+        catch( UncheckedIOException ex )
+        {
+            throw ex.getCause();
         }
 
-        log.debug(remoteImages.size() + " remote images found in " + albumEntry.getTitle().getPlainText());
+        return plan;
+    }
 
-        // Get the local file list
-        File[] files = localFolder.listFiles(
-            new FilenameFilter() {
-                public boolean accept(File current, String name) {
-                    File file = new File(current, name);
-                    return file.isFile() && !file.isHidden();
-                }
-            }
-        );
+    private void diffAlbum(PicasawebClient webClient, LocalDateTime oldestDate, boolean isAutoBackup,
+                           AlbumDiff.Listener listener) throws IOException, ServiceException {
 
-        List<ImageSync> localFiles = new ArrayList<ImageSync>();
+        // Stream the remote photos and local files into sorters, which keep them
+        // in memory for normal albums but spill sorted runs to disk for very
+        // large ones.
+        final ExternalSorter<RemotePhoto> remotePhotos = new ExternalSorter<RemotePhoto>( AlbumDiff.BY_NAME,
+                REMOTE_PHOTO_CODEC, settings.getSpillThreshold() );
+        ExternalSorter<File> localFiles = null;
 
-        if( files != null && files.length > 0 )
+        try
         {
-            log.info(files.length + " local files found in " + localFolder);
-
-            // Now, pull out all the local files that aren't in the list.
-            // These are the new files that we'll upload
-            for (File localFile : files)
+            webClient.streamPhotos( albumEntry, new FeedParser.Listener()
             {
-                if (!fileGroups.containsKey(localFile.getName().toLowerCase()))
+                public void onPhoto( RemotePhoto photo )
                 {
-                    localFiles.add(new ImageSync(null, localFile));
+                    try
+                    {
+                        remotePhotos.add( photo );
+                    }
+                    catch( IOException ex )
+                    {
+                        throw new UncheckedIOException( ex );
+                    }
                 }
-            }
-        }
-
-        log.debug(localFiles.size() + " local images found in " + localFolder);
-        allImages.addAll( localFiles );
-
-        // Add the remote images after. Uploads are higher priority than downloads
-        allImages.addAll( remoteImages );
 
-        log.debug(allImages.size() + " images found (new local + remote)");
+                public void onAlbum( RemoteAlbum album ) {
+                }
+            });
 
-        // And finally, filter out anything that's too old.
-        List<ImageSync> result = new ArrayList<ImageSync>();
+            localFiles = AlbumDiff.sortLocalFiles( localFolder, settings.getSpillThreshold() );
 
-        for( ImageSync image : allImages )
-            if( image.newerThan(oldestDate))
-                result.add( image );
+            log.info(remotePhotos.size() + " remote and " + localFiles.size() + " local files found for " + getAlbumName()
+                        + ( remotePhotos.hasSpilled() || localFiles.hasSpilled() ? " (spilled to disk)" : "" ) );
 
-        log.debug(result.size() + " total images after date filter applied." );
+            AlbumDiff diff = new AlbumDiff( settings, syncManager, isAutoBackup, oldestDate, getLocalIndex() );
+            long start = System.nanoTime();
 
-        return result;
+            try
+            {
+                diff.diff( remotePhotos.sortedIterator(), localFiles.sortedIterator(), localFolder, listener );
+            }
+            finally
+            {
+                MetricsRegistry.record( Phase.diff, start );
+            }
+        }
+        finally
+        {
+            remotePhotos.close();
+            if( localFiles != null )
+                localFiles.close();
+        }
     }
 
     // Given a local folder, enumerate the files within it and then
@@ -418,16 +627,10 @@ public class AlbumSync
     // TODO: What to do about dupe albums with the same name, possibly containing different pics?
     private boolean downloadImage( ImageSync image, PicasawebClient webClient ) {
         try {
-            PhotoEntry photo = image.getRemotePhoto();
+            RemotePhoto photo = image.getRemotePhoto();
             File saveLocation = image.getLocalFile();
 
-            if( webClient.downloadPhoto(saveLocation, photo) )
-            {
-                // Set the local folder timestamp based on the downloaded file
-                updateFolderTimeStamp( localFolder );
-            }
-
-            return true;
+            return webClient.downloadPhoto(saveLocation, photo, getLocalIndex());
 
         } catch (Exception ex) {
 
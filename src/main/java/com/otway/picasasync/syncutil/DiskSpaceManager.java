@@ -0,0 +1,106 @@
+/*
+    Copyright 2016 Mark Otway
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.otway.picasasync.syncutil;
+
+import org.apache.log4j.Logger;
+
+import java.io.File;
+
+/**
+ * Tracks local disk headroom for downloads. Each download reserves its size
+ * up front against a free-space figure that is only re-read from the file
+ * system periodically; in between, completed downloads are deducted from it.
+ * When a reservation would eat into the minimum headroom it is refused, and
+ * downloads stay paused until a refresh shows space has been freed. Refused
+ * downloads are counted, so the sync can report them once at the end.
+ */
+public class DiskSpaceManager
+{
+    private static final Logger log = Logger.getLogger(DiskSpaceManager.class);
+
+    private final File root;
+    private final long minFreeBytes;
+    private final long refreshMillis;
+    private long freeBytes;
+    private long reservedBytes;
+    private long lastRefresh;
+    private boolean paused;
+    private int skippedDownloads;
+    private long skippedBytes;
+
+    public DiskSpaceManager( File root, int minFreePercentage, long refreshMillis )
+    {
+        this.root = root;
+        this.minFreeBytes = root.getTotalSpace() / 100 * minFreePercentage;
+        this.refreshMillis = refreshMillis;
+        refresh();
+    }
+
+    /**
+     * Reserves space for a download of the given size. Returns false if
+     * there isn't enough headroom, in which case nothing is reserved.
+     */
+    public synchronized boolean reserve( long bytes )
+    {
+        if( System.currentTimeMillis() - lastRefresh > refreshMillis )
+            refresh();
+
+        boolean fits = freeBytes - reservedBytes - bytes > minFreeBytes;
+
+        if( fits != ! paused )
+        {
+            paused = ! fits;
+
+            if( paused )
+                log.warn("Less than " + minFreeBytes / ( 1024 * 1024 ) + "MB of disk space would remain. Pausing downloads.");
+            else
+                log.info("Disk space available again. Resuming downloads.");
+        }
+
+        if( fits )
+            reservedBytes += bytes;
+        else
+        {
+            skippedDownloads++;
+            skippedBytes += bytes;
+        }
+
+        return fits;
+    }
+
+    /**
+     * Releases a reservation. If the file was written, its size comes off
+     * the free-space figure until the next refresh.
+     */
+    public synchronized void release( long bytes, boolean written )
+    {
+        reservedBytes = Math.max( 0, reservedBytes - bytes );
+
+        if( written )
+            freeBytes -= bytes;
+    }
+
+    public synchronized boolean isPaused() { return paused; }
+    public synchronized int getSkippedDownloads() { return skippedDownloads; }
+    public synchronized long getSkippedBytes() { return skippedBytes; }
+
+    private void refresh()
+    {
+        freeBytes = root.getUsableSpace();
+        lastRefresh = System.currentTimeMillis();
+    }
+}
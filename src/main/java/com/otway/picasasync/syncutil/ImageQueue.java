@@ -0,0 +1,170 @@
+/*
+    Copyright 2016 Mark Otway
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.otway.picasasync.syncutil;
+
+import com.otway.picasasync.metadata.RemotePhoto;
+import org.apache.log4j.Logger;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Append-only queue of transfer work for an album.
+ *
+ * Items are kept in memory up to a limit; after that they are appended to
+ * a compact temporary file and streamed back from disk when iterated, so
+ * the heap stays flat however much work a huge album produces. Items come
+ * back in the order they were added.
+ */
+public class ImageQueue implements Iterable<ImageSync>, Closeable
+{
+    private static final Logger log = Logger.getLogger(ImageQueue.class);
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final int maxInMemory;
+    private final List<ImageSync> items = new ArrayList<ImageSync>();
+    private File spillFile;
+    private DataOutputStream spillOut;
+    private DataInputStream spillIn;
+    private int spilledCount;
+
+    public ImageQueue( int maxInMemory )
+    {
+        this.maxInMemory = maxInMemory;
+    }
+
+    public int size() { return items.size() + spilledCount; }
+    public boolean isEmpty() { return size() == 0; }
+
+    public void add( ImageSync image ) throws IOException
+    {
+        if( spillOut == null && items.size() < maxInMemory )
+        {
+            items.add( image );
+            return;
+        }
+
+        if( spillOut == null )
+        {
+            spillFile = File.createTempFile( "picasync", ".queue" );
+            spillOut = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( spillFile ), BUFFER_SIZE ) );
+            log.info("Transfer queue exceeded " + maxInMemory + " items; spilling to " + spillFile);
+        }
+
+        writeImage( spillOut, image );
+        spilledCount++;
+    }
+
+    /**
+     * Iterates the in-memory items, then streams the spilled ones from disk.
+     * Can only be called once.
+     */
+    public Iterator<ImageSync> iterator()
+    {
+        try
+        {
+            if( spillOut != null )
+            {
+                spillOut.close();
+                spillOut = null;
+                spillIn = new DataInputStream( new BufferedInputStream( new FileInputStream( spillFile ), BUFFER_SIZE ) );
+            }
+        }
+        catch( IOException ex )
+        {
+            throw new UncheckedIOException( ex );
+        }
+
+        final Iterator<ImageSync> memory = items.iterator();
+
+        return new Iterator<ImageSync>()
+        {
+            private int remaining = spilledCount;
+
+            public boolean hasNext()
+            {
+                return memory.hasNext() || remaining > 0;
+            }
+
+            public ImageSync next()
+            {
+                if( memory.hasNext() )
+                    return memory.next();
+
+                if( remaining == 0 )
+                    throw new NoSuchElementException();
+
+                try
+                {
+                    remaining--;
+                    return readImage( spillIn );
+                }
+                catch( IOException ex )
+                {
+                    throw new UncheckedIOException( ex );
+                }
+            }
+
+            public void remove()
+            {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    public void close()
+    {
+        try
+        {
+            if( spillOut != null )
+                spillOut.close();
+            if( spillIn != null )
+                spillIn.close();
+        }
+        catch( IOException ex )
+        {
+            // Don't care
+        }
+
+        if( spillFile != null && ! spillFile.delete() )
+            log.warn("Unable to delete transfer queue file " + spillFile);
+
+        spillOut = null;
+        spillIn = null;
+        spillFile = null;
+        spilledCount = 0;
+        items.clear();
+    }
+
+    static void writeImage( DataOutput out, ImageSync image ) throws IOException
+    {
+        out.writeUTF( image.getLocalFile().getPath() );
+        out.writeBoolean( image.getRemotePhoto() != null );
+        if( image.getRemotePhoto() != null )
+            image.getRemotePhoto().writeTo( out );
+    }
+
+    static ImageSync readImage( DataInput in ) throws IOException
+    {
+        File localFile = new File( in.readUTF() );
+        RemotePhoto photo = in.readBoolean() ? RemotePhoto.readFrom( in ) : null;
+        return new ImageSync( photo, localFile );
+    }
+}
@@ -20,16 +20,17 @@ import com.google.gdata.data.photos.PhotoEntry;
 import com.google.gdata.util.ServiceException;
 import com.otway.picasasync.config.Settings;
 import com.otway.picasasync.metadata.ImageInformation;
+import com.otway.picasasync.metadata.LocalIndex;
+import com.otway.picasasync.metadata.RemotePhoto;
 import org.apache.commons.io.FileUtils;
+import org.apache.log4j.LogSF;
 import org.apache.log4j.Logger;
 import org.apache.sanselan.ImageReadException;
 
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
-import java.time.Instant;
 import java.time.LocalDateTime;
-import java.time.ZoneId;
 import java.time.temporal.ChronoUnit;
 
 import static com.otway.picasasync.utils.TimeUtils.getTimeFromMS;
@@ -42,19 +43,20 @@ public class ImageSync
     public enum UpdateAction {
         none,
         download,
-        upload
+        upload,
+        delete
     }
 
     // Time difference allowed between local and remote
     // before triggering an upload or download
     private final int TIME_DELTA_SECS = 5;
 
-    private final PhotoEntry remotePhoto;
+    private final RemotePhoto remotePhoto;
     private final File localFile;
     private String localMd5CheckSum;
 
     public String getLocalMd5CheckSum() { return localMd5CheckSum; }
-    public PhotoEntry getRemotePhoto() {
+    public RemotePhoto getRemotePhoto() {
         return remotePhoto;
     }
 
@@ -62,7 +64,7 @@ public class ImageSync
         return localFile;
     }
 
-    public ImageSync(PhotoEntry remotePhoto, File localFileName)
+    public ImageSync(RemotePhoto remotePhoto, File localFileName)
     {
         this.remotePhoto = remotePhoto;
         this.localFile = localFileName;
@@ -86,7 +88,7 @@ public class ImageSync
 
         if( remotePhoto != null )
         {
-            LocalDateTime remoteTimeStamp = LocalDateTime.ofInstant(remotePhoto.getTimestamp().toInstant(), ZoneId.systemDefault());
+            LocalDateTime remoteTimeStamp = getTimeFromMS( remotePhoto.getTimestamp() );
 
             // There's a remote file. See if it's newer
             if( remoteTimeStamp.isAfter( threshold ))
@@ -96,13 +98,17 @@ public class ImageSync
         return false;
     }
 
-    // Currently unused, but if Picasa ever fixed it so the checksum was
-    // actually updated whenever an image changes, we could use this.
-    private void generateMd5CheckSum()
+    // Picasa doesn't reliably update the checksum when an image changes, so we
+    // never hash here just to compare with it. But if we recorded a digest when
+    // we last transferred the file, and the file hasn't changed since, it's free.
+    private void generateMd5CheckSum( LocalIndex index )
     {
         final boolean USE_CHECKSUMS = false;
 
-        if( USE_CHECKSUMS )
+        if( index != null )
+            localMd5CheckSum = index.getDigest( localFile );
+
+        if( localMd5CheckSum == null && USE_CHECKSUMS )
         {
             try
             {
@@ -119,7 +125,7 @@ public class ImageSync
     /*
     * Figure out what we actually need to do.
     */
-    public UpdateAction evaluateAction( Settings settings, boolean isAutoBackup ) {
+    public UpdateAction evaluateAction( Settings settings, boolean isAutoBackup, LocalIndex index ) {
 
         boolean canDownloadNew = settings.getDownloadNew();
         boolean canDownloadChanged = settings.getDownloadChanged();
@@ -137,36 +143,36 @@ public class ImageSync
         boolean isNewFile = false;
 
         if( hasLocalFile )
-            generateMd5CheckSum();
+            generateMd5CheckSum( index );
 
         if( hasLocalFile && hasRemoteFile )
         {
-            // We have both. See if they're the same...
-            if (remotePhoto.getChecksum() != null && remotePhoto.getChecksum().equals( localMd5CheckSum) )
-            {
-                // We have an MD5 checksum, and it matches. Happy days.
-                log.debug("MD5 checksum matched. No action required");
-                action = UpdateAction.none;
-            }
-            else
+            // We have both. See which is newer. The remote checksum isn't
+            // reliably updated when a photo is changed in the cloud, so it
+            // can only rule out an upload, never a download.
+            LocalDateTime localMod = getTimeFromMS(localFile.lastModified());
+            LocalDateTime remoteMod = getTimeFromMS(remotePhoto.getUpdated());
+            long seconds = ChronoUnit.SECONDS.between(remoteMod, localMod);
+            if( Math.abs( seconds ) > TIME_DELTA_SECS )
             {
-                // There's a remote photo. See which is newer.
-                LocalDateTime localMod = getTimeFromMS(localFile.lastModified());
-                LocalDateTime remoteMod = getTimeFromMS(remotePhoto.getUpdated().getValue());
-                long seconds = ChronoUnit.SECONDS.between(remoteMod, localMod);
-                if( Math.abs( seconds ) > TIME_DELTA_SECS )
+                if( seconds > 0 )
                 {
-                    if( seconds > 0 )
+                    if (remotePhoto.getChecksum() != null && remotePhoto.getChecksum().equals( localMd5CheckSum) )
                     {
-                        log.info("Image " + localFile.getName() + " is " + seconds + "s newer than remote image, so will be uploaded");
-                        action = UpdateAction.upload;
+                        // Only the file time differs, so there's nothing to upload.
+                        LogSF.debug(log, "Image {} is newer than remote image, but its MD5 checksum matches. No action required", localFile.getName());
                     }
                     else
                     {
-                        log.info("Image " + localFile.getName() + " is " + seconds + "s older than remote image, so will be downloaded");
-                        action = UpdateAction.download;
+                        LogSF.info(log, "Image {} is {}s newer than remote image, so will be uploaded", localFile.getName(), seconds);
+                        action = UpdateAction.upload;
                     }
                 }
+                else
+                {
+                    LogSF.info(log, "Image {} is {}s older than remote image, so will be downloaded", localFile.getName(), seconds);
+                    action = UpdateAction.download;
+                }
             }
         }
         else
@@ -285,7 +291,7 @@ public class ImageSync
     public String getName()
     {
         if( remotePhoto != null )
-            return remotePhoto.getTitle().getPlainText();
+            return remotePhoto.getTitle();
         if( localFile.exists() )
             return localFile.getName();
 
@@ -0,0 +1,132 @@
+/*
+    Copyright 2016 Mark Otway
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+
+package com.otway.picasasync.syncutil;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.otway.picasasync.utils.FileUtilities;
+import org.apache.commons.io.FileUtils;
+import org.apache.log4j.Logger;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The history of sync runs, as one JSON report per line in the app folder
+ * under the sync root. When the file gets too big it's rolled over to a
+ * single backup, like the log, so the history stays bounded.
+ */
+public class SyncHistory
+{
+    public static final String FILE_NAME = "sync-history.jsonl";
+    private static final String BACKUP_NAME = "sync-history.1.jsonl";
+    private static final long MAX_FILE_SIZE = 256 * 1024;
+
+    private static final Logger log = Logger.getLogger(SyncHistory.class);
+    private static final ObjectMapper mapper = new ObjectMapper()
+                        .configure( DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false );
+
+    private final File rootFolder;
+    private final File historyFile;
+    private final File backupFile;
+
+    public SyncHistory( File rootFolder )
+    {
+        File appFolder = new File( rootFolder, FileUtilities.APP_FOLDER_NAME );
+
+        this.rootFolder = rootFolder;
+        this.historyFile = new File( appFolder, FILE_NAME );
+        this.backupFile = new File( appFolder, BACKUP_NAME );
+    }
+
+    public File getFile() { return historyFile; }
+
+    public synchronized void append( SyncReport report ) throws IOException
+    {
+        byte[] line = ( mapper.writeValueAsString( report ) + "\n" ).getBytes( "UTF-8" );
+
+        FileUtilities.getAppFolder( rootFolder );
+
+        if( historyFile.exists() && historyFile.length() + line.length > MAX_FILE_SIZE )
+        {
+            log.info("Rolling over sync history.");
+            if( backupFile.exists() && ! backupFile.delete() )
+                log.warn("Unable to delete old sync history " + backupFile);
+            if( ! historyFile.renameTo( backupFile ) )
+                log.warn("Unable to roll over sync history " + historyFile);
+        }
+
+        OutputStream out = new FileOutputStream( historyFile, true );
+
+        try
+        {
+            out.write( line );
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+
+    /**
+     * Returns up to the given number of the most recent runs, newest first.
+     * Lines that can't be read are skipped.
+     */
+    public synchronized List<SyncReport> readRecent( int count )
+    {
+        List<String> lines = new ArrayList<String>();
+        readLines( backupFile, lines );
+        readLines( historyFile, lines );
+
+        List<SyncReport> reports = new ArrayList<SyncReport>();
+
+        for( int i = lines.size() - 1; i >= 0 && reports.size() < count; i-- )
+        {
+            String line = lines.get( i ).trim();
+            if( line.isEmpty() )
+                continue;
+
+            try
+            {
+                reports.add( mapper.readValue( line, SyncReport.class ) );
+            }
+            catch( IOException ex )
+            {
+                log.debug("Skipping unreadable sync history entry: " + line);
+            }
+        }
+
+        return reports;
+    }
+
+    private static void readLines( File file, List<String> lines )
+    {
+        if( ! file.exists() )
+            return;
+
+        try
+        {
+            lines.addAll( FileUtils.readLines( file, "UTF-8" ) );
+        }
+        catch( IOException ex )
+        {
+            log.warn("Unable to read sync history " + file, ex);
+        }
+    }
+}
@@ -22,12 +22,19 @@ import com.google.gdata.data.photos.PhotoEntry;
 import com.google.gdata.util.ServiceException;
 import com.google.gdata.util.ServiceForbiddenException;
 import com.otway.picasasync.config.Settings;
+import com.otway.picasasync.metadata.RemoteAlbum;
+import com.otway.picasasync.metadata.RemotePhoto;
 import com.otway.picasasync.metadata.UniquePhoto;
+import com.otway.picasasync.metrics.MetricsRegistry;
+import com.otway.picasasync.metrics.Phase;
 import com.otway.picasasync.utils.FileUtilities;
+import com.otway.picasasync.utils.TempFileManager;
 import com.otway.picasasync.utils.TimeUtils;
+import com.otway.picasasync.webclient.FeedParser;
 import com.otway.picasasync.webclient.GoogleOAuth;
 import com.otway.picasasync.webclient.PicasawebClient;
 import org.apache.commons.io.FileUtils;
+import org.apache.log4j.LogSF;
 import org.apache.log4j.Logger;
 
 import javax.swing.*;
@@ -39,6 +46,7 @@ import java.net.SocketTimeoutException;
 import java.net.UnknownHostException;
 import java.nio.file.attribute.FileTime;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.util.*;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -53,6 +61,10 @@ import static com.otway.picasasync.utils.TimeUtils.sortSyncNewestFirst;
 public class SyncManager {
 
     private static final String AUTOBACKUP_NAME = "Auto-Backup";
+    // How many transfers in a row one album gets before another album has a turn
+    private static final int MAX_CONSECUTIVE_TRANSFERS = 20;
+    private static final int MIN_FREE_DISK_SPACE_PERCENTAGE = 2;
+    private static final long DISK_SPACE_REFRESH_MS = 30 * 1000;
     private static final Logger log = Logger.getLogger(SyncManager.class);
     private final Settings settings;
     private final GoogleOAuth auth;
@@ -61,11 +73,22 @@ public class SyncManager {
     private final Object lock = new Object();
     private volatile boolean quit = false;
     private PicasawebClient webClient ;
+    private PicasawebClient fixedWebClient;
     private AlbumEntry recycleAlbum;
+    private DiskSpaceManager diskSpace;
+    private boolean writeMetricsReport = false;
+    private SyncReport report;
     private final HashSet<String> deletedPhotos = new HashSet<String>();
 
     public void updateProgress( String msg ){ syncState.setStatus(msg); }
     public SyncState getSyncState() { return syncState; }
+    public DiskSpaceManager getDiskSpace() { return diskSpace; }
+
+    /*
+     * Write the metrics to a text file under the sync root at the end of
+     * each pass - for headless runs, where there's nobody to ask over JMX.
+     */
+    public void setWriteMetricsReport( boolean writeMetricsReport ) { this.writeMetricsReport = writeMetricsReport; }
 
     public SyncManager( Settings settings ) {
         this.settings = settings;
@@ -86,6 +109,7 @@ public class SyncManager {
         log.warn("Shutting down background sync thread.");
         quit = true;
         executor.shutdown();
+        invalidateWebClient();
     }
 
     public void StartLoop() {
@@ -96,11 +120,17 @@ public class SyncManager {
         Runnable r = new Runnable() {
             public void run() {
 
+                // Nothing can be downloading yet, so anything left over is from a previous run
+                TempFileManager.cleanOrphans( settings.getPhotoRootFolder() );
+
                 while (! quit ) {
 
                     try {
 
-                        BeginCompleteSync();
+                        if( syncState.getIsPaused() )
+                            log.info("Sync paused. Skipping scheduled sync.");
+                        else
+                            BeginCompleteSync();
 
                         synchronized (lock)
                         {
@@ -126,9 +156,33 @@ public class SyncManager {
     }
 
     public void invalidateWebClient() {
+        if( webClient != null && webClient != fixedWebClient )
+            webClient.shutDown();
         webClient = null;
     }
 
+    /**
+     * Syncs using the given client instead of authenticating with Google,
+     * e.g. one pointed at the stand-in server for load tests. The caller
+     * owns the client and shuts it down.
+     */
+    public void useWebClient( PicasawebClient client ) {
+        invalidateWebClient();
+        fixedWebClient = client;
+    }
+
+    /*
+     * Refresh the access token in place, so the web client (and any work
+     * queued against it) doesn't need to be thrown away.
+     */
+    private boolean refreshCredentials() {
+        if( webClient == null || webClient.getCredentialManager() == null )
+            return false;
+
+        log.info("Access token rejected. Refreshing credentials...");
+        return webClient.getCredentialManager().refreshNow();
+    }
+
     public void BeginCompleteSync() {
 
         if( syncState.getIsInProgress() ) {
@@ -137,9 +191,9 @@ public class SyncManager {
             return;
         }
 
-        LocalDateTime startDate = LocalDateTime.now();
-        startDate = startDate.plusDays(-1 * settings.getSyncDateRange() );
+        LocalDateTime startDate = getOldestDate();
         boolean endedWithError = true;
+        boolean cancelled = false;
 
         log.info("Synchronisation started. Max photo age: " + startDate );
 
@@ -151,45 +205,130 @@ public class SyncManager {
 
         try {
             syncState.start();
+            MetricsRegistry.startPass();
+            report = SyncReport.begin();
 
             File rootFolder = initFolder();
+            diskSpace = new DiskSpaceManager( rootFolder, MIN_FREE_DISK_SPACE_PERCENTAGE, DISK_SPACE_REFRESH_MS );
 
             syncState.setStatus("Starting synchronisation");
 
             // Do the actual sync
             Synchronise(rootFolder, startDate);
 
-            syncState.setStatus("Sync complete");
+            cancelled = syncState.getIsCancelled();
+
+            if( diskSpace.getSkippedDownloads() > 0 )
+            {
+                String skipped = diskSpace.getSkippedDownloads() + " downloads ("
+                        + FileUtils.byteCountToDisplaySize( diskSpace.getSkippedBytes() ) + ") skipped for lack of disk space";
+                log.warn(skipped + ". They'll be picked up on a later sync.");
+                syncState.setStatus("Sync complete. " + skipped + ".");
+            }
+            else
+                syncState.setStatus("Sync complete");
+
+            recordThroughput();
 
             endedWithError = false;
 
         } catch( ServiceForbiddenException forbiddenEx ) {
 
+            recordError( forbiddenEx );
             log.error("Auth expired. Discarding web client; will re-auth on next loop.");
             invalidateWebClient();
         }
         catch( UnknownHostException ex ){
+            recordError( ex );
             log.warn("Unknown host exception. Did we lose internet access?");
             // Cancel this sync, and we'll try again in a bit
             syncState.setStatus("Error finding Google.com. Sync Aborted.");
         }
         catch( SocketException ex ){
+            recordError( ex );
             log.warn("Socket exception. Did we lose internet access?");
             // Cancel this sync, and we'll try again in a bit
             syncState.setStatus("Connection error. Sync Aborted.");
         }
         catch( SocketTimeoutException ex ){
+            recordError( ex );
             log.warn("Socket timeout. Did we lose internet access?");
             // Cancel this sync, and we'll try again in a bit
             syncState.setStatus("Connection timeout. Sync aborted.");
         }
         catch (Exception ex) {
+            recordError( ex );
             log.error("Unexpected error: ", ex);
         } finally {
             log.info("Synchronisation ended.");
             if( endedWithError )
                 syncState.setStatus("Sync failed.");
+
+            // Before the GUI hears the sync has ended, so its history is up to date
+            writeHistory( endedWithError ? SyncReport.FAILED : cancelled ? SyncReport.CANCELLED : SyncReport.COMPLETE );
+
             syncState.cancel( endedWithError );
+
+            if( writeMetricsReport )
+                writeMetrics();
+        }
+    }
+
+    /*
+     * Append this run's report to the sync history, for capacity planning
+     * and the tray's list of recent syncs.
+     */
+    private void writeHistory( String outcome ) {
+        if( report == null )
+            return;
+
+        try {
+            report.end( syncState, outcome );
+            new SyncHistory( settings.getPhotoRootFolder() ).append( report );
+        }
+        catch( IOException ex ) {
+            log.warn("Unable to write sync history.", ex);
+        }
+        finally {
+            report = null;
+        }
+    }
+
+    /*
+     * Note an error in the current run's report, by kind.
+     */
+    public void recordError( String kind ) {
+        if( report != null )
+            report.addError( kind );
+    }
+
+    private void recordError( Exception ex ) {
+        recordError( ex.getClass().getSimpleName() );
+    }
+
+    /*
+     * Note an album skipped without being synced (too old, excluded etc).
+     */
+    private void albumSkipped() {
+        if( report != null )
+            report.albumSkipped();
+    }
+
+    /*
+     * Called by each album when it's done with, whether finished or abandoned.
+     */
+    public void albumVisited( String album, long busyNanos, int uploaded, int downloaded, int failed ) {
+        if( report != null )
+            report.albumVisited( album, busyNanos, uploaded, downloaded, failed );
+    }
+
+    private void writeMetrics() {
+        try {
+            File report = MetricsRegistry.writeReport( settings.getPhotoRootFolder() );
+            log.info("Sync metrics written to " + report);
+        }
+        catch( IOException ex ) {
+            log.warn("Unable to write sync metrics.", ex);
         }
     }
 
@@ -225,15 +364,194 @@ public class SyncManager {
         if( ! initWebClient( false ) )
             return;
 
-        List<String> exclusions = readExcludedAlbumsList( rootFolder);
-        List<AlbumSync> workItems = new ArrayList<AlbumSync>();
-
         syncState.setStatus("Querying Google for album list");
         List<AlbumEntry> allRemoteAlbums = webClient.getAlbums(true);
         log.info(allRemoteAlbums.size() + " albums returned.");
 
         prepareRecycleAlbum( allRemoteAlbums );
 
+        List<AlbumSync> workItems = getWorkItems( allRemoteAlbums, rootFolder, oldestDate );
+
+        if( syncState.getIsCancelled() )
+            return;
+
+        log.info("================================================================");
+        // Now, work through the list of actual jobs
+        log.info("Preparing to process " + workItems.size() + " work items...");
+        int failedAlbums = 0;
+
+        for( AlbumSync syncLog : workItems )
+        {
+            if( ! syncLog.getHasAlbum() )
+            {
+                log.warn("Album had no albumEntry - logic error!");
+                continue;
+            }
+
+            log.info(" " + syncLog.getAlbumName() + " (changed locally on " + syncLog.localChangeDate() + ")");
+        }
+        log.info("================================================================");
+
+        // First diff every album, so we know all of the work before we start
+        final List<AlbumSync> preparedAlbums = new ArrayList<AlbumSync>();
+        int queuedInMemory = 0;
+
+        try {
+            for ( AlbumSync sync : workItems ) {
+
+                //if( ! sync.getAlbumName().equals( "TestAlbum" ) )
+                //    continue;
+
+                try {
+                    sync.prepare( webClient, oldestDate );
+                    preparedAlbums.add( sync );
+
+                    failedAlbums = 0;
+                }
+                catch( ServiceForbiddenException ex )
+                {
+                    if( refreshCredentials() )
+                    {
+                        // Same client, new token - so just have another go at the album
+                        try {
+                            sync.prepare( webClient, oldestDate );
+                            preparedAlbums.add( sync );
+                            failedAlbums = 0;
+                        }
+                        catch( ServiceForbiddenException retryEx ) {
+                            // The token's fine, so it's this album we can't get at
+                            recordError( retryEx );
+                            log.error("Access to album " + sync.getAlbumName() + " still forbidden after token refresh... continuing.", retryEx);
+                            failedAlbums++;
+                        }
+                        catch( Exception retryEx ) {
+                            recordError( retryEx );
+                            log.warn("Exception processing album after token refresh... continuing.", retryEx);
+                            failedAlbums++;
+                        }
+                    }
+                    else
+                    {
+                        invalidateWebClient();
+
+                        if( ! initWebClient( false ) )
+                        {
+                            // Reauth didn't work. Fail.
+                            throw ex;
+                        }
+                    }
+                }
+                catch( Exception ex ){
+
+                    recordError( ex );
+                    log.warn("Exception processing album... continuing.", ex);
+                    failedAlbums++;
+                }
+
+                if( failedAlbums > 2 )
+                {
+                    log.error("More than two sequential albums failed. Aborting sync.");
+                    syncState.cancel( true );
+                    break;
+                }
+
+                if( syncState.getIsCancelled() )
+                    return;
+
+                // All albums' work is held until the transfers start, so keep the total bounded
+                queuedInMemory += sync.getQueuedInMemory();
+                if( queuedInMemory > settings.getSpillThreshold() )
+                {
+                    log.info("Over " + settings.getSpillThreshold() + " transfers queued. Moving them to disk.");
+                    for( AlbumSync prepared : preparedAlbums )
+                        prepared.spillToDisk();
+                    queuedInMemory = 0;
+                }
+            }
+
+            if( syncState.getIsCancelled() )
+                return;
+
+            // Then do the transfers for all albums together, newest photos first
+            TransferScheduler scheduler = new TransferScheduler( MAX_CONSECUTIVE_TRANSFERS, syncState );
+            for( AlbumSync sync : preparedAlbums )
+                scheduler.addAlbum( sync );
+
+            scheduler.run( new TransferScheduler.Handler()
+            {
+                private int failedTransfers = 0;
+
+                public boolean transfer( AlbumSync album, TransferTask task ) throws IOException, ServiceException
+                {
+                    try {
+                        boolean result;
+
+                        try {
+                            result = album.transfer( webClient, task );
+                        }
+                        catch( ServiceForbiddenException ex ) {
+                            if( ! refreshCredentials() )
+                                throw ex;
+
+                            // Same client, new token - so just have another go
+                            result = album.transfer( webClient, task );
+                        }
+
+                        failedTransfers = 0;
+                        return result;
+                    }
+                    catch( ServiceForbiddenException ex ) {
+                        throw ex;
+                    }
+                    catch( Exception ex ) {
+                        recordError( ex );
+                        log.warn("Exception transferring " + task.getImage().getName() + "... skipping rest of album.", ex);
+
+                        if( ++failedTransfers > 2 )
+                        {
+                            log.error("More than two sequential transfers failed. Aborting sync.");
+                            syncState.cancel( true );
+                        }
+
+                        return false;
+                    }
+                }
+
+                public void albumFinished( AlbumSync album ) throws IOException, ServiceException
+                {
+                    try {
+                        album.finish( webClient );
+                    }
+                    catch( ServiceForbiddenException ex ) {
+                        throw ex;
+                    }
+                    catch( Exception ex ) {
+                        recordError( ex );
+                        log.warn("Exception finishing album " + album + "... continuing.", ex);
+                    }
+                }
+            });
+        }
+        finally {
+            for( AlbumSync sync : preparedAlbums )
+                sync.close();
+        }
+    }
+
+    private LocalDateTime getOldestDate() {
+        return LocalDateTime.now().plusDays(-1 * settings.getSyncDateRange() );
+    }
+
+    /*
+     * Work out the full list of albums to sync - remote albums, the auto-backup
+     * upload album and any new local folders - sorted newest first.
+     */
+    private List<AlbumSync> getWorkItems(List<AlbumEntry> allRemoteAlbums, File rootFolder, LocalDateTime oldestDate)
+                                        throws IOException, ServiceException {
+
+        List<String> exclusions = readExcludedAlbumsList( rootFolder);
+        List<AlbumSync> workItems = new ArrayList<AlbumSync>();
+
         List<AlbumSync> albums = getRemoteDownloadList(allRemoteAlbums, rootFolder, oldestDate);
 
         // Get the single upload album for AutoBackup uploads
@@ -243,18 +561,11 @@ public class SyncManager {
             workItems.add(autoBackupUpload);
         }
 
-
-        if( syncState.getIsCancelled() )
-            return;
-
         if( settings.getUploadNew() || settings.getUploadChanged() ) {
 
             // We're allowed to do uploads. Look for new folders to upload
             List<File> subFolders = getNewSubFolders( allRemoteAlbums, rootFolder );
 
-            if (syncState.getIsCancelled())
-                return;
-
             // Add new local sub-folders first - which will create a new online album
             for (File newFolder : subFolders) {
 
@@ -270,19 +581,22 @@ public class SyncManager {
 
                 AlbumSync workItem = new AlbumSync(album, newFolder, this, settings);
                 workItems.add(workItem);
-
-                if (syncState.getIsCancelled())
-                    return;
             }
         }
 
         for (AlbumSync album : albums)
         {
             if (settings.getExcludeDropBox() && album.getAlbumName().equals("Drop Box"))
+            {
+                albumSkipped();
                 continue;
+            }
 
             if (exclusions.contains(album.getAlbumName()))
+            {
+                albumSkipped();
                 continue;
+            }
 
             workItems.add(album);
         }
@@ -290,61 +604,79 @@ public class SyncManager {
         // Sort into the newest items, based on local folder date
         sortSyncNewestFirst( workItems );
 
-        log.info("================================================================");
-        // Now, work through the list of actual jobs
-        log.info("Preparing to process " + workItems.size() + " work items...");
-        int failedAlbums = 0;
+        return workItems;
+    }
 
-        for( AlbumSync syncLog : workItems )
-        {
-            if( ! syncLog.getHasAlbum() )
-            {
-                log.warn("Album had no albumEntry - logic error!");
-                continue;
-            }
+    /*
+     * Dry run: work out what a sync would do, and roughly how long it would
+     * take, without changing anything locally or in the cloud.
+     */
+    public SyncPlan planSync() throws IOException, ServiceException {
 
-            log.info(" " + syncLog.getAlbumName() + " (changed locally on " + syncLog.localChangeDate() + ")");
-        }
-        log.info("================================================================");
+        if( ! initWebClient( false ) )
+            return null;
 
-        for ( AlbumSync sync : workItems ) {
+        LocalDateTime oldestDate = getOldestDate();
+        File rootFolder = settings.getPhotoRootFolder();
 
-            //if( ! sync.getAlbumName().equals( "TestAlbum" ) )
-            //    continue;
+        log.info("Planning synchronisation. Max photo age: " + oldestDate );
 
-            try {
-                sync.process( webClient, oldestDate, recycleAlbum );
+        List<AlbumEntry> allRemoteAlbums = webClient.getAlbums(true);
+        log.info(allRemoteAlbums.size() + " albums returned.");
 
-                failedAlbums = 0;
-            }
-            catch( ServiceForbiddenException ex )
-            {
-                invalidateWebClient();
+        prepareRecycleAlbum( allRemoteAlbums );
+        boolean recycleAlbumExists = recycleAlbum.getId() != null;
 
-                if( ! initWebClient( false ) )
-                {
-                    // Reauth didn't work. Fail.
-                    throw ex;
-                }
-            }
-            catch( Exception ex ){
+        List<AlbumSync> workItems = getWorkItems( allRemoteAlbums, rootFolder, oldestDate );
 
-                log.warn("Exception processing album... continuing.", ex);
-                failedAlbums++;
-            }
+        return new SyncPlanner( settings ).plan( webClient, workItems, oldestDate, recycleAlbumExists,
+                                                 lastCompleteSyncMillis( rootFolder ) );
+    }
 
-            if( failedAlbums > 2 )
-            {
-                log.error("More than two sequential albums failed. Aborting sync.");
-                syncState.cancel( true );
-                break;
-            }
+    /*
+     * When the most recent complete sync ended, from the sync history, or 0
+     * if there's no record of one.
+     */
+    private static long lastCompleteSyncMillis( File rootFolder ) {
+        final int HISTORY_TO_SEARCH = 20;
 
-            if( syncState.getIsCancelled() )
-                return;
+        for( SyncReport report : new SyncHistory( rootFolder ).readRecent( HISTORY_TO_SEARCH ) ) {
+            if( SyncReport.COMPLETE.equals( report.getOutcome() ) && report.getEnded() != null )
+                return report.getEnded().atZone( ZoneId.systemDefault() ).toInstant().toEpochMilli();
+        }
+
+        return 0;
+    }
+
+    /*
+     * Fold the throughput measured on this sync into the stored figures
+     * used for plan estimates. Small syncs are ignored as too noisy.
+     */
+    private void recordThroughput() {
+        final long MIN_SAMPLE_BYTES = 10 * 1024 * 1024;
+
+        long upRate = blendRate( settings.getUploadBytesPerSec(), syncState.getBytesUploaded(),
+                                    syncState.getUploadMillis(), MIN_SAMPLE_BYTES );
+        long downRate = blendRate( settings.getDownloadBytesPerSec(), syncState.getBytesDownloaded(),
+                                    syncState.getDownloadMillis(), MIN_SAMPLE_BYTES );
+
+        if( upRate != settings.getUploadBytesPerSec() || downRate != settings.getDownloadBytesPerSec() )
+        {
+            log.info("Measured throughput: " + upRate + " bytes/s up, " + downRate + " bytes/s down.");
+            settings.setMeasuredThroughput( upRate, downRate );
         }
     }
 
+    private static long blendRate( long previous, long bytes, long millis, long minBytes ) {
+        if( bytes < minBytes || millis <= 0 )
+            return previous;
+
+        long measured = ( bytes * 1000 ) / millis;
+
+        // Weight towards history, so one odd sync doesn't swing the estimate
+        return previous == 0 ? measured : ( previous * 3 + measured ) / 4;
+    }
+
     private void prepareRecycleAlbum(List<AlbumEntry> allRemoteAlbums) throws IOException, ServiceException
     {
         for( AlbumEntry album : allRemoteAlbums )
@@ -368,13 +700,20 @@ public class SyncManager {
             // Get all of the unique IDs of the photos in the Recycle Bin
             // so we can skip any we see if another client tries to upload
             // from another PC.
-            List<PhotoEntry> photos = webClient.getPhotos( recycleAlbum );
-
-            for( PhotoEntry photo : photos )
+            // Only the identifiers are needed, so stream the records rather
+            // than materialising the whole Recycle Bin as PhotoEntry objects.
+            webClient.streamPhotos( recycleAlbum, new FeedParser.Listener()
             {
-                // Enough date to uniquely identify a photo
-                deletedPhotos.add( new UniquePhoto( photo ).getUniqueIdentifier() );
-            }
+                public void onPhoto( RemotePhoto photo )
+                {
+                    // Enough date to uniquely identify a photo
+                    deletedPhotos.add( new UniquePhoto( photo ).getUniqueIdentifier() );
+                }
+
+                public void onAlbum( RemoteAlbum album )
+                {
+                }
+            });
 
         }
     }
@@ -387,22 +726,36 @@ public class SyncManager {
         reason. That way, we don't actually delete anything.
      */
     public void recyclePhoto( ImageSync image ) throws IOException, ServiceException
+    {
+        long start = System.nanoTime();
+
+        try
+        {
+            recycle( image );
+        }
+        finally
+        {
+            MetricsRegistry.record( Phase.recycle, start );
+        }
+    }
+
+    private void recycle( ImageSync image ) throws IOException, ServiceException
     {
         // Check that the album exists, create it and save if it doesn't.
         recycleAlbum = webClient.prepareRemoteAlbum( recycleAlbum );
 
         if( recycleAlbum != null )
         {
-            PhotoEntry photo = image.getRemotePhoto();
+            RemotePhoto photo = image.getRemotePhoto();
 
             try
             {
-                log.info("Moving image " + image.getLocalFile() + " to trash...");
+                LogSF.info(log, "Moving image {} to trash...", image.getLocalFile());
                 FileUtilities.moveToTrash(image.getLocalFile());
 
                 if (photo != null)
                 {
-                    log.info("Moving image " + image.getLocalFile() + " to Recycle Bin album...");
+                    LogSF.info(log, "Moving image {} to Recycle Bin album...", image.getLocalFile());
 
                     if( recycleAlbum.getPhotosLeft() == 0 )
                     {
@@ -413,6 +766,8 @@ public class SyncManager {
                     webClient.movePhoto(photo, recycleAlbum);
                     deletedPhotos.add( new UniquePhoto(photo).getUniqueIdentifier() );
                 }
+
+                MetricsRegistry.counter(MetricsRegistry.PHOTOS_RECYCLED).increment();
             }
             catch( Exception ex )
             {
@@ -450,6 +805,9 @@ public class SyncManager {
 
         log.info("Initialising Web client and authenticating...");
 
+        if( webClient == null && fixedWebClient != null )
+            webClient = fixedWebClient;
+
         if( webClient == null ) {
 
             try {
@@ -498,18 +856,21 @@ public class SyncManager {
 
             if( oldestDate.isAfter( getTimeFromMS( album.getUpdated().getValue() ) ) ) {
                 log.debug("Album update date (" + album.getUpdated() + ") too old. Skipping " + title);
+                albumSkipped();
                 continue;
             }
 
             if (!settings.getAutoBackupDownload() && isInstantUploadType)
             {
                 log.info("Skipping Auto-Backup album: " + title);
+                albumSkipped();
                 continue;
             }
 
             if( settings.getExcludeDropBox() && title.equals("Drop Box") )
             {
                 log.info("Skipping DropBox album.");
+                albumSkipped();
                 continue;
             }
 
@@ -518,6 +879,7 @@ public class SyncManager {
             if (uniqueNames.contains(title) )
             {
                 log.info(" Duplicate online album: " + title + " (" + album.getName() + ") - skipping...");
+                albumSkipped();
                 continue;
             }
 
@@ -533,7 +895,10 @@ public class SyncManager {
             }
 
             if( ! isInstantUploadType && ! nonInstantUploadAlbums )
+            {
+                albumSkipped();
                 continue;
+            }
 
             result.add(new AlbumSync(album, albumFolder, this, settings ));
         }
@@ -572,7 +937,8 @@ public class SyncManager {
                 if (file.isDirectory() && !file.isHidden())
                 {
                     if (!albumNameLookup.contains(file.getName()) &&
-                            !file.getName().equals(PicasawebClient.AUTO_BACKUP_FOLDER))
+                            !file.getName().equals(PicasawebClient.AUTO_BACKUP_FOLDER) &&
+                            !file.getName().equals(FileUtilities.APP_FOLDER_NAME))
                     {
                         return true;
                     }
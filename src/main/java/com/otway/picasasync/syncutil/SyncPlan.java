@@ -0,0 +1,208 @@
+/*
+    Copyright 2016 Mark Otway
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.otway.picasasync.syncutil;
+
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * What a sync would do, worked out without doing any of it: per-album
+ * transfer counts and byte totals, the albums that would be created, and
+ * the photos that would be moved to the Recycle Bin. The ETA comes from
+ * the throughput measured on previous syncs.
+ */
+public class SyncPlan
+{
+    /**
+     * The planned work for a single album.
+     */
+    public static class AlbumPlan
+    {
+        private final String name;
+        private final boolean createsAlbum;
+        private int uploads;
+        private int downloads;
+        private int deletes;
+        private int recycleMoves;
+        private int unchanged;
+        private long bytesUp;
+        private long bytesDown;
+
+        public AlbumPlan( String name, boolean createsAlbum )
+        {
+            this.name = name;
+            this.createsAlbum = createsAlbum;
+        }
+
+        public void add( ImageSync image, ImageSync.UpdateAction action )
+        {
+            switch( action )
+            {
+                case upload:
+                    uploads++;
+                    bytesUp += image.getLocalFile().length();
+                    break;
+                case download:
+                    downloads++;
+                    bytesDown += image.getRemotePhoto().getSize();
+                    break;
+                case delete:
+                    deletes++;
+                    if( image.getRemotePhoto() != null )
+                        recycleMoves++;
+                    break;
+                default:
+                    unchanged++;
+            }
+        }
+
+        /**
+         * Counts photos known to be unchanged without diffing them.
+         */
+        public void addUnchanged( int count )
+        {
+            unchanged += count;
+        }
+
+        public String getName() { return name; }
+        // A new album is only actually created if there's something to put in it
+        public boolean getCreatesAlbum() { return createsAlbum && uploads > 0; }
+        public int getUploads() { return uploads; }
+        public int getDownloads() { return downloads; }
+        public int getDeletes() { return deletes; }
+        public int getRecycleMoves() { return recycleMoves; }
+        public int getUnchanged() { return unchanged; }
+        public long getBytesUp() { return bytesUp; }
+        public long getBytesDown() { return bytesDown; }
+
+        public boolean hasWork() { return uploads + downloads + deletes > 0; }
+    }
+
+    private final List<AlbumPlan> albums = new ArrayList<AlbumPlan>();
+    private final List<String> failedAlbums = new ArrayList<String>();
+    private final boolean recycleAlbumExists;
+    private final long uploadBytesPerSec;
+    private final long downloadBytesPerSec;
+
+    public SyncPlan( boolean recycleAlbumExists, long uploadBytesPerSec, long downloadBytesPerSec )
+    {
+        this.recycleAlbumExists = recycleAlbumExists;
+        this.uploadBytesPerSec = uploadBytesPerSec;
+        this.downloadBytesPerSec = downloadBytesPerSec;
+    }
+
+    public void addAlbum( AlbumPlan album ) { albums.add( album ); }
+    public void addFailedAlbum( String name ) { failedAlbums.add( name ); }
+
+    public List<AlbumPlan> getAlbums() { return Collections.unmodifiableList( albums ); }
+    public List<String> getFailedAlbums() { return Collections.unmodifiableList( failedAlbums ); }
+
+    public int getUploads() { int total = 0; for( AlbumPlan a : albums ) total += a.getUploads(); return total; }
+    public int getDownloads() { int total = 0; for( AlbumPlan a : albums ) total += a.getDownloads(); return total; }
+    public int getDeletes() { int total = 0; for( AlbumPlan a : albums ) total += a.getDeletes(); return total; }
+    public int getRecycleMoves() { int total = 0; for( AlbumPlan a : albums ) total += a.getRecycleMoves(); return total; }
+    public long getBytesUp() { long total = 0; for( AlbumPlan a : albums ) total += a.getBytesUp(); return total; }
+    public long getBytesDown() { long total = 0; for( AlbumPlan a : albums ) total += a.getBytesDown(); return total; }
+
+    public int getAlbumCreations()
+    {
+        int total = 0;
+        for( AlbumPlan a : albums )
+            if( a.getCreatesAlbum() )
+                total++;
+
+        // The Recycle Bin is created on first use
+        if( ! recycleAlbumExists && getRecycleMoves() > 0 )
+            total++;
+
+        return total;
+    }
+
+    /**
+     * Estimated time in seconds, or -1 if no throughput has been measured
+     * yet for a direction with work in it. Uploads and downloads run one
+     * after the other, so the two simply add up.
+     */
+    public long getEstimatedSeconds()
+    {
+        long up = getBytesUp();
+        long down = getBytesDown();
+
+        if( ( up > 0 && uploadBytesPerSec <= 0 ) || ( down > 0 && downloadBytesPerSec <= 0 ) )
+            return -1;
+
+        long seconds = 0;
+        if( up > 0 )
+            seconds += up / uploadBytesPerSec;
+        if( down > 0 )
+            seconds += down / downloadBytesPerSec;
+        return seconds;
+    }
+
+    public String format( File rootFolder )
+    {
+        StringBuilder sb = new StringBuilder();
+
+        sb.append( String.format( "Sync plan for %s%n", rootFolder ) );
+        sb.append( String.format( "%-40s %8s %10s %8s %10s %8s%n", "Album", "Upload", "Bytes", "Download", "Bytes", "Recycle" ) );
+
+        for( AlbumPlan a : albums )
+        {
+            if( ! a.hasWork() )
+                continue;
+
+            String name = a.getCreatesAlbum() ? a.getName() + " (new)" : a.getName();
+            sb.append( String.format( "%-40s %8d %10s %8d %10s %8d%n", name,
+                                        a.getUploads(), FileUtils.byteCountToDisplaySize( a.getBytesUp() ),
+                                        a.getDownloads(), FileUtils.byteCountToDisplaySize( a.getBytesDown() ),
+                                        a.getDeletes() ) );
+        }
+
+        sb.append( String.format( "%n%d albums checked, %d with work, %d to be created.%n", albums.size(),
+                                    countAlbumsWithWork(), getAlbumCreations() ) );
+        sb.append( String.format( "%d uploads (%s), %d downloads (%s), %d deletions (%d moved to Recycle Bin).%n",
+                                    getUploads(), FileUtils.byteCountToDisplaySize( getBytesUp() ),
+                                    getDownloads(), FileUtils.byteCountToDisplaySize( getBytesDown() ),
+                                    getDeletes(), getRecycleMoves() ) );
+
+        long eta = getEstimatedSeconds();
+        if( eta >= 0 )
+            sb.append( String.format( "Estimated time: %dh %02dm (at %s/s up, %s/s down).%n", eta / 3600, ( eta / 60 ) % 60,
+                                        FileUtils.byteCountToDisplaySize( uploadBytesPerSec ),
+                                        FileUtils.byteCountToDisplaySize( downloadBytesPerSec ) ) );
+        else
+            sb.append( String.format( "Estimated time: unknown - no transfer throughput has been measured yet.%n" ) );
+
+        if( ! failedAlbums.isEmpty() )
+            sb.append( String.format( "Could not plan %d albums: %s%n", failedAlbums.size(), failedAlbums ) );
+
+        return sb.toString();
+    }
+
+    private int countAlbumsWithWork()
+    {
+        int total = 0;
+        for( AlbumPlan a : albums )
+            if( a.hasWork() )
+                total++;
+        return total;
+    }
+}
@@ -0,0 +1,88 @@
+/*
+    Copyright 2016 Mark Otway
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.otway.picasasync.syncutil;
+
+import com.otway.picasasync.config.Settings;
+import com.otway.picasasync.webclient.PicasawebClient;
+import org.apache.log4j.Logger;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * Builds a SyncPlan by running the same album diff as a real sync over
+ * each work item, but only counting what it would do. Nothing is uploaded,
+ * downloaded, created or moved, and the sync state isn't touched.
+ *
+ * Diffing an album means fetching its whole feed, as a sync does. Albums
+ * that the local index shows are unchanged since the last complete sync
+ * are counted from disk instead, so only albums that may have changed cost
+ * a round trip. That's an estimate: it won't see a remote photo edited in
+ * place if Picasa didn't update the album.
+ */
+public class SyncPlanner
+{
+    private static final Logger log = Logger.getLogger(SyncPlanner.class);
+
+    private final Settings settings;
+
+    public SyncPlanner( Settings settings )
+    {
+        this.settings = settings;
+    }
+
+    /**
+     * lastSyncMillis is when the last complete sync ended, or 0 if there
+     * hasn't been one, in which case every album's feed is fetched.
+     */
+    public SyncPlan plan( PicasawebClient webClient, List<AlbumSync> workItems, LocalDateTime oldestDate,
+                          boolean recycleAlbumExists, long lastSyncMillis )
+    {
+        SyncPlan plan = new SyncPlan( recycleAlbumExists, settings.getUploadBytesPerSec(),
+                                        settings.getDownloadBytesPerSec() );
+
+        log.info("Planning sync for " + workItems.size() + " work items...");
+        int fromIndex = 0;
+
+        for( AlbumSync sync : workItems )
+        {
+            if( ! sync.getHasAlbum() )
+                continue;
+
+            try
+            {
+                SyncPlan.AlbumPlan albumPlan = lastSyncMillis > 0 ? sync.planFromIndex( lastSyncMillis ) : null;
+
+                if( albumPlan != null )
+                    fromIndex++;
+                else
+                    albumPlan = sync.plan( webClient, oldestDate );
+
+                plan.addAlbum( albumPlan );
+            }
+            catch( Exception ex )
+            {
+                log.warn("Unable to plan album " + sync + "... continuing.", ex);
+                plan.addFailedAlbum( sync.toString() );
+            }
+        }
+
+        log.info(fromIndex + " albums planned from the local index without fetching their feeds.");
+
+        return plan;
+    }
+}
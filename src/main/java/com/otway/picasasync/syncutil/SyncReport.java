@@ -0,0 +1,201 @@
+/*
+    Copyright 2016 Mark Otway
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+
+package com.otway.picasasync.syncutil;
+
+import com.fasterxml.jackson.annotation.JsonAutoDetect;
+import com.fasterxml.jackson.annotation.JsonAutoDetect.Visibility;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+
+/**
+ * What happened on one sync run: when, how much was moved and how fast,
+ * what went wrong and which albums took the longest. Written to the sync
+ * history as a line of JSON, so runs can be compared over time.
+ */
+@JsonAutoDetect( fieldVisibility = Visibility.ANY, getterVisibility = Visibility.NONE,
+                 isGetterVisibility = Visibility.NONE )
+public class SyncReport
+{
+    public static final String COMPLETE = "complete";
+    public static final String CANCELLED = "cancelled";
+    public static final String FAILED = "failed";
+
+    private static final int SLOWEST_ALBUMS = 10;
+    private static final double BYTES_PER_MB = 1024 * 1024;
+    private static final DateTimeFormatter SUMMARY_FORMAT = DateTimeFormatter.ofPattern( "d MMM HH:mm" );
+
+    /**
+     * Time spent working on one album, not counting other albums' transfers
+     * interleaved with its own.
+     */
+    @JsonAutoDetect( fieldVisibility = Visibility.ANY, getterVisibility = Visibility.NONE,
+                     isGetterVisibility = Visibility.NONE )
+    public static class AlbumTime
+    {
+        private String album;
+        private double seconds;
+        private int uploaded;
+        private int downloaded;
+        private int failed;
+
+        private AlbumTime()
+        {
+        }
+
+        private AlbumTime( String album, double seconds, int uploaded, int downloaded, int failed )
+        {
+            this.album = album;
+            this.seconds = seconds;
+            this.uploaded = uploaded;
+            this.downloaded = downloaded;
+            this.failed = failed;
+        }
+
+        public String getAlbum() { return album; }
+        public double getSeconds() { return seconds; }
+        public int getUploaded() { return uploaded; }
+        public int getDownloaded() { return downloaded; }
+        public int getFailed() { return failed; }
+    }
+
+    private static final Comparator<AlbumTime> SLOWEST_FIRST = new Comparator<AlbumTime>()
+    {
+        public int compare( AlbumTime x, AlbumTime y )
+        {
+            return Double.compare( y.seconds, x.seconds );
+        }
+    };
+
+    private String started;
+    private String ended;
+    private double durationSecs;
+    private String outcome;
+    private String status;
+    private int albumsVisited;
+    private int albumsSkipped;
+    private int filesDownloaded;
+    private int filesUploaded;
+    private int filesFailed;
+    private long bytesDownloaded;
+    private long bytesUploaded;
+    private double downloadMBps;
+    private double uploadMBps;
+    private double effectiveMBps;
+    private Map<String, Integer> errors = new TreeMap<String, Integer>();
+    private List<AlbumTime> slowestAlbums = new ArrayList<AlbumTime>();
+
+    @JsonIgnore
+    private LocalDateTime startTime;
+
+    // For Jackson
+    private SyncReport()
+    {
+    }
+
+    public static SyncReport begin()
+    {
+        SyncReport report = new SyncReport();
+        report.startTime = LocalDateTime.now();
+        report.started = report.startTime.toString();
+        return report;
+    }
+
+    public void albumSkipped()
+    {
+        albumsSkipped++;
+    }
+
+    public void albumVisited( String album, long busyNanos, int uploaded, int downloaded, int failed )
+    {
+        albumsVisited++;
+
+        slowestAlbums.add( new AlbumTime( album, busyNanos / 1e9, uploaded, downloaded, failed ) );
+        Collections.sort( slowestAlbums, SLOWEST_FIRST );
+
+        if( slowestAlbums.size() > SLOWEST_ALBUMS )
+            slowestAlbums.remove( SLOWEST_ALBUMS );
+    }
+
+    /**
+     * Counts an error by kind, e.g. a failed download or an exception class.
+     */
+    public void addError( String kind )
+    {
+        Integer count = errors.get( kind );
+        errors.put( kind, count == null ? 1 : count + 1 );
+    }
+
+    /**
+     * Completes the report with the run's totals.
+     */
+    public void end( SyncState state, String outcome )
+    {
+        LocalDateTime endTime = LocalDateTime.now();
+
+        this.ended = endTime.toString();
+        this.durationSecs = Duration.between( startTime, endTime ).toMillis() / 1000.0;
+        this.outcome = outcome;
+        this.status = state.getStatus();
+
+        filesDownloaded = state.getTotalDownloaded();
+        filesUploaded = state.getTotalUploaded();
+        filesFailed = state.getTotalFailed();
+        bytesDownloaded = state.getBytesDownloaded();
+        bytesUploaded = state.getBytesUploaded();
+
+        downloadMBps = rate( bytesDownloaded, state.getDownloadMillis() / 1000.0 );
+        uploadMBps = rate( bytesUploaded, state.getUploadMillis() / 1000.0 );
+        effectiveMBps = rate( bytesDownloaded + bytesUploaded, durationSecs );
+    }
+
+    private static double rate( long bytes, double seconds )
+    {
+        return seconds > 0 ? bytes / BYTES_PER_MB / seconds : 0;
+    }
+
+    public LocalDateTime getStarted() { return LocalDateTime.parse( started ); }
+    public LocalDateTime getEnded() { return ended != null ? LocalDateTime.parse( ended ) : null; }
+    public String getOutcome() { return outcome; }
+    public double getDurationSecs() { return durationSecs; }
+    public int getAlbumsVisited() { return albumsVisited; }
+    public int getAlbumsSkipped() { return albumsSkipped; }
+    public int getFilesDownloaded() { return filesDownloaded; }
+    public int getFilesUploaded() { return filesUploaded; }
+    public int getFilesFailed() { return filesFailed; }
+    public long getBytesDownloaded() { return bytesDownloaded; }
+    public long getBytesUploaded() { return bytesUploaded; }
+    public double getEffectiveMBps() { return effectiveMBps; }
+    public Map<String, Integer> getErrors() { return Collections.unmodifiableMap( errors ); }
+    public List<AlbumTime> getSlowestAlbums() { return Collections.unmodifiableList( slowestAlbums ); }
+
+    /**
+     * One line describing the run, for the tray menu.
+     */
+    public String getSummary()
+    {
+        String summary = String.format( "%s: %d down, %d up, %d failed (%.0fs, %.1f MB/s)",
+                getStarted().format( SUMMARY_FORMAT ), filesDownloaded, filesUploaded, filesFailed,
+                durationSecs, effectiveMBps );
+
+        return COMPLETE.equals( outcome ) ? summary : summary + " - " + outcome;
+    }
+}
@@ -16,98 +16,308 @@
 
 package com.otway.picasasync.syncutil;
 
-import com.otway.picasasync.ui.SyncTrayIcon;
-
-import javax.swing.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
- * Synchronised object used to marshal updates and status
- * between the worker thread and the dispatcher thread
+ * Object used to marshal updates and status between the worker threads
+ * and the dispatcher thread.
+ *
+ * Updates never touch the GUI: they just flag that something has changed,
+ * and the GUI polls for a snapshot at its own pace. However many files a
+ * sync gets through, the dispatcher thread does the same small amount of
+ * work.
+ *
+ * Nothing here takes a lock, short of waiting out a pause. The cancel
+ * flag is checked after every transfer and the counters are bumped for
+ * every file, by however many threads are transferring, so flags are
+ * volatile and counters are LongAdders. A snapshot taken mid-update may
+ * be a count or two out, but the next one will catch up.
  */
 public class SyncState {
 
-    private final Object lock = new Object();
+    /**
+     * An immutable copy of one lane's (uploads' or downloads') counts.
+     */
+    public static class LaneSnapshot {
+        private final long files;
+        private final long bytes;
+        private final long millis;
+        private final long inFlight;
+        private final long queued;
+
+        private LaneSnapshot( Lane lane ) {
+            this.files = lane.files.sum();
+            this.bytes = lane.bytes.sum();
+            this.millis = lane.millis.sum();
+            this.inFlight = lane.inFlight.sum();
+            this.queued = lane.queued.sum();
+        }
 
-    private boolean cancelled;
-    private String lastStatus;
-    private boolean syncInProgress;
-    private SyncTrayIcon trayIcon;
-    private int totalDownloaded;
-    private int totalUploaded;
-    private int totalFailed;
+        public long getFiles() { return files; }
+        public long getBytes() { return bytes; }
+        public long getMillis() { return millis; }
+        public long getInFlight() { return inFlight; }
+        public long getQueued() { return queued; }
 
-    public void setTrayIcon( SyncTrayIcon trayIcon ){
-        this.trayIcon = trayIcon;
-    }
+        public boolean isBusy() { return inFlight > 0 || queued > 0; }
 
-    public boolean getIsInProgress() {
-        synchronized ( lock ){
-            return syncInProgress;
+        /**
+         * Rough time left for this lane's queued and in-flight transfers, at
+         * the average rate so far, or -1 if nothing has finished yet.
+         */
+        public long getRemainingMillis() {
+            if( files == 0 )
+                return -1;
+
+            return ( queued + inFlight ) * millis / files;
         }
     }
 
-    public void addStats( int downloaded, int uploaded, int failed )
-    {
-        synchronized( lock ){
-            totalDownloaded += downloaded;
-            totalUploaded += uploaded;
-            totalFailed += failed;
+    /**
+     * An immutable copy of the state, for the GUI to display.
+     */
+    public static class Snapshot {
+        private final String status;
+        private final boolean inProgress;
+        private final boolean errorState;
+        private final boolean paused;
+        private final long failed;
+        private final int endedCount;
+        private final LaneSnapshot uploads;
+        private final LaneSnapshot downloads;
+
+        private Snapshot( SyncState state ) {
+            this.status = state.lastStatus;
+            this.inProgress = state.syncInProgress;
+            this.errorState = state.errorState;
+            this.paused = state.paused;
+            this.failed = state.totalFailed.sum();
+            this.endedCount = state.endedCount.get();
+            this.uploads = new LaneSnapshot( state.uploads );
+            this.downloads = new LaneSnapshot( state.downloads );
         }
-    }
-    public boolean getIsCancelled() {
-        synchronized ( lock ){
-            return cancelled;
+
+        public String getStatus() { return status; }
+        public boolean isInProgress() { return inProgress; }
+        public boolean isErrorState() { return errorState; }
+        public boolean isPaused() { return paused; }
+        public long getFailed() { return failed; }
+        public LaneSnapshot getUploads() { return uploads; }
+        public LaneSnapshot getDownloads() { return downloads; }
+
+        /**
+         * How many times a sync has ended (or been cancelled), so the GUI can
+         * spot a sync that started and ended between polls.
+         */
+        public int getEndedCount() { return endedCount; }
+
+        public String getStats() {
+            String stats = String.format( "%d downloaded, %d uploaded, %d failed",
+                                          downloads.getFiles(), uploads.getFiles(), failed );
+
+            if( inProgress && ( downloads.isBusy() || uploads.isBusy() ) )
+                stats += String.format( " (%d/%d down, %d/%d up in flight/queued)",
+                                        downloads.getInFlight(), downloads.getQueued(),
+                                        uploads.getInFlight(), uploads.getQueued() );
+
+            return stats;
         }
     }
 
-    public void setStatus( String msg ){
-        synchronized ( lock ){
-            lastStatus = msg;
+    /*
+     * Counters for one direction of transfer.
+     */
+    private static class Lane {
+        private final LongAdder files = new LongAdder();
+        private final LongAdder bytes = new LongAdder();
+        private final LongAdder millis = new LongAdder();
+        private final LongAdder inFlight = new LongAdder();
+        private final LongAdder queued = new LongAdder();
+
+        private void reset() {
+            files.reset();
+            bytes.reset();
+            millis.reset();
+            inFlight.reset();
+            queued.reset();
         }
+    }
+
+    private final AtomicBoolean changed = new AtomicBoolean( false );
+    private final AtomicInteger endedCount = new AtomicInteger();
+    private final Lane uploads = new Lane();
+    private final Lane downloads = new Lane();
+    private final LongAdder totalFailed = new LongAdder();
+    private final Object pauseLock = new Object();
 
-        updateGUIStatus( false );
+    private volatile boolean cancelled;
+    private volatile String lastStatus;
+    private volatile boolean syncInProgress;
+    private volatile boolean errorState;
+    private volatile boolean paused;
+
+    /*
+     * Only write the flag if the GUI has taken the last change, so
+     * transfer threads aren't all writing to the same cache line.
+     */
+    private void markChanged() {
+        if( ! changed.get() )
+            changed.set( true );
     }
 
-    public void start() {
-        synchronized (lock ){
-            totalDownloaded = 0;
-            totalUploaded = 0;
-            totalFailed = 0;
-            cancelled = false;
-            syncInProgress = true;
+    private Lane lane( boolean upload ) {
+        return upload ? uploads : downloads;
+    }
+
+    public boolean getIsInProgress() { return syncInProgress; }
+    public boolean getIsCancelled() { return cancelled; }
+    public boolean getIsPaused() { return paused; }
+
+    /*
+     * Pausing holds transfers at the next file; cancelling releases them.
+     */
+    public void setPaused( boolean paused ) {
+        synchronized( pauseLock ) {
+            this.paused = paused;
+            pauseLock.notifyAll();
         }
 
-        updateGUIStatus( false );
+        markChanged();
     }
 
-    public void cancel( boolean withError ){
-        synchronized ( lock ){
-            cancelled = true;
-            syncInProgress = false;
+    /**
+     * Blocks the calling thread while the sync is paused, until it's
+     * resumed or cancelled.
+     */
+    public void waitWhilePaused() {
+        if( ! paused )
+            return;
+
+        synchronized( pauseLock ) {
+            while( paused && ! cancelled ) {
+                try {
+                    pauseLock.wait();
+                }
+                catch( InterruptedException ex ) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
         }
+    }
+
+    public void addStats( int downloaded, int uploaded, int failed )
+    {
+        downloads.files.add( downloaded );
+        uploads.files.add( uploaded );
+        totalFailed.add( failed );
 
-        updateGUIStatus( withError );
+        markChanged();
     }
 
-    private void updateGUIStatus( final boolean errorState ){
+    /*
+     * Record a completed transfer, so we can measure throughput.
+     */
+    public void addTransfer( boolean upload, long bytes, long millis )
+    {
+        Lane lane = lane( upload );
+        lane.bytes.add( bytes );
+        lane.millis.add( millis );
+    }
 
-        if( trayIcon != null ) {
+    /*
+     * Track transfers through their lane: queued by the diff, then in
+     * flight until they finish (successfully or not).
+     */
+    public void addQueued( boolean upload, int count )
+    {
+        lane( upload ).queued.add( count );
+        markChanged();
+    }
 
-            final String msg;
-            final String stats;
-            final boolean inProgress;
+    public void transferStarted( boolean upload )
+    {
+        Lane lane = lane( upload );
+        lane.queued.decrement();
+        lane.inFlight.increment();
+    }
 
-            synchronized (lock) {
-                msg = this.lastStatus;
-                inProgress = this.syncInProgress;
-                stats = String.format( "%d downloaded, %d uploaded, %d failed", this.totalDownloaded, this.totalUploaded, this.totalFailed);
-            }
+    public void transferEnded( boolean upload )
+    {
+        lane( upload ).inFlight.decrement();
+        markChanged();
+    }
 
-            SwingUtilities.invokeLater(new Runnable() {
-                public void run() {
-                    trayIcon.setStatus(msg, stats, inProgress, errorState);
-                }
-            });
+    /*
+     * Anything still queued once the scheduler stops was abandoned.
+     */
+    public void clearQueued()
+    {
+        uploads.queued.reset();
+        downloads.queued.reset();
+        markChanged();
+    }
+
+    public long getBytesUploaded() { return uploads.bytes.sum(); }
+    public long getUploadMillis() { return uploads.millis.sum(); }
+    public long getBytesDownloaded() { return downloads.bytes.sum(); }
+    public long getDownloadMillis() { return downloads.millis.sum(); }
+
+    public String getStatus() { return lastStatus; }
+    public int getTotalDownloaded() { return downloads.files.intValue(); }
+    public int getTotalUploaded() { return uploads.files.intValue(); }
+    public int getTotalFailed() { return totalFailed.intValue(); }
+
+    public void setStatus( String msg ){
+        lastStatus = msg;
+        markChanged();
+    }
+
+    /*
+     * Called before any transfer threads start, so the resets can't race
+     * with updates.
+     */
+    public void start() {
+        uploads.reset();
+        downloads.reset();
+        totalFailed.reset();
+        errorState = false;
+        cancelled = false;
+        syncInProgress = true;
+
+        markChanged();
+    }
+
+    public void cancel( boolean withError ){
+        errorState = withError;
+        syncInProgress = false;
+        cancelled = true;
+        endedCount.incrementAndGet();
+
+        synchronized( pauseLock ) {
+            pauseLock.notifyAll();
         }
+
+        markChanged();
+    }
+
+    /**
+     * Returns a snapshot of the current state.
+     */
+    public Snapshot snapshot(){
+        return new Snapshot( this );
+    }
+
+    /**
+     * Returns a snapshot of the state if it has changed since the last
+     * call, or null if not. Meant to be polled from the GUI on a timer.
+     */
+    public Snapshot pollChanges(){
+        if( ! changed.getAndSet( false ) )
+            return null;
+
+        return snapshot();
     }
 }
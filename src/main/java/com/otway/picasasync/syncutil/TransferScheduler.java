@@ -0,0 +1,224 @@
+/*
+    Copyright 2016 Mark Otway
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.otway.picasasync.syncutil;
+
+import com.google.gdata.util.ServiceException;
+import com.otway.picasasync.metrics.MetricsRegistry;
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Runs the transfers for all albums in a single global order: newest photo
+ * first, whichever album it's in. Each album's transfers are already sorted
+ * newest first, so this is a merge across albums that only ever holds the
+ * next task of each one.
+ *
+ * So that one album full of new photos can't starve the others, an album
+ * that has had a run of consecutive transfers gives way to the next best
+ * album for one transfer before carrying on.
+ *
+ * An album's transfers may have been spilled to disk, so its iterator is
+ * only opened when it's first needed, and only the most recently used few
+ * keep their files open. The others release them, and pick up from the
+ * same place in each file when their turn comes.
+ */
+public class TransferScheduler
+{
+    public interface Handler
+    {
+        /**
+         * Performs a transfer. Returns false to abandon the rest of the album.
+         */
+        boolean transfer( AlbumSync album, TransferTask task ) throws IOException, ServiceException;
+
+        /**
+         * Called once all of an album's transfers are done (or abandoned).
+         */
+        void albumFinished( AlbumSync album ) throws IOException, ServiceException;
+    }
+
+    private static final Logger log = Logger.getLogger(TransferScheduler.class);
+    private static final int MAX_OPEN_ALBUMS = 8;
+
+    private final int maxConsecutive;
+    private final SyncState syncState;
+    private final List<AlbumSync> albums = new ArrayList<AlbumSync>();
+
+    public TransferScheduler( int maxConsecutive, SyncState syncState )
+    {
+        this.maxConsecutive = maxConsecutive;
+        this.syncState = syncState;
+    }
+
+    public void addAlbum( AlbumSync album )
+    {
+        albums.add( album );
+    }
+
+    public void run( Handler handler ) throws IOException, ServiceException
+    {
+        final List<AlbumSync> idle = new ArrayList<AlbumSync>();
+        final LinkedList<AlbumCursor> open = new LinkedList<AlbumCursor>();
+        final PriorityQueue<AlbumCursor> cursors = new PriorityQueue<AlbumCursor>( Math.max( 1, albums.size() ),
+                new Comparator<AlbumCursor>()
+        {
+            public int compare( AlbumCursor x, AlbumCursor y )
+            {
+                int result = TransferTask.NEWEST_FIRST.compare( x.head, y.head );
+                // Ties go to the album that was queued first (i.e., the newest album)
+                return result != 0 ? result : Integer.compare( x.order, y.order );
+            }
+        });
+
+        try
+        {
+            for( int i = 0; i < albums.size(); i++ )
+            {
+                AlbumSync album = albums.get( i );
+                TransferTask first = album.firstTransfer();
+                if( first != null )
+                    cursors.add( new AlbumCursor( album, i, first ) );
+                else
+                    idle.add( album );
+            }
+
+            log.info("Scheduling transfers for " + cursors.size() + " albums, newest first.");
+
+            // Albums with nothing to transfer only need their finishing work
+            for( AlbumSync album : idle )
+            {
+                if( syncState.getIsCancelled() )
+                    return;
+
+                handler.albumFinished( album );
+            }
+
+            AlbumCursor current = null;
+            int consecutive = 0;
+
+            while( ! cursors.isEmpty() && ! syncState.getIsCancelled() )
+            {
+                if( syncState.getIsPaused() )
+                {
+                    syncState.setStatus("Sync paused.");
+                    syncState.waitWhilePaused();
+                    continue;
+                }
+
+                AlbumCursor next = cursors.poll();
+
+                if( next == current && consecutive >= maxConsecutive && ! cursors.isEmpty() )
+                {
+                    // Give another album a turn
+                    AlbumCursor other = cursors.poll();
+                    cursors.add( next );
+                    next = other;
+                }
+
+                if( next != current )
+                {
+                    current = next;
+                    consecutive = 0;
+                }
+
+                consecutive++;
+
+                open( next, open );
+
+                boolean carryOn = handler.transfer( next.album, next.head );
+
+                if( carryOn && next.advance() )
+                    cursors.add( next );
+                else
+                {
+                    if( ! carryOn )
+                        log.warn("Abandoning remaining transfers for " + next.album);
+
+                    open.remove( next );
+                    handler.albumFinished( next.album );
+                }
+            }
+        }
+        finally
+        {
+            // Whatever is left was abandoned or cancelled
+            MetricsRegistry.gauge( MetricsRegistry.TRANSFER_QUEUE ).set( 0 );
+            syncState.clearQueued();
+
+            for( AlbumSync album : albums )
+                album.close();
+        }
+    }
+
+    /*
+     * Makes sure the cursor's iterator is open, releasing the files of the
+     * least recently used one if that would put too many open.
+     */
+    private void open( AlbumCursor cursor, LinkedList<AlbumCursor> open ) throws IOException
+    {
+        if( open.remove( cursor ) )
+        {
+            open.addLast( cursor );
+            return;
+        }
+
+        if( open.size() >= MAX_OPEN_ALBUMS )
+            open.removeFirst().release();
+
+        cursor.open();
+        open.addLast( cursor );
+    }
+
+    private static class AlbumCursor
+    {
+        private final AlbumSync album;
+        private final int order;
+        private Iterator<TransferTask> tasks;
+        private TransferTask head;
+
+        private AlbumCursor( AlbumSync album, int order, TransferTask first )
+        {
+            this.album = album;
+            this.order = order;
+            // Just for ordering; the real task comes from the iterator once it's open
+            this.head = first;
+        }
+
+        private void open() throws IOException
+        {
+            // A released iterator reopens its files itself as it's read
+            if( tasks == null )
+            {
+                tasks = album.transferIterator();
+                advance();
+            }
+        }
+
+        private void release()
+        {
+            album.releaseTransferIterator();
+        }
+
+        private boolean advance()
+        {
+            head = tasks.hasNext() ? tasks.next() : null;
+            return head != null;
+        }
+    }
+}
@@ -0,0 +1,88 @@
+/*
+    Copyright 2016 Mark Otway
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.otway.picasasync.syncutil;
+
+import com.otway.picasasync.utils.ExternalSorter;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Comparator;
+
+/**
+ * A single upload or download, tagged with the date of the photo so
+ * transfers can be scheduled newest first.
+ */
+public class TransferTask
+{
+    public static final Comparator<TransferTask> NEWEST_FIRST = new Comparator<TransferTask>()
+    {
+        public int compare( TransferTask x, TransferTask y )
+        {
+            return Long.compare( y.photoDate, x.photoDate );
+        }
+    };
+
+    public static final ExternalSorter.Codec<TransferTask> CODEC = new ExternalSorter.Codec<TransferTask>()
+    {
+        public void write( DataOutput out, TransferTask task ) throws IOException
+        {
+            out.writeInt( task.action.ordinal() );
+            out.writeLong( task.photoDate );
+            ImageQueue.writeImage( out, task.image );
+        }
+
+        public TransferTask read( DataInput in ) throws IOException
+        {
+            ImageSync.UpdateAction action = ImageSync.UpdateAction.values()[ in.readInt() ];
+            long photoDate = in.readLong();
+            return new TransferTask( ImageQueue.readImage( in ), action, photoDate );
+        }
+    };
+
+    private final ImageSync image;
+    private final ImageSync.UpdateAction action;
+    private final long photoDate;
+
+    public TransferTask( ImageSync image, ImageSync.UpdateAction action )
+    {
+        this( image, action, photoDateFor( image, action ) );
+    }
+
+    private TransferTask( ImageSync image, ImageSync.UpdateAction action, long photoDate )
+    {
+        this.image = image;
+        this.action = action;
+        this.photoDate = photoDate;
+    }
+
+    public ImageSync getImage() { return image; }
+    public ImageSync.UpdateAction getAction() { return action; }
+    public long getPhotoDate() { return photoDate; }
+    public boolean isUpload() { return action == ImageSync.UpdateAction.upload; }
+
+    // Uploads go by the local file, whose timestamp we keep in line with the date
+    // taken; downloads by the EXIF date taken, or the upload date if there isn't one.
+    private static long photoDateFor( ImageSync image, ImageSync.UpdateAction action )
+    {
+        if( action == ImageSync.UpdateAction.upload || image.getRemotePhoto() == null )
+            return image.getLocalFile().lastModified();
+
+        long exifTime = image.getRemotePhoto().getExifTime();
+        return exifTime > 0 ? exifTime : image.getRemotePhoto().getTimestamp();
+    }
+}
@@ -18,7 +18,10 @@ package com.otway.picasasync.ui;
 
 import com.google.gdata.data.DateTime;
 import com.otway.picasasync.config.Settings;
+import com.otway.picasasync.syncutil.SyncHistory;
 import com.otway.picasasync.syncutil.SyncManager;
+import com.otway.picasasync.syncutil.SyncReport;
+import com.otway.picasasync.syncutil.SyncState;
 import org.apache.log4j.Logger;
 
 import javax.swing.*;
@@ -28,15 +31,21 @@ import java.io.File;
 import java.io.IOException;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.List;
 
 public class SyncTrayIcon {
     private java.awt.TrayIcon trayIcon;
     private static final Logger log = Logger.getLogger(SyncTrayIcon.class);
+    // However fast the sync goes, the tray is never updated more often than this
+    private static final int STATUS_UPDATES_PER_SEC = 4;
     private SyncManager manager;
     private MenuItem syncMenuItem;
     private MenuItem statisticsMenuItem;
     private MenuItem statusMenuItem;
     private MenuItem exportSettingsMenuItem;
+    private Menu historyMenu;
+    private boolean inProgress;
+    private int historyEndedCount;
     private Settings settings;
     private ArrayList<CheckboxMenuItem> ranges = new ArrayList<CheckboxMenuItem>();
 
@@ -55,7 +64,6 @@ public class SyncTrayIcon {
 
         this.settings = settings;
         this.manager = manager;
-        this.manager.getSyncState().setTrayIcon( this );
 
         SystemTray systemTray = SystemTray.getSystemTray();
 
@@ -68,6 +76,7 @@ public class SyncTrayIcon {
 
             systemTray.add(trayIcon);
             setupPopupMenu("Idle");
+            startStatusTimer();
 
         }catch(AWTException awtException){
 
@@ -132,6 +141,10 @@ public class SyncTrayIcon {
         statisticsMenuItem.setEnabled( false );
         trayPopupMenu.add(statisticsMenuItem);
 
+        historyMenu = new Menu( "Recent Syncs" );
+        trayPopupMenu.add(historyMenu);
+        refreshHistory();
+
         trayPopupMenu.addSeparator();
 
         exportSettingsMenuItem = new MenuItem( "Export Settings");
@@ -372,22 +385,70 @@ public class SyncTrayIcon {
         ranges.add( child );
     }
 
+    /*
+     * Lists the most recent syncs from the sync history, newest first.
+     */
+    private void refreshHistory() {
+        final int HISTORY_ITEMS = 10;
+
+        historyMenu.removeAll();
+
+        List<SyncReport> reports = new SyncHistory( settings.getPhotoRootFolder() ).readRecent( HISTORY_ITEMS );
+
+        if( reports.isEmpty() ) {
+            MenuItem noHistory = new MenuItem( "No syncs recorded." );
+            noHistory.setEnabled( false );
+            historyMenu.add( noHistory );
+        }
+
+        for( SyncReport report : reports ) {
+            MenuItem item = new MenuItem( report.getSummary() );
+            item.setEnabled( false );
+            historyMenu.add( item );
+        }
+    }
+
+    /*
+     * Poll the sync state on the dispatcher thread, at a fixed rate, rather
+     * than have the sync thread post every change to us.
+     */
+    private void startStatusTimer() {
+        javax.swing.Timer statusTimer = new javax.swing.Timer( 1000 / STATUS_UPDATES_PER_SEC, new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                SyncState.Snapshot snapshot = manager.getSyncState().pollChanges();
+
+                if( snapshot != null )
+                    showStatus( snapshot );
+                else if( inProgress )
+                    nextFrame();
+            }
+        });
+
+        statusTimer.start();
+    }
+
+    private void showStatus( SyncState.Snapshot snapshot ) {
+
+        if( snapshot.getEndedCount() != historyEndedCount ) {
+            historyEndedCount = snapshot.getEndedCount();
+            refreshHistory();
+        }
+
+        if( snapshot.getStatus() != null )
+            setStatus( snapshot.getStatus(), snapshot.getStats(), snapshot.isInProgress(), snapshot.isErrorState() );
+    }
+
     public void setStatus( String status, String stats, boolean inProgress, boolean errorState ){
 
+        this.inProgress = inProgress;
+
         statusMenuItem.setLabel(status);
         statisticsMenuItem.setLabel( stats );
         syncMenuItem.setLabel(inProgress ? "Cancel Sync" : "Synchronise Now");
         trayIcon.setToolTip( status );
 
-        long timeNow = DateTime.now().getValue();
-
         if( inProgress ) {
-            if( timeNow - lastFrameChange > 500 ){
-                lastFrameChange = timeNow;
-
-                trayIcon.setImage(images[imageId]);
-                imageId = (imageId + 1) % 5;
-            }
+            nextFrame();
         }
         else
         {
@@ -397,4 +458,15 @@ public class SyncTrayIcon {
                 trayIcon.setImage(mainImage);
         }
     }
+
+    private void nextFrame() {
+        long timeNow = DateTime.now().getValue();
+
+        if( timeNow - lastFrameChange > 500 ){
+            lastFrameChange = timeNow;
+
+            trayIcon.setImage(images[imageId]);
+            imageId = (imageId + 1) % 5;
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,416 @@
+/*
+    Copyright 2016 Mark Otway
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.otway.picasasync.utils;
+
+import org.apache.log4j.Logger;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Sorts an arbitrarily large stream of items in bounded memory.
+ *
+ * Items are buffered up to a limit; beyond that, each full buffer is sorted
+ * and spilled to a temporary file as a run, and the runs are k-way merged
+ * back together on iteration. If the limit is never reached nothing touches
+ * the disk and it behaves like an in-memory sort.
+ *
+ * At most MAX_OPEN_RUNS runs are read at once; if there are more, they're
+ * first merged down into fewer, longer runs. An iterator that isn't needed
+ * for a while can release its files, and picks up where it was when it's
+ * next used.
+ */
+public class ExternalSorter<T> implements Closeable
+{
+    /**
+     * Reads and writes an item in a compact binary form.
+     */
+    public interface Codec<T>
+    {
+        void write( DataOutput out, T item ) throws IOException;
+        T read( DataInput in ) throws IOException;
+    }
+
+    private static final Logger log = Logger.getLogger(ExternalSorter.class);
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_OPEN_RUNS = 16;
+
+    private final Comparator<T> comparator;
+    private final Codec<T> codec;
+    private final int maxInMemory;
+    private final List<T> buffer = new ArrayList<T>();
+    private final List<File> runs = new ArrayList<File>();
+    private final List<RunReader> openReaders = new ArrayList<RunReader>();
+    private long count;
+    private T first;
+
+    public ExternalSorter( Comparator<T> comparator, Codec<T> codec, int maxInMemory )
+    {
+        this.comparator = comparator;
+        this.codec = codec;
+        this.maxInMemory = Math.max( 1, maxInMemory );
+    }
+
+    public long size() { return count; }
+    public int inMemory() { return buffer.size(); }
+    public boolean hasSpilled() { return ! runs.isEmpty(); }
+
+    /**
+     * The first item in sorted order, without reading anything back from
+     * disk, or null if there are none.
+     */
+    public T first() { return first; }
+
+    public void add( T item ) throws IOException
+    {
+        buffer.add( item );
+        count++;
+
+        if( first == null || comparator.compare( item, first ) < 0 )
+            first = item;
+
+        if( buffer.size() >= maxInMemory )
+            spillRun();
+    }
+
+    /**
+     * Writes any buffered items out to disk now, freeing the memory.
+     */
+    public void spill() throws IOException
+    {
+        if( ! buffer.isEmpty() )
+            spillRun();
+    }
+
+    /**
+     * Returns the items in sorted order. Calling it again starts again from
+     * the beginning, and closes the files of the previous iterator.
+     */
+    public Iterator<T> sortedIterator() throws IOException
+    {
+        if( runs.isEmpty() )
+        {
+            Collections.sort( buffer, comparator );
+            return buffer.iterator();
+        }
+
+        if( ! buffer.isEmpty() )
+            spillRun();
+
+        closeReaders();
+
+        while( runs.size() > MAX_OPEN_RUNS )
+            mergeRuns();
+
+        log.debug("Merging " + runs.size() + " sorted runs of " + count + " items from disk.");
+
+        return merge( runs );
+    }
+
+    /**
+     * Closes the files of the current iterator, to free them up while it's
+     * not needed. It carries on from the same place when next used, each
+     * run reopening at the position it had reached.
+     */
+    public void releaseFiles()
+    {
+        for( RunReader reader : openReaders )
+            reader.suspend();
+    }
+
+    private void closeReaders()
+    {
+        for( RunReader reader : openReaders )
+            reader.suspend();
+
+        openReaders.clear();
+    }
+
+    /*
+     * One pass of merging groups of runs into single longer runs.
+     */
+    private void mergeRuns() throws IOException
+    {
+        log.info("Merging " + runs.size() + " sorted runs of " + count + " items on disk.");
+
+        List<File> merged = new ArrayList<File>();
+
+        for( int start = 0; start < runs.size(); start += MAX_OPEN_RUNS )
+        {
+            List<File> group = runs.subList( start, Math.min( start + MAX_OPEN_RUNS, runs.size() ) );
+            int groupCount = 0;
+
+            for( File run : group )
+                groupCount += readCount( run );
+
+            File run = File.createTempFile( "picasync", ".run" );
+            merged.add( run );
+
+            DataOutputStream out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( run ), BUFFER_SIZE ) );
+
+            try
+            {
+                out.writeInt( groupCount );
+
+                Iterator<T> items = merge( group );
+                while( items.hasNext() )
+                    codec.write( out, items.next() );
+            }
+            catch( UncheckedIOException ex )
+            {
+                throw ex.getCause();
+            }
+            finally
+            {
+                out.close();
+                closeReaders();
+            }
+        }
+
+        for( File run : runs )
+        {
+            if( ! run.delete() )
+                log.warn("Unable to delete temporary run file " + run);
+        }
+
+        runs.clear();
+        runs.addAll( merged );
+    }
+
+    private static int readCount( File run ) throws IOException
+    {
+        DataInputStream in = new DataInputStream( new FileInputStream( run ) );
+
+        try
+        {
+            return in.readInt();
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    private Iterator<T> merge( List<File> mergeRuns ) throws IOException
+    {
+        final PriorityQueue<RunReader> heads = new PriorityQueue<RunReader>( mergeRuns.size(), new Comparator<RunReader>()
+        {
+            public int compare( RunReader x, RunReader y )
+            {
+                return comparator.compare( x.head, y.head );
+            }
+        });
+
+        for( File run : mergeRuns )
+        {
+            RunReader reader = new RunReader( run );
+            openReaders.add( reader );
+            if( reader.advance() )
+                heads.add( reader );
+        }
+
+        return new Iterator<T>()
+        {
+            public boolean hasNext()
+            {
+                return ! heads.isEmpty();
+            }
+
+            public T next()
+            {
+                if( heads.isEmpty() )
+                    throw new NoSuchElementException();
+
+                RunReader reader = heads.poll();
+                T item = reader.head;
+
+                try
+                {
+                    if( reader.advance() )
+                        heads.add( reader );
+                }
+                catch( IOException ex )
+                {
+                    throw new UncheckedIOException( ex );
+                }
+
+                return item;
+            }
+
+            public void remove()
+            {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    private void spillRun() throws IOException
+    {
+        Collections.sort( buffer, comparator );
+
+        File run = File.createTempFile( "picasync", ".run" );
+        DataOutputStream out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( run ), BUFFER_SIZE ) );
+
+        try
+        {
+            out.writeInt( buffer.size() );
+            for( T item : buffer )
+                codec.write( out, item );
+        }
+        finally
+        {
+            out.close();
+        }
+
+        log.debug("Spilled run of " + buffer.size() + " items to " + run);
+        runs.add( run );
+        buffer.clear();
+    }
+
+    public void close()
+    {
+        closeReaders();
+
+        for( File run : runs )
+        {
+            if( ! run.delete() )
+                log.warn("Unable to delete temporary run file " + run);
+        }
+
+        runs.clear();
+        buffer.clear();
+        first = null;
+    }
+
+    /*
+     * Reads one run. The file is only open while it's being read: it's
+     * closed once the run is used up or the reader is suspended, and a
+     * suspended reader reopens it at the position it had reached.
+     */
+    private class RunReader
+    {
+        private final File run;
+        private DataInputStream in;
+        private PositionInputStream position;
+        private long offset;
+        private int remaining;
+        private T head;
+
+        private RunReader( File run ) throws IOException
+        {
+            this.run = run;
+            open();
+            remaining = in.readInt();
+        }
+
+        private void open() throws IOException
+        {
+            FileInputStream fis = new FileInputStream( run );
+
+            try
+            {
+                fis.getChannel().position( offset );
+            }
+            catch( IOException ex )
+            {
+                fis.close();
+                throw ex;
+            }
+
+            position = new PositionInputStream( new BufferedInputStream( fis, BUFFER_SIZE ), offset );
+            in = new DataInputStream( position );
+        }
+
+        private boolean advance() throws IOException
+        {
+            if( remaining == 0 )
+            {
+                head = null;
+                suspend();
+                return false;
+            }
+
+            if( in == null )
+                open();
+
+            remaining--;
+            head = codec.read( in );
+            return true;
+        }
+
+        private void suspend()
+        {
+            if( in == null )
+                return;
+
+            offset = position.position;
+
+            try
+            {
+                in.close();
+            }
+            catch( IOException ex )
+            {
+                // Don't care
+            }
+
+            in = null;
+            position = null;
+        }
+    }
+
+    /*
+     * Tracks how far into the file the reader has got, as opposed to how
+     * far the buffer under it has read ahead.
+     */
+    private static class PositionInputStream extends FilterInputStream
+    {
+        private long position;
+
+        private PositionInputStream( InputStream in, long position )
+        {
+            super( in );
+            this.position = position;
+        }
+
+        @Override
+        public int read() throws IOException
+        {
+            int b = super.read();
+            if( b >= 0 )
+                position++;
+            return b;
+        }
+
+        @Override
+        public int read( byte[] buffer, int offset, int length ) throws IOException
+        {
+            int read = super.read( buffer, offset, length );
+            if( read > 0 )
+                position += read;
+            return read;
+        }
+
+        @Override
+        public long skip( long n ) throws IOException
+        {
+            long skipped = super.skip( n );
+            position += skipped;
+            return skipped;
+        }
+    }
+}
@@ -0,0 +1,199 @@
+/*
+    Copyright 2016 Mark Otway
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.otway.picasasync.utils;
+
+import org.apache.log4j.Logger;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Write-behind queue for local file timestamp fix-ups. Transfers queue the
+ * creation and modification times they want set, and a background worker
+ * applies them in batches, so the transfer thread can get on with the next
+ * file. Callers that depend on the times (e.g. folder dates) flush first.
+ */
+public class FileTimeWriter
+{
+    private static final Logger log = Logger.getLogger(FileTimeWriter.class);
+    private static final int MAX_BATCH = 256;
+    private static final long NOT_SET = -1;
+
+    private static class FileTimes
+    {
+        private final File file;
+        private final long creationTime;
+        private final long lastModified;
+
+        private FileTimes( File file, long creationTime, long lastModified )
+        {
+            this.file = file;
+            this.creationTime = creationTime;
+            this.lastModified = lastModified;
+        }
+    }
+
+    private final BlockingQueue<FileTimes> queue = new LinkedBlockingQueue<FileTimes>();
+    private final Object lock = new Object();
+    private final Thread worker;
+    private int pending;
+    private volatile boolean stopped;
+
+    public FileTimeWriter()
+    {
+        worker = new Thread( new Runnable()
+        {
+            public void run()
+            {
+                processQueue();
+            }
+        }, "File time writer" );
+
+        worker.setDaemon( true );
+        worker.start();
+    }
+
+    /**
+     * Queues the creation and last-modified times to be set on the file.
+     */
+    public void setTimes( File file, long creationTime, long lastModified )
+    {
+        enqueue( new FileTimes( file, creationTime, lastModified ) );
+    }
+
+    /**
+     * Queues the last-modified time to be set on the file.
+     */
+    public void setLastModified( File file, long lastModified )
+    {
+        enqueue( new FileTimes( file, NOT_SET, lastModified ) );
+    }
+
+    /**
+     * Waits until everything queued so far has been written.
+     */
+    public void flush()
+    {
+        synchronized( lock )
+        {
+            while( pending > 0 && worker.isAlive() )
+            {
+                try
+                {
+                    lock.wait( 1000 );
+                }
+                catch( InterruptedException ex )
+                {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Flushes any outstanding writes and stops the worker.
+     */
+    public void shutDown()
+    {
+        flush();
+        stopped = true;
+        worker.interrupt();
+    }
+
+    private void enqueue( FileTimes times )
+    {
+        if( stopped )
+        {
+            // Too late for the worker; just do it here
+            apply( times );
+            return;
+        }
+
+        synchronized( lock )
+        {
+            pending++;
+        }
+
+        queue.add( times );
+    }
+
+    private void processQueue()
+    {
+        List<FileTimes> batch = new ArrayList<FileTimes>();
+
+        while( ! stopped )
+        {
+            try
+            {
+                batch.add( queue.take() );
+            }
+            catch( InterruptedException ex )
+            {
+                break;
+            }
+
+            queue.drainTo( batch, MAX_BATCH - 1 );
+
+            // If a file was queued more than once, only the last one counts
+            Map<File, FileTimes> latest = new LinkedHashMap<File, FileTimes>();
+            for( FileTimes times : batch )
+            {
+                FileTimes previous = latest.remove( times.file );
+                if( previous != null && times.creationTime == NOT_SET )
+                    times = new FileTimes( times.file, previous.creationTime, times.lastModified );
+                latest.put( times.file, times );
+            }
+
+            for( FileTimes times : latest.values() )
+                apply( times );
+
+            log.debug("Applied " + latest.size() + " file time updates.");
+
+            synchronized( lock )
+            {
+                pending -= batch.size();
+                lock.notifyAll();
+            }
+
+            batch.clear();
+        }
+    }
+
+    private static void apply( FileTimes times )
+    {
+        try
+        {
+            if( times.creationTime != NOT_SET )
+                Files.setAttribute( times.file.toPath(), "basic:creationTime", FileTime.fromMillis( times.creationTime ) );
+        }
+        catch( Exception ex )
+        {
+            log.warn("Unable to set creation time for file: " + times.file, ex );
+        }
+
+        if( ! times.file.setLastModified( times.lastModified ) )
+            log.warn("Unable to set date/time stamp for file: " + times.file );
+    }
+}
@@ -12,6 +12,22 @@ import java.util.Date;
  */
 public class FileUtilities
 {
+    // Our own files (metrics, history etc) under the sync root
+    public static final String APP_FOLDER_NAME = ".picasync";
+
+    /**
+     * Returns the app folder under the sync root, creating it if need be.
+     */
+    public static File getAppFolder(File rootFolder) throws IOException
+    {
+        File appFolder = new File( rootFolder, APP_FOLDER_NAME );
+
+        if( ! appFolder.isDirectory() && ! appFolder.mkdirs() )
+            throw new IOException( "Unable to create folder " + appFolder );
+
+        return appFolder;
+    }
+
     public static Date getLatestDatefromDir(File directory)
     {
         long newest = 0;
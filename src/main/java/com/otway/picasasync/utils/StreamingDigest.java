@@ -0,0 +1,83 @@
+/*
+    Copyright 2016 Mark Otway
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.otway.picasasync.utils;
+
+import org.apache.commons.codec.binary.Hex;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * MD5 of a file, built up from the bytes as they pass through a transfer
+ * rather than by reading the file separately. Each update says where in
+ * the file the bytes came from; bytes that have already been hashed (e.g.
+ * a chunk being resent) are skipped, so the digest is only complete if the
+ * whole file went past in one contiguous run from the start.
+ */
+public class StreamingDigest
+{
+    private final MessageDigest digest;
+    private long hashed;
+    private String hex;
+
+    public StreamingDigest()
+    {
+        try
+        {
+            digest = MessageDigest.getInstance( "MD5" );
+        }
+        catch( NoSuchAlgorithmException ex )
+        {
+            // Every JVM is required to support MD5
+            throw new IllegalStateException( ex );
+        }
+    }
+
+    public void update( byte[] buffer, int offset, int length, long position )
+    {
+        long end = position + length;
+
+        if( hex != null )
+            throw new IllegalStateException( "Digest has already been completed" );
+
+        // Only the part of the buffer that carries on from where we got to
+        if( position > hashed || end <= hashed )
+            return;
+
+        int skip = (int)( hashed - position );
+        digest.update( buffer, offset + skip, length - skip );
+        hashed = end;
+    }
+
+    public long getBytesHashed() { return hashed; }
+
+    /**
+     * Returns the hex digest if exactly the expected number of bytes were
+     * hashed, or null if the digest doesn't cover the whole file.
+     */
+    public String getHex( long expectedLength )
+    {
+        if( hashed != expectedLength )
+            return null;
+
+        // Completing the digest resets it, so hang on to the result
+        if( hex == null )
+            hex = Hex.encodeHexString( digest.digest() );
+
+        return hex;
+    }
+}
@@ -0,0 +1,128 @@
+/*
+    Copyright 2016 Mark Otway
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.otway.picasasync.utils;
+
+import org.apache.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * Temp files for in-flight downloads. Each one gets a unique hidden name
+ * next to its destination (so the final rename stays on the same volume)
+ * and is pre-sized to the expected length. Callers delete them explicitly
+ * when done; anything left over from a crash is swept up at startup.
+ */
+public class TempFileManager
+{
+    private static final Logger log = Logger.getLogger(TempFileManager.class);
+
+    private static final String PREFIX = ".picasync-";
+    private static final String SUFFIX = ".part";
+
+    /**
+     * Creates a new, uniquely named temp file for the given destination,
+     * pre-allocated to the expected size if it's known.
+     */
+    public static File create( File destination, long expectedSize ) throws IOException
+    {
+        File tempFile = File.createTempFile( PREFIX + destination.getName() + "-", SUFFIX, destination.getParentFile() );
+
+        try
+        {
+            // Hidden by name on Unix; on Windows it needs the attribute
+            Files.setAttribute( tempFile.toPath(), "dos:hidden", true );
+        }
+        catch( Exception ex )
+        {
+            // Not a DOS file system
+        }
+
+        if( expectedSize > 0 )
+        {
+            RandomAccessFile raf = new RandomAccessFile( tempFile, "rw" );
+            try
+            {
+                raf.setLength( expectedSize );
+            }
+            finally
+            {
+                raf.close();
+            }
+        }
+
+        return tempFile;
+    }
+
+    public static boolean isTempFile( String name )
+    {
+        return name.startsWith( PREFIX ) && name.endsWith( SUFFIX );
+    }
+
+    public static void delete( File tempFile )
+    {
+        if( tempFile.exists() && ! tempFile.delete() )
+            log.warn("Unable to delete temp file " + tempFile);
+    }
+
+    /**
+     * Deletes temp files left behind under the root folder by a previous
+     * run that didn't finish cleanly. Must only be called when no downloads
+     * are in progress.
+     */
+    public static void cleanOrphans( File rootFolder )
+    {
+        if( ! rootFolder.exists() )
+            return;
+
+        final int[] deleted = { 0 };
+
+        try
+        {
+            Files.walkFileTree( rootFolder.toPath(), new SimpleFileVisitor<Path>()
+            {
+                @Override
+                public FileVisitResult visitFile( Path file, BasicFileAttributes attrs ) throws IOException
+                {
+                    if( attrs.isRegularFile() && isTempFile( file.getFileName().toString() ) )
+                    {
+                        Files.deleteIfExists( file );
+                        deleted[0]++;
+                    }
+
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed( Path file, IOException ex )
+                {
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        }
+        catch( IOException ex )
+        {
+            log.warn("Unable to clean up temp files in " + rootFolder, ex);
+        }
+
+        if( deleted[0] > 0 )
+            log.info("Deleted " + deleted[0] + " orphaned temp files from " + rootFolder);
+    }
+}
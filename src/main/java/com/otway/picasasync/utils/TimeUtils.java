@@ -18,6 +18,7 @@ package com.otway.picasasync.utils;
 
 import com.google.gdata.data.photos.AlbumEntry;
 import com.google.gdata.data.photos.PhotoEntry;
+import com.otway.picasasync.metadata.RemotePhoto;
 import com.otway.picasasync.syncutil.AlbumSync;
 
 import java.io.File;
@@ -48,6 +49,17 @@ public class TimeUtils {
         });
     }
 
+    public static void sortRemotePhotosNewestFirst( List<RemotePhoto> photos )
+    {
+        Collections.sort(photos, new Comparator<RemotePhoto>()
+        {
+            public int compare(RemotePhoto x, RemotePhoto y)
+            {
+                return Long.compare(y.getUpdated(), x.getUpdated());
+            }
+        });
+    }
+
     public static void sortAlbumEntriesNewestFirst( List<AlbumEntry> albums )
     {
         Collections.sort(albums, new Comparator<AlbumEntry>() {
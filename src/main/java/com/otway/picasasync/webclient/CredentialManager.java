@@ -0,0 +1,151 @@
+/*
+    Copyright 2016 Mark Otway
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.otway.picasasync.webclient;
+
+import com.google.api.client.auth.oauth2.Credential;
+import com.otway.picasasync.config.Settings;
+import org.apache.log4j.Logger;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the OAuth access token fresh.
+ *
+ * Tracks when the current token expires and swaps in a new one on a
+ * background thread shortly beforehand. The token is updated in place on
+ * the single Credential instance shared by the PicasaWeb service and the
+ * uploader, so in-flight and queued requests pick it up without the
+ * client having to be rebuilt.
+ */
+public class CredentialManager
+{
+    private static final Logger log = Logger.getLogger(CredentialManager.class);
+
+    private static final long REFRESH_MARGIN_SECS = 5 * 60;
+    private static final long RETRY_DELAY_SECS = 60;
+    private static final long DEFAULT_LIFETIME_SECS = 60 * 60;
+
+    private final GoogleOAuth auth;
+    private final Settings settings;
+    private final Credential credential;
+    private final ScheduledExecutorService scheduler;
+    private ScheduledFuture<?> pendingRefresh;
+
+    public CredentialManager( GoogleOAuth auth, Settings settings, Credential credential )
+    {
+        this.auth = auth;
+        this.settings = settings;
+        this.credential = credential;
+
+        scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+        {
+            public Thread newThread(Runnable r)
+            {
+                Thread thread = new Thread(r, "OAuth token refresh");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    public Credential getCredential() { return credential; }
+
+    public void start()
+    {
+        scheduleRefresh( getSecondsUntilRefresh() );
+    }
+
+    public void shutDown()
+    {
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * Refreshes the access token immediately, on the calling thread. Used
+     * when the server rejects the token before we expected it to expire.
+     */
+    public synchronized boolean refreshNow()
+    {
+        String refreshToken = settings.getRefreshToken();
+
+        if( refreshToken == null )
+        {
+            log.warn("No refresh token available. Unable to refresh credentials.");
+            return false;
+        }
+
+        try
+        {
+            Credential refreshed = auth.getRefreshedCredentials( refreshToken );
+
+            if( refreshed != null && refreshed.getAccessToken() != null )
+            {
+                credential.setAccessToken( refreshed.getAccessToken() );
+                credential.setExpirationTimeMilliseconds( refreshed.getExpirationTimeMilliseconds() );
+
+                log.info("Access token refreshed. Expires in " + getSecondsUntilExpiry() + "s.");
+                scheduleRefresh( getSecondsUntilRefresh() );
+                return true;
+            }
+        }
+        catch( Exception ex )
+        {
+            log.warn("Exception refreshing access token.", ex);
+        }
+
+        scheduleRefresh( RETRY_DELAY_SECS );
+        return false;
+    }
+
+    private synchronized void scheduleRefresh( long delaySecs )
+    {
+        if( scheduler.isShutdown() )
+            return;
+
+        if( pendingRefresh != null )
+            pendingRefresh.cancel( false );
+
+        log.debug("Next token refresh in " + delaySecs + "s.");
+
+        pendingRefresh = scheduler.schedule(new Runnable()
+        {
+            public void run()
+            {
+                refreshNow();
+            }
+        }, delaySecs, TimeUnit.SECONDS);
+    }
+
+    private long getSecondsUntilExpiry()
+    {
+        Long expiresIn = credential.getExpiresInSeconds();
+
+        if( expiresIn == null )
+            return DEFAULT_LIFETIME_SECS;
+
+        return expiresIn;
+    }
+
+    private long getSecondsUntilRefresh()
+    {
+        return Math.max( 0, getSecondsUntilExpiry() - REFRESH_MARGIN_SECS );
+    }
+}
@@ -0,0 +1,79 @@
+/*
+    Copyright 2016 Mark Otway
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.otway.picasasync.webclient;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Size-bounded LRU cache of feed pages, keyed by URL. Each page is stored
+ * with its ETag so it can be revalidated with If-None-Match; an unchanged
+ * feed then costs a 304 rather than a full download and parse.
+ */
+public class FeedCache<F>
+{
+    public static class CachedFeed<F>
+    {
+        private final String etag;
+        private final F feed;
+
+        private CachedFeed( String etag, F feed )
+        {
+            this.etag = etag;
+            this.feed = feed;
+        }
+
+        public String getEtag() { return etag; }
+        public F getFeed() { return feed; }
+    }
+
+    private final Map<String, CachedFeed<F>> pages;
+
+    public FeedCache( final int maxPages )
+    {
+        // Access-ordered, so the eldest entry is the least recently used
+        pages = new LinkedHashMap<String, CachedFeed<F>>( 16, 0.75f, true )
+        {
+            @Override
+            protected boolean removeEldestEntry( Map.Entry<String, CachedFeed<F>> eldest )
+            {
+                return size() > maxPages;
+            }
+        };
+    }
+
+    public synchronized CachedFeed<F> get( String url )
+    {
+        return pages.get( url );
+    }
+
+    public synchronized void put( String url, String etag, F feed )
+    {
+        // Without an ETag there's nothing to revalidate against
+        if( etag == null )
+            pages.remove( url );
+        else
+            pages.put( url, new CachedFeed<F>( etag, feed ) );
+    }
+
+    public synchronized void clear()
+    {
+        pages.clear();
+    }
+
+    public synchronized int size() { return pages.size(); }
+}
@@ -0,0 +1,267 @@
+/*
+    Copyright 2016 Mark Otway
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.otway.picasasync.webclient;
+
+import com.otway.picasasync.metadata.RemoteAlbum;
+import com.otway.picasasync.metadata.RemotePhoto;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.InputStream;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Streaming StAX parser for Picasa user and album feeds.
+ *
+ * Rather than building the GData object model for a whole page, each entry
+ * is turned into a compact RemotePhoto or RemoteAlbum record and handed to
+ * the listener as soon as its closing tag is read.
+ */
+public class FeedParser
+{
+    public interface Listener
+    {
+        void onPhoto( RemotePhoto photo );
+        void onAlbum( RemoteAlbum album );
+    }
+
+    private static final String ATOM_NS = "http://www.w3.org/2005/Atom";
+    private static final String GPHOTO_NS = "http://schemas.google.com/photos/2007";
+    private static final String MEDIA_NS = "http://search.yahoo.com/mrss/";
+    private static final String EXIF_NS = "http://schemas.google.com/photos/exif/2007";
+    private static final String KIND_SCHEME = "http://schemas.google.com/g/2005#kind";
+    private static final String FEED_REL = "http://schemas.google.com/g/2005#feed";
+    private static final String PHOTO_KIND = GPHOTO_NS + "#photo";
+    private static final String ALBUM_KIND = GPHOTO_NS + "#album";
+
+    private static final XMLInputFactory factory = createFactory();
+
+    private static XMLInputFactory createFactory()
+    {
+        XMLInputFactory xif = XMLInputFactory.newInstance();
+        xif.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+        xif.setProperty(XMLInputFactory.IS_COALESCING, true);
+        xif.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        return xif;
+    }
+
+    /**
+     * Parses one page of a feed, passing each entry to the listener.
+     * Returns the href of the next page, or null if this was the last.
+     */
+    public static String parse( InputStream is, Listener listener ) throws XMLStreamException
+    {
+        XMLStreamReader reader = factory.createXMLStreamReader( is );
+        String nextLink = null;
+
+        try
+        {
+            while( reader.hasNext() )
+            {
+                if( reader.next() != XMLStreamConstants.START_ELEMENT )
+                    continue;
+
+                if( ! ATOM_NS.equals( reader.getNamespaceURI() ) )
+                    continue;
+
+                String name = reader.getLocalName();
+
+                if( name.equals("entry") )
+                    parseEntry( reader, listener );
+                else if( name.equals("link") && "next".equals( reader.getAttributeValue(null, "rel") ) )
+                    nextLink = reader.getAttributeValue(null, "href");
+            }
+        }
+        finally
+        {
+            reader.close();
+        }
+
+        return nextLink;
+    }
+
+    private static void parseEntry( XMLStreamReader reader, Listener listener ) throws XMLStreamException
+    {
+        String kind = null;
+        String id = null;
+        String title = null;
+        long updated = 0;
+        String selfLink = null;
+        String feedLink = null;
+
+        String gphotoId = null;
+        String albumName = null;
+        String albumType = null;
+        int numPhotos = 0;
+        long timestamp = 0;
+        long size = 0;
+        String checksum = null;
+        String exifUniqueId = null;
+        long exifTime = 0;
+        String[] keywords = null;
+        List<String> mediaUrls = new ArrayList<String>();
+
+        int depth = 1;
+
+        while( depth > 0 )
+        {
+            int event = reader.next();
+
+            if( event == XMLStreamConstants.END_ELEMENT )
+            {
+                depth--;
+                continue;
+            }
+
+            if( event != XMLStreamConstants.START_ELEMENT )
+                continue;
+
+            String ns = reader.getNamespaceURI();
+            String name = reader.getLocalName();
+
+            if( ATOM_NS.equals( ns ) )
+            {
+                if( name.equals("id") )
+                    id = reader.getElementText();
+                else if( name.equals("title") )
+                    title = reader.getElementText();
+                else if( name.equals("updated") )
+                    updated = parseDateTime( reader.getElementText() );
+                else if( name.equals("category") )
+                {
+                    if( KIND_SCHEME.equals( reader.getAttributeValue(null, "scheme") ) )
+                        kind = reader.getAttributeValue(null, "term");
+                    depth++;
+                }
+                else if( name.equals("link") )
+                {
+                    String rel = reader.getAttributeValue(null, "rel");
+                    if( "self".equals( rel ) )
+                        selfLink = reader.getAttributeValue(null, "href");
+                    else if( FEED_REL.equals( rel ) )
+                        feedLink = reader.getAttributeValue(null, "href");
+                    depth++;
+                }
+                else
+                    depth++;
+            }
+            else if( GPHOTO_NS.equals( ns ) )
+            {
+                if( name.equals("id") )
+                    gphotoId = reader.getElementText();
+                else if( name.equals("name") )
+                    albumName = reader.getElementText();
+                else if( name.equals("albumType") )
+                    albumType = reader.getElementText();
+                else if( name.equals("numphotos") )
+                    numPhotos = (int)parseLong( reader.getElementText() );
+                else if( name.equals("timestamp") )
+                    timestamp = parseLong( reader.getElementText() );
+                else if( name.equals("size") )
+                    size = parseLong( reader.getElementText() );
+                else if( name.equals("checksum") )
+                    checksum = emptyToNull( reader.getElementText() );
+                else
+                    depth++;
+            }
+            else if( MEDIA_NS.equals( ns ) )
+            {
+                if( name.equals("content") )
+                {
+                    mediaUrls.add( reader.getAttributeValue(null, "url") );
+                    depth++;
+                }
+                else if( name.equals("keywords") )
+                    keywords = splitKeywords( reader.getElementText() );
+                else
+                    depth++;
+            }
+            else if( EXIF_NS.equals( ns ) )
+            {
+                if( name.equals("imageUniqueID") )
+                    exifUniqueId = emptyToNull( reader.getElementText() );
+                else if( name.equals("time") )
+                    exifTime = parseLong( reader.getElementText() );
+                else
+                    depth++;
+            }
+            else
+                depth++;
+        }
+
+        if( gphotoId == null )
+            gphotoId = id;
+
+        boolean isAlbum = ALBUM_KIND.equals( kind ) || ( kind == null && albumName != null );
+        boolean isPhoto = PHOTO_KIND.equals( kind ) || ( kind == null && ! mediaUrls.isEmpty() );
+
+        if( isAlbum )
+        {
+            listener.onAlbum( new RemoteAlbum( gphotoId, title, albumName, updated, albumType, numPhotos, feedLink ) );
+        }
+        else if( isPhoto )
+        {
+            listener.onPhoto( new RemotePhoto( gphotoId, title, updated, timestamp, size, checksum, keywords,
+                    mediaUrls.toArray( new String[mediaUrls.size()] ), exifUniqueId, exifTime, selfLink ) );
+        }
+    }
+
+    private static long parseDateTime( String text )
+    {
+        try
+        {
+            return OffsetDateTime.parse( text.trim() ).toInstant().toEpochMilli();
+        }
+        catch( Exception ex )
+        {
+            return 0;
+        }
+    }
+
+    private static long parseLong( String text )
+    {
+        try
+        {
+            return Long.parseLong( text.trim() );
+        }
+        catch( NumberFormatException ex )
+        {
+            return 0;
+        }
+    }
+
+    private static String emptyToNull( String text )
+    {
+        return text == null || text.isEmpty() ? null : text;
+    }
+
+    private static String[] splitKeywords( String text )
+    {
+        if( text == null || text.trim().isEmpty() )
+            return null;
+
+        String[] tags = text.split(",");
+        for( int i = 0; i < tags.length; i++ )
+            tags[i] = tags[i].trim();
+
+        return tags;
+    }
+}
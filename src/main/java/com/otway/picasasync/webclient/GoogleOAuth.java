@@ -143,8 +143,12 @@ public class GoogleOAuth {
 
             log.info("Building PicasaWeb Client...");
 
+            // Keep the access token fresh in the background for the life of the client
+            CredentialManager credentialManager = new CredentialManager( this, settings, cred );
+            credentialManager.start();
+
             // Build a web client using the credentials we created
-            return new PicasawebClient( cred );
+            return new PicasawebClient( credentialManager );
         }
 
         return null;
@@ -160,7 +164,9 @@ public class GoogleOAuth {
                     httpTransport, jsonFactory, refreshCode, clientId, clientSecret )
                     .execute();
 
-            return new GoogleCredential().setAccessToken(response.getAccessToken());
+            return new GoogleCredential()
+                    .setAccessToken(response.getAccessToken())
+                    .setExpiresInSeconds(response.getExpiresInSeconds());
 
         }
         catch( UnknownHostException ex ){
@@ -0,0 +1,109 @@
+/*
+    Copyright 2016 Mark Otway
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.otway.picasasync.webclient;
+
+import com.google.gdata.data.media.MediaFileSource;
+import com.otway.picasasync.utils.StreamingDigest;
+
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Media source for uploads that hashes the file as the client streams it
+ * to the server, so the file is read once rather than once to hash and
+ * again to send.
+ */
+public class HashingMediaSource extends MediaFileSource
+{
+    private final File file;
+    private StreamingDigest digest;
+
+    public HashingMediaSource( File file, String contentType )
+    {
+        super( file, contentType );
+        this.file = file;
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException
+    {
+        // If the client has to send the body again, start the hash again too
+        final StreamingDigest streamDigest = new StreamingDigest();
+        digest = streamDigest;
+
+        FileChannel channel = FileChannel.open( file.toPath(), StandardOpenOption.READ );
+
+        return new FilterInputStream( Channels.newInputStream( channel ) )
+        {
+            private long position = 0;
+
+            @Override
+            public int read() throws IOException
+            {
+                byte[] one = new byte[1];
+                int read = read( one, 0, 1 );
+                return read < 0 ? -1 : one[0] & 0xff;
+            }
+
+            @Override
+            public int read( byte[] buffer, int offset, int length ) throws IOException
+            {
+                int read = super.read( buffer, offset, length );
+
+                if( read > 0 )
+                {
+                    streamDigest.update( buffer, offset, read, position );
+                    position += read;
+                }
+
+                return read;
+            }
+
+            @Override
+            public long skip( long n ) throws IOException
+            {
+                // Skipped bytes can't be hashed, so read them instead
+                byte[] discard = new byte[8192];
+                long skipped = 0;
+
+                while( skipped < n )
+                {
+                    int read = read( discard, 0, (int)Math.min( discard.length, n - skipped ) );
+                    if( read < 0 )
+                        break;
+                    skipped += read;
+                }
+
+                return skipped;
+            }
+        };
+    }
+
+    /**
+     * The MD5 of the file as last streamed, or null if it wasn't streamed
+     * completely.
+     */
+    public String getDigest()
+    {
+        return digest != null ? digest.getHex( file.length() ) : null;
+    }
+}
@@ -21,33 +21,49 @@ import com.drew.metadata.Directory;
 import com.drew.metadata.Metadata;
 import com.drew.metadata.exif.ExifIFD0Directory;
 import com.google.api.client.auth.oauth2.Credential;
+import com.google.gdata.client.Service.GDataRequest;
 import com.google.gdata.client.photos.PicasawebService;
 import com.google.gdata.data.DateTime;
 import com.google.gdata.data.Link;
 import com.google.gdata.data.PlainTextConstruct;
-import com.google.gdata.data.media.MediaFileSource;
 import com.google.gdata.data.media.mediarss.MediaContent;
 import com.google.gdata.data.photos.*;
 import com.google.gdata.util.AuthenticationException;
+import com.google.gdata.util.NotModifiedException;
 import com.google.gdata.util.ParseException;
 import com.google.gdata.util.ServiceException;
 import com.google.gdata.util.XmlBlob;
+import com.google.gdata.util.common.xml.XmlWriter;
 import com.otway.picasasync.metadata.ImageInformation;
+import com.otway.picasasync.metadata.LocalIndex;
+import com.otway.picasasync.metadata.RemoteAlbum;
+import com.otway.picasasync.metadata.RemotePhoto;
+import com.otway.picasasync.metrics.FeedEvent;
+import com.otway.picasasync.metrics.FlightEvents;
+import com.otway.picasasync.metrics.MetricsRegistry;
+import com.otway.picasasync.metrics.Phase;
+import com.otway.picasasync.utils.FileTimeWriter;
+import com.otway.picasasync.utils.StreamingDigest;
+import com.otway.picasasync.utils.TempFileManager;
 import com.otway.picasasync.utils.TimeUtils;
+import org.apache.commons.codec.binary.Hex;
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.io.input.CountingInputStream;
+import org.apache.log4j.LogSF;
 import org.apache.log4j.Logger;
 
 import java.io.*;
 import java.net.ConnectException;
 import java.net.URL;
+import java.net.URLEncoder;
 import java.net.URLConnection;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
 import java.nio.file.attribute.BasicFileAttributes;
-import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
 import java.util.*;
 
+import javax.xml.stream.XMLStreamException;
+
 import static com.otway.picasasync.metadata.ImageInformation.readImageInformation;
 import static com.otway.picasasync.metadata.ImageInformation.safeReadImageInformation;
 
@@ -65,12 +81,28 @@ public class PicasawebClient {
     public static final String INSTANT_UPLOAD = "InstantUpload";
     private static final String ALBUM_TYPE_PATTERN = "<gphoto:albumType>%s</gphoto:albumType>";
     private static final String SYNC_CLIENT_NAME = "com.otway.picasasync";
+    // Google only compresses responses if the user agent asks for it too
+    private static final String USER_AGENT = SYNC_CLIENT_NAME + " (gzip)";
     private static final int CONNECTION_TIMEOUT_SECS = 10;
-
-    private static final String API_PREFIX
-            = "https://picasaweb.google.com/data/feed/api/user/";
-
-    private final PicasawebService service = new PicasawebService(SYNC_CLIENT_NAME);;
+    private static final long RESUMABLE_UPLOAD_THRESHOLD = 16 * 1024 * 1024;
+    private static final String RESUMABLE_CREATE_REL = "http://schemas.google.com/g/2005#resumable-create-media";
+
+    // Can be pointed elsewhere (e.g. at the stand-in server) for testing
+    private static final String DEFAULT_API_PREFIX = System.getProperty( "picasasync.api.prefix",
+            "https://picasaweb.google.com/data/feed/api/user/" );
+
+    // Partial-response projection for album feeds. Only the elements that
+    // ImageSync, UniquePhoto, isDeletion and the downloader actually read.
+    private static final String PHOTO_FIELDS = "link[@rel='next'],entry(@gd:etag,id,title,updated,category,"
+            + "link[@rel='self' or @rel='edit' or @rel='edit-media'],"
+            + "gphoto:id,gphoto:albumid,gphoto:timestamp,gphoto:size,gphoto:checksum,"
+            + "exif:tags(exif:imageUniqueID,exif:time),media:group(media:content,media:keywords))";
+
+    private final PicasawebService service = new PicasawebService(USER_AGENT);
+    private ResumableUploader resumableUploader;
+    private final FileTimeWriter fileTimeWriter = new FileTimeWriter();
+    private CredentialManager credentialManager;
+    private String apiPrefix = DEFAULT_API_PREFIX;
 
     /**
      * Constructs a new un-authenticated client.
@@ -78,10 +110,35 @@ public class PicasawebClient {
     public PicasawebClient(Credential credential ) {
 
         service.setOAuth2Credentials( credential );
+        service.getRequestFactory().setHeader("Accept-Encoding", "gzip");
+        resumableUploader = new ResumableUploader( credential );
         service.setConnectTimeout( 1000 * CONNECTION_TIMEOUT_SECS );
         service.setReadTimeout(1000 * CONNECTION_TIMEOUT_SECS);
     }
 
+    /**
+     * Constructs a client whose access token is kept fresh by the credential
+     * manager, so it never needs to be rebuilt when the token expires.
+     */
+    public PicasawebClient(CredentialManager credentialManager ) {
+        this( credentialManager.getCredential() );
+        this.credentialManager = credentialManager;
+    }
+
+    public CredentialManager getCredentialManager() { return credentialManager; }
+
+    public String getApiPrefix() { return apiPrefix; }
+    public void setApiPrefix( String apiPrefix ) { this.apiPrefix = apiPrefix; }
+
+    /**
+     * Stops the background token refresh. The client shouldn't be used after this.
+     */
+    public void shutDown() {
+        fileTimeWriter.shutDown();
+        if( credentialManager != null )
+            credentialManager.shutDown();
+    }
+
     /**
      * Constructs a new client with the given username and password.
      */
@@ -89,6 +146,8 @@ public class PicasawebClient {
 
         log.info("Logging into Picasa Service...");
 
+        service.getRequestFactory().setHeader("Accept-Encoding", "gzip");
+
         if (uname != null && passwd != null) {
             try {
                 service.setUserCredentials(uname, passwd);
@@ -103,7 +162,12 @@ public class PicasawebClient {
         }
     }
 
-    public boolean downloadPhoto(File saveLocation, PhotoEntry photo) throws IOException, ParseException
+    /**
+     * Downloads the photo, hashing it as it streams to disk. The size is
+     * checked against the remote record, and the digest is recorded in the
+     * local index (if given) so later syncs don't need to read the file again.
+     */
+    public boolean downloadPhoto(File saveLocation, RemotePhoto photo, LocalIndex index) throws IOException, ParseException
     {
         boolean downloadSuccess = false;
         final int BUFFER_SIZE = 8096;
@@ -123,48 +187,68 @@ public class PicasawebClient {
 
         log.debug("Beginning download for " + saveLocation + "...");
 
-        File tempFile = new File(saveLocation + ".tmp");
-        tempFile.deleteOnExit();
-
-        FileOutputStream fos = new FileOutputStream(tempFile);
-
-        List<MediaContent> media = photo.getMediaContents();
-        URL fileUrl = new URL(photo.getMediaContents().get(0).getUrl());
+        List<String> media = photo.getMediaUrls();
+        URL fileUrl = new URL(media.get(0));
 
         if( media.size() > 1 ){
             if( media.size() > 2 ){
                 log.debug( "Extracting h264 video stream...");
-                fileUrl = new URL(photo.getMediaContents().get(2).getUrl());
+                fileUrl = new URL(media.get(2));
             }
             else {
                 log.debug( "Extracting low-res video stream...");
-                fileUrl = new URL(photo.getMediaContents().get(1).getUrl());
+                fileUrl = new URL(media.get(1));
             }
         }
 
+        // Videos are re-encoded streams, so their size isn't known up front
+        long expectedSize = photo.isVideo() ? 0 : photo.getSize();
+        File tempFile = TempFileManager.create(saveLocation, expectedSize);
+
         try {
             URLConnection conn = fileUrl.openConnection();
             conn.setConnectTimeout(TIMEOUT_MS);
             conn.setReadTimeout(TIMEOUT_MS);
             InputStream dis = conn.getInputStream();
 
-            int totalRead = 0;
-            int readCount = 0;
-            byte b[] = new byte[BUFFER_SIZE];
-            while ((readCount = dis.read(b)) != 0 && readCount != -1) {
-                totalRead += readCount;
-                fos.write(b, 0, readCount);
+            // The temp file is pre-allocated, so write into it rather than truncating it
+            RandomAccessFile out = new RandomAccessFile(tempFile, "rw");
+            MessageDigest digest = MessageDigest.getInstance("MD5");
+            long totalRead = 0;
+
+            try {
+                int readCount = 0;
+                byte b[] = new byte[BUFFER_SIZE];
+                while ((readCount = dis.read(b)) != 0 && readCount != -1) {
+                    totalRead += readCount;
+                    digest.update(b, 0, readCount);
+                    out.write(b, 0, readCount);
+                }
+
+                out.setLength(totalRead);
+            }
+            finally {
+                dis.close();
+                out.close();
             }
-            dis.close();
-            fos.close();
+
+            if( expectedSize > 0 && totalRead != expectedSize )
+                throw new IOException("Download of " + saveLocation.getName() + " was " + totalRead
+                                        + " bytes; expected " + expectedSize);
+
+            String md5 = Hex.encodeHexString(digest.digest());
+            verifyChecksum(saveLocation, photo, md5);
 
             if (!tempFile.renameTo(saveLocation))
                 throw new IOException("Unable to rename temp file to " + saveLocation);
 
+            if( index != null )
+                index.putDigest(saveLocation, totalRead, photo.getUpdated(), md5);
+
             // Fix up the timestamps from the photo metadata
             updateTimeFromTags(saveLocation, photo, createdFolder);
 
-            log.info("Written " + FileUtils.byteCountToDisplaySize(totalRead) + " to " + saveLocation + " successfully.");
+            LogSF.info(log, "Written {} to {} successfully.", FileUtils.byteCountToDisplaySize(totalRead), saveLocation);
             downloadSuccess = true;
         }
         catch( ConnectException ex ){
@@ -176,10 +260,30 @@ public class PicasawebClient {
             saveLocation = null;
 
         }
+        finally {
+            if( ! downloadSuccess )
+                TempFileManager.delete(tempFile);
+        }
 
         return downloadSuccess;
     }
 
+    /*
+     * Picasa's checksum isn't reliably updated when a photo changes, so a
+     * mismatch is worth a warning but isn't treated as a failed download.
+     */
+    private void verifyChecksum(File saveLocation, RemotePhoto photo, String md5) {
+        String remoteChecksum = photo.getChecksum();
+
+        if( remoteChecksum == null || remoteChecksum.isEmpty() )
+            return;
+
+        if( remoteChecksum.equalsIgnoreCase(md5) )
+            log.debug("Checksum verified for " + saveLocation.getName());
+        else
+            log.warn("Checksum mismatch for " + saveLocation.getName() + ": remote " + remoteChecksum + ", downloaded " + md5);
+    }
+
     public AlbumEntry prepareRemoteAlbum(AlbumEntry albumEntry) throws IOException, ServiceException {
 
         // See if the AlbumEntry was valid remotely (i.e., it has an ID). If not, create it
@@ -197,34 +301,30 @@ public class PicasawebClient {
         return albumEntry;
     }
 
-    public void updateTimeFromTags( File localFile, PhotoEntry photo, boolean createdFolder )
+    public void updateTimeFromTags( File localFile, RemotePhoto photo, boolean createdFolder )
             throws com.google.gdata.util.ParseException, IOException
     {
-        ExifTags tags = photo.getExifTags();
-        DateTime photoDate = null;
-
-        if( tags != null ) {
-            Date timestamp = tags.getTime();
-            if( timestamp != null )
-                photoDate = new DateTime(timestamp);
-        }
+        // Prefer the EXIF time the photo was taken; fall back to the update time
+        long photoDate = photo.getExifTime();
 
-        if( photoDate == null ){
+        if( photoDate == 0 ){
             photoDate = photo.getUpdated();
         }
 
-        log.debug("Setting datetime for " + localFile.getName() + " to " + photoDate.toString());
-
-        Path fp = Paths.get( localFile.getPath() );
-        FileTime time = FileTime.fromMillis( photoDate.getValue() );
-        Files.setAttribute(fp, "basic:creationTime", time );
+        long lastUpdated = photo.getUpdated();
 
-        long lastUpdated = photo.getUpdated().getValue();
+        // Set the creation and last update times of the local file. These are
+        // written behind, so the next transfer doesn't wait on them.
+        log.debug("Setting datetime for " + localFile.getName() + " to " + new Date(photoDate)
+                    + ", last update to " + new Date(lastUpdated));
+        fileTimeWriter.setTimes( localFile, photoDate, lastUpdated );
+    }
 
-        // Set the last update time of the local file...
-        log.debug("Setting last update datetime for " + localFile.getName() + " to " + photo.getUpdated());
-        if( ! localFile.setLastModified(lastUpdated) )
-            log.warn("Unable to set date/time stamp for file: " + localFile );
+    /**
+     * Waits for any queued local file time changes to be written.
+     */
+    public void flushFileTimes() {
+        fileTimeWriter.flush();
     }
 
     public static boolean isInstantUpload( AlbumEntry album )
@@ -249,43 +349,66 @@ public class PicasawebClient {
     }
 
 
-    public boolean uploadImageToAlbum(File imageFile, PhotoEntry remotePhoto, AlbumEntry albumEntry, String localMd5CheckSum ) throws IOException, ServiceException {
+    /**
+     * Uploads a new or changed image. The file is hashed as it's sent, and the
+     * digest recorded in the local index (if given) for later syncs.
+     */
+    public boolean uploadImageToAlbum(File imageFile, RemotePhoto remotePhoto, AlbumEntry albumEntry, String localMd5CheckSum,
+                                      LocalIndex index ) throws IOException, ServiceException {
 
         boolean success = false;
+        String md5 = null;
         boolean newPhoto = false;
         String albumName = albumEntry.getTitle().getPlainText();
-        PhotoEntry myPhoto = remotePhoto;
+        PhotoEntry myPhoto;
 
-        if (myPhoto == null)
+        if (remotePhoto == null)
         {
             newPhoto = true;
-            log.info("Uploading new image to album " + albumName + ": " + imageFile);
+            LogSF.info(log, "Uploading new image to album {}: {}", albumName, imageFile);
 
             myPhoto = new PhotoEntry();
         }
         else
         {
-            log.info("Uploading updated image in album " + albumName + ": " + imageFile);
+            LogSF.info(log, "Uploading updated image in album {}: {}", albumName, imageFile);
+
+            // We only hold a compact record; updating the media also
+            // writes the metadata back, so we need the whole entry.
+            myPhoto = getFullEntry(remotePhoto);
             List<MediaContent> media = myPhoto.getMediaContents();
             media.remove(0);
         }
 
         try
         {
-            MediaFileSource myMedia = new MediaFileSource(imageFile, "image/jpeg");
-            myPhoto.setMediaSource(myMedia);
+            String mimeType = getMimeType(imageFile);
             myPhoto.setChecksum(localMd5CheckSum);
             myPhoto.setClient(SYNC_CLIENT_NAME);
 
-            if (newPhoto)
+            if (newPhoto && resumableUploader != null && imageFile.length() >= RESUMABLE_UPLOAD_THRESHOLD)
             {
+                StreamingDigest digest = new StreamingDigest();
+                myPhoto.setTitle(new PlainTextConstruct(imageFile.getName()));
+                myPhoto = insertResumable(albumEntry, myPhoto, imageFile, mimeType, digest);
+                md5 = digest.getHex(imageFile.length());
+                success = true;
+            }
+            else if (newPhoto)
+            {
+                HashingMediaSource source = new HashingMediaSource(imageFile, mimeType);
+                myPhoto.setMediaSource(source);
                 myPhoto.setTitle(new PlainTextConstruct(imageFile.getName()));
                 myPhoto = insert(albumEntry, myPhoto);
+                md5 = source.getDigest();
                 success = true;
             }
             else
             {
+                HashingMediaSource source = new HashingMediaSource(imageFile, mimeType);
+                myPhoto.setMediaSource(source);
                 myPhoto = myPhoto.updateMedia(true);
+                md5 = source.getDigest();
                 success = true;
             }
         }
@@ -295,11 +418,87 @@ public class PicasawebClient {
         }
 
         if( success )
+        {
             setUpdatedDate(albumEntry, myPhoto, imageFile);
 
+            if( index != null && md5 != null )
+            {
+                // setUpdatedDate gives the local file the remote updated time
+                long lastModified = myPhoto.getUpdated() != null ? myPhoto.getUpdated().getValue() : imageFile.lastModified();
+                index.putDigest(imageFile, imageFile.length(), lastModified, md5);
+            }
+        }
+
         return success;
     }
 
+    /*
+     * Large files (typically videos) go up in chunks via the resumable upload
+     * protocol, so a dropped connection doesn't mean starting again from zero.
+     */
+    private PhotoEntry insertResumable(AlbumEntry albumEntry, PhotoEntry photo, File imageFile, String mimeType,
+                                       StreamingDigest digest) throws IOException, ServiceException
+    {
+        LogSF.info(log, "Using resumable upload for {} ({})", imageFile.getName(),
+                    FileUtils.byteCountToDisplaySize(imageFile.length()));
+
+        ByteArrayOutputStream entryXml = new ByteArrayOutputStream();
+        XmlWriter writer = new XmlWriter(new OutputStreamWriter(entryXml, "UTF-8"));
+        photo.generateAtom(writer, service.getExtensionProfile());
+        writer.flush();
+
+        URL sessionUrl = new URL(getResumableCreateUrl(albumEntry));
+        byte[] response = resumableUploader.upload(sessionUrl, imageFile, mimeType, entryXml.toByteArray(), digest);
+
+        PhotoEntry uploaded = new PhotoEntry();
+        uploaded.parseAtom(service.getExtensionProfile(), new ByteArrayInputStream(response));
+        return uploaded;
+    }
+
+    private String getResumableCreateUrl(AlbumEntry albumEntry)
+    {
+        for (Link link : albumEntry.getLinks()) {
+            if (RESUMABLE_CREATE_REL.equals(link.getRel())) {
+                return link.getHref();
+            }
+        }
+
+        // Not advertised, so derive it from the album feed URL
+        String feedHref = getLinkByRel(albumEntry.getLinks(), Link.Rel.FEED);
+
+        int query = feedHref.indexOf('?');
+        if( query >= 0 )
+            feedHref = feedHref.substring(0, query);
+
+        return feedHref.replace("/data/feed/", "/data/upload/resumable/media/create-session/feed/");
+    }
+
+    public static String getMimeType(File file)
+    {
+        String ext = FilenameUtils.getExtension(file.getName()).toLowerCase();
+
+        if( ext.equals("jpg") || ext.equals("jpeg") )
+            return "image/jpeg";
+        if( ext.equals("mov") )
+            return "video/quicktime";
+        if( ext.equals("mp4") || ext.equals("m4v") )
+            return "video/mp4";
+        if( ext.equals("3gp") )
+            return "video/3gpp";
+        if( ext.equals("avi") )
+            return "video/avi";
+        if( ext.equals("mpg") || ext.equals("mpeg") )
+            return "video/mpeg";
+        if( ext.equals("wmv") )
+            return "video/x-ms-wmv";
+
+        String guessed = URLConnection.guessContentTypeFromName(file.getName());
+        if( guessed != null )
+            return guessed;
+
+        return "image/jpeg";
+    }
+
     public void setAlbumDateFromFolder(File folder, AlbumEntry albumEntry)
     {
         // Can't do this for autobackup albums
@@ -361,7 +560,7 @@ public class PicasawebClient {
                         DateTime time = new DateTime(localFile.lastModified());
                         time.setTzShift(0);
 
-                        log.info( "Setting Updated from " + photo.getUpdated() + " to " + time );
+                        LogSF.info( log, "Setting Updated from {} to {}", photo.getUpdated(), time );
                         photo.setUpdated(time);
                         photo.update();
                         break;
@@ -373,7 +572,7 @@ public class PicasawebClient {
                 // Since it doesn't work, the only option to avoid unnecessary uploads/downloads
                 // is to set the lastModified file time on the local file.
                 log.info("Setting local file time to " + photoToChange.getUpdated() + " for " + localFile.getName() );
-                localFile.setLastModified( photoToChange.getUpdated().getValue() );
+                fileTimeWriter.setLastModified( localFile, photoToChange.getUpdated().getValue() );
             }
         }
         catch( Exception ex )
@@ -392,17 +591,32 @@ public class PicasawebClient {
         return id;
     }
 
-    public void movePhoto(PhotoEntry photo, AlbumEntry destinationAlbum) throws ServiceException, IOException
+    public void movePhoto(RemotePhoto photo, AlbumEntry destinationAlbum) throws ServiceException, IOException
     {
-        log.info("Moving photo " + photo.getTitle().getPlainText() + " to " + destinationAlbum.getTitle().getPlainText() );
+        log.info("Moving photo " + photo.getTitle() + " to " + destinationAlbum.getTitle().getPlainText() );
 
         AlbumFeed feed = destinationAlbum.getFeed();
         String id = feed.getGphotoId();
-        photo.setAlbumId(id );
-        photo.update();
+
+        // Re-hydrate the whole entry so the update doesn't drop the fields
+        // that the compact record doesn't carry.
+        PhotoEntry fullPhoto = getFullEntry(photo);
+        fullPhoto.setAlbumId(id );
+        fullPhoto.update();
     }
 
-    private List<UserFeed> feeds = new ArrayList<UserFeed>();
+    /**
+     * Album listings only hold compact records; this retrieves the complete
+     * entry for a photo, which is needed before writing it back to the server.
+     */
+    public PhotoEntry getFullEntry(RemotePhoto photo) throws IOException, ServiceException {
+        return service.getEntry(new URL(photo.getSelfLink()), PhotoEntry.class);
+    }
+
+    // The album list rarely changes between sync loops, so revalidate it rather than re-fetch it
+    private static final int MAX_CACHED_FEED_PAGES = 16;
+    private final FeedCache<UserFeed> albumFeedCache = new FeedCache<UserFeed>(MAX_CACHED_FEED_PAGES);
+
     /**
      * Retrieves the albums for the given user.
      * albumUrl = addParameter(albumUrl, "hidestreamid", "photos_from_posts" );
@@ -410,7 +624,7 @@ public class PicasawebClient {
     public List<AlbumEntry> getAlbums(String username, boolean showall ) throws IOException,
             ServiceException {
 
-        String albumUrl = API_PREFIX + username;
+        String albumUrl = apiPrefix + username;
 
         if( showall )
             albumUrl = addParameter( albumUrl, "showall", null );
@@ -418,9 +632,7 @@ public class PicasawebClient {
         List<AlbumEntry> albums = new ArrayList<AlbumEntry>();
 
         while( true ) {
-            UserFeed userFeed = getFeed(albumUrl, UserFeed.class);
-
-            feeds.add( userFeed );
+            UserFeed userFeed = getCachedFeed(albumUrl);
 
             List<GphotoEntry> entries = userFeed.getEntries();
 
@@ -444,6 +656,44 @@ public class PicasawebClient {
         return albums;
     }
 
+    /**
+     * Fetches a user feed page, revalidating any cached copy with its ETag so
+     * an unchanged page comes back as a 304 and the cached feed is reused.
+     */
+    private UserFeed getCachedFeed(String feedHref) throws IOException, ServiceException {
+        FeedCache.CachedFeed<UserFeed> cached = albumFeedCache.get(feedHref);
+
+        if( cached == null ) {
+            MetricsRegistry.counter(MetricsRegistry.FEED_CACHE_MISSES).increment();
+            UserFeed feed = getFeed(feedHref, UserFeed.class);
+            albumFeedCache.put(feedHref, feed.getEtag(), feed);
+            return feed;
+        }
+
+        FeedEvent event = FlightEvents.beginFeed();
+        long start = System.nanoTime();
+        UserFeed feed = null;
+
+        try {
+            feed = service.getFeed(new URL(feedHref), UserFeed.class, cached.getEtag());
+            MetricsRegistry.counter(MetricsRegistry.FEED_CACHE_MISSES).increment();
+            albumFeedCache.put(feedHref, feed.getEtag(), feed);
+            return feed;
+        }
+        catch( NotModifiedException ex ) {
+            log.debug("Feed not modified; using cached copy of " + feedHref);
+            MetricsRegistry.counter(MetricsRegistry.FEED_CACHE_HITS).increment();
+            feed = cached.getFeed();
+            return feed;
+        }
+        finally {
+            MetricsRegistry.record(Phase.feedFetch, start);
+            MetricsRegistry.counter(MetricsRegistry.FEED_PAGES).increment();
+            FlightEvents.endFeed(event, feedHref, feed != null ? feed.getEntries().size() : 0, 0, 0,
+                                    feed != null && feed == cached.getFeed());
+        }
+    }
+
     /**
      * Retrieves the albums for the currently logged-in user.  This is equivalent
      * to calling {@link #getAlbums(String, boolean)} with "default" as the username.
@@ -458,7 +708,7 @@ public class PicasawebClient {
      */
     public List<TagEntry> getTags(String uname) throws IOException,
             ServiceException {
-        String tagUrl = API_PREFIX + uname + "?kind=tag";
+        String tagUrl = apiPrefix + uname + "?kind=tag";
         UserFeed userFeed = getFeed(tagUrl, UserFeed.class);
 
         List<GphotoEntry> entries = userFeed.getEntries();
@@ -487,37 +737,170 @@ public class PicasawebClient {
             ServiceException {
 
         List<PhotoEntry> photos = new ArrayList<PhotoEntry>();
+        String feedHref = getPhotoFeedHref(album);
 
-        // If it doesn't have an ID, it's an album we haven't created yet!
-        if( album.getLinks().size() != 0 ) {
-            String feedHref = getLinkByRel(album.getLinks(), Link.Rel.FEED);
+        while (feedHref != null) {
+            AlbumFeed albumFeed = getFeed(feedHref, AlbumFeed.class);
 
-            feedHref = addParameter(feedHref, "imgmax", "d");
-            feedHref = addParameter(feedHref, "max-results", "1000");
+            List<GphotoEntry> entries = albumFeed.getEntries();
+            for (GphotoEntry entry : entries) {
+                GphotoEntry adapted = entry.getAdaptedEntry();
+                if (adapted instanceof PhotoEntry) {
+                    photos.add((PhotoEntry) adapted);
+                }
+            }
 
-            while (feedHref != null) {
-                AlbumFeed albumFeed = getFeed(feedHref, AlbumFeed.class);
+            Link nextLink = albumFeed.getNextLink();
+            if (nextLink != null) {
+                feedHref = nextLink.getHref();
+            } else {
+                feedHref = null;
+            }
+        }
 
-                List<GphotoEntry> entries = albumFeed.getEntries();
-                for (GphotoEntry entry : entries) {
-                    GphotoEntry adapted = entry.getAdaptedEntry();
-                    if (adapted instanceof PhotoEntry) {
-                        photos.add((PhotoEntry) adapted);
-                    }
+        TimeUtils.sortPhotoEntriesNewestFirst(photos);
+
+        return photos;
+    }
+
+    /**
+     * Retrieves the photos for the given album as compact records, streaming
+     * each feed page through the StAX parser instead of the GData model.
+     */
+    public List<RemotePhoto> getRemotePhotos(AlbumEntry album) throws IOException,
+            ServiceException {
+
+        final List<RemotePhoto> photos = new ArrayList<RemotePhoto>();
+
+        streamPhotos(album, new FeedParser.Listener() {
+            public void onPhoto(RemotePhoto photo) {
+                photos.add(photo);
+            }
+
+            public void onAlbum(RemoteAlbum remoteAlbum) {
+            }
+        });
+
+        TimeUtils.sortRemotePhotosNewestFirst(photos);
+
+        return photos;
+    }
+
+    /**
+     * Passes each photo in the album to the listener as it is parsed, without
+     * holding on to the feed.
+     */
+    public void streamPhotos(AlbumEntry album, FeedParser.Listener listener) throws IOException,
+            ServiceException {
+
+        String feedHref = getPhotoFeedHref(album);
+
+        while (feedHref != null) {
+            feedHref = streamFeed(feedHref, listener);
+        }
+    }
+
+    /**
+     * Retrieves the albums for the currently logged-in user as compact records.
+     */
+    public List<RemoteAlbum> getRemoteAlbums(boolean showall) throws IOException,
+            ServiceException {
+
+        String albumUrl = apiPrefix + "default";
+
+        if( showall )
+            albumUrl = addParameter( albumUrl, "showall", null );
+
+        final List<RemoteAlbum> albums = new ArrayList<RemoteAlbum>();
+
+        while (albumUrl != null) {
+            albumUrl = streamFeed(albumUrl, new FeedParser.Listener() {
+                public void onPhoto(RemotePhoto photo) {
                 }
 
-                Link nextLink = albumFeed.getNextLink();
-                if (nextLink != null) {
-                    feedHref = nextLink.getHref();
-                } else {
-                    feedHref = null;
+                public void onAlbum(RemoteAlbum album) {
+                    albums.add(album);
                 }
+            });
+        }
+
+        return albums;
+    }
+
+    /**
+     * Fetches one page of a feed and streams it through the parser.
+     * Returns the href of the next page, or null if there isn't one.
+     */
+    public String streamFeed(String feedHref, FeedParser.Listener listener) throws IOException,
+            ServiceException {
+
+        log.debug("Stream Feed URL: " + feedHref);
+
+        GDataRequest request = service.createFeedRequest(new URL(feedHref));
+        FeedEvent event = FlightEvents.beginFeed();
+
+        try {
+            long start = System.nanoTime();
+            request.execute();
+            MetricsRegistry.record(Phase.feedFetch, start);
+            MetricsRegistry.counter(MetricsRegistry.FEED_PAGES).increment();
+
+            CountingInputStream response = new CountingInputStream(request.getResponseStream());
+            EntryCounter counter = new EntryCounter(listener);
+
+            start = System.nanoTime();
+            try {
+                return FeedParser.parse(response, counter);
+            }
+            finally {
+                long parseNanos = System.nanoTime() - start;
+                MetricsRegistry.histogram(Phase.feedParse).record(parseNanos);
+                FlightEvents.endFeed(event, feedHref, counter.entries, response.getCount(), parseNanos, false);
             }
         }
+        catch (XMLStreamException ex) {
+            throw new ParseException("Unable to parse feed " + feedHref, ex);
+        }
+        finally {
+            request.end();
+        }
+    }
 
-        TimeUtils.sortPhotoEntriesNewestFirst(photos);
+    /*
+     * Passes the parsed entries on, counting them as they go.
+     */
+    private static class EntryCounter implements FeedParser.Listener {
+        private final FeedParser.Listener listener;
+        private int entries;
 
-        return photos;
+        private EntryCounter(FeedParser.Listener listener) {
+            this.listener = listener;
+        }
+
+        public void onPhoto(RemotePhoto photo) {
+            entries++;
+            listener.onPhoto(photo);
+        }
+
+        public void onAlbum(RemoteAlbum album) {
+            entries++;
+            listener.onAlbum(album);
+        }
+    }
+
+    private String getPhotoFeedHref(AlbumEntry album) throws UnsupportedEncodingException {
+
+        // If it doesn't have an ID, it's an album we haven't created yet!
+        if( album.getLinks().size() == 0 )
+            return null;
+
+        String feedHref = getLinkByRel(album.getLinks(), Link.Rel.FEED);
+
+        feedHref = addParameter(feedHref, "imgmax", "d");
+        feedHref = addParameter(feedHref, "max-results", "1000");
+        feedHref = addParameter(feedHref, "fields", URLEncoder.encode(PHOTO_FIELDS, "UTF-8"));
+
+        return feedHref;
     }
 
     /**
@@ -570,7 +953,7 @@ public class PicasawebClient {
             throws IOException, ServiceException {
         log.info( "Adding new album: " + album.getTitle().getPlainText() );
 
-        String feedUrl = API_PREFIX + "default";
+        String feedUrl = apiPrefix + "default";
         return service.insert(new URL(feedUrl), album);
     }
 
@@ -609,8 +992,22 @@ public class PicasawebClient {
      */
     public <T extends GphotoFeed> T getFeed(String feedHref,
                                             Class<T> feedClass) throws IOException, ServiceException {
-        System.out.println("Get Feed URL: " + feedHref);
-        return service.getFeed(new URL(feedHref), feedClass);
+        LogSF.debug(log, "Get Feed URL: {}", feedHref);
+
+        // The GData model fetches and parses in one go, so this is all counted as fetch
+        FeedEvent event = FlightEvents.beginFeed();
+        long start = System.nanoTime();
+        T feed = null;
+
+        try {
+            feed = service.getFeed(new URL(feedHref), feedClass);
+            return feed;
+        }
+        finally {
+            MetricsRegistry.record(Phase.feedFetch, start);
+            MetricsRegistry.counter(MetricsRegistry.FEED_PAGES).increment();
+            FlightEvents.endFeed(event, feedHref, feed != null ? feed.getEntries().size() : 0, 0, 0, false);
+        }
     }
 
     /**
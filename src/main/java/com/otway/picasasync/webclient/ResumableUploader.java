@@ -0,0 +1,463 @@
+/*
+    Copyright 2016 Mark Otway
+
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+*/
+
+package com.otway.picasasync.webclient;
+
+import com.google.api.client.auth.oauth2.Credential;
+import com.otway.picasasync.metrics.FlightEvents;
+import com.otway.picasasync.utils.StreamingDigest;
+import org.apache.commons.io.FileUtils;
+import org.apache.log4j.LogSF;
+import org.apache.log4j.Logger;
+
+import java.io.*;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Properties;
+
+/**
+ * Uploads media using the GData resumable upload protocol.
+ *
+ * The file is sent in fixed-size chunks, each of which is retried if the
+ * connection drops. The session URI is persisted in a hidden file next to
+ * the media, so an interrupted upload - even one interrupted by the app
+ * being restarted - continues from the last byte the server acknowledged.
+ */
+public class ResumableUploader
+{
+    private static final Logger log = Logger.getLogger(ResumableUploader.class);
+
+    // Chunks must be a multiple of 256KB, except for the last one.
+    private static final int CHUNK_SIZE = 32 * 256 * 1024;
+    private static final int MAX_CHUNK_RETRIES = 5;
+    private static final int RETRY_DELAY_MS = 1000;
+    private static final int TIMEOUT_MS = 30 * 1000;
+    private static final int HTTP_RESUME_INCOMPLETE = 308;
+    private static final String SESSION_SUFFIX = ".upload";
+
+    private static final String SESSION_URI = "sessionUri";
+    private static final String TARGET_URL = "targetUrl";
+    private static final String FILE_LENGTH = "length";
+    private static final String FILE_MODIFIED = "lastModified";
+
+    private final Credential credential;
+
+    public ResumableUploader( Credential credential )
+    {
+        this.credential = credential;
+    }
+
+    /**
+     * Uploads the file to the create-session URL, resuming a previous session
+     * for the same file if one was persisted. Returns the body of the final
+     * response, which is the Atom entry for the new photo.
+     *
+     * The file is hashed into the digest as it's sent; if the upload resumed
+     * part way through, the digest won't be complete.
+     */
+    public byte[] upload( URL createSessionUrl, File file, String mimeType, byte[] entryXml,
+                          StreamingDigest digest ) throws IOException
+    {
+        final long length = file.length();
+        File sessionFile = getSessionFile( file );
+
+        URL sessionUri = loadSession( sessionFile, createSessionUrl, file );
+        long offset = 0;
+
+        if( sessionUri != null )
+        {
+            log.info("Resuming interrupted upload of " + file.getName() + "...");
+            offset = queryOffset( sessionUri, length );
+
+            if( offset < 0 )
+            {
+                log.info("Upload session for " + file.getName() + " has expired. Starting again.");
+                sessionUri = null;
+                offset = 0;
+            }
+        }
+
+        if( sessionUri == null )
+        {
+            sessionUri = createSession( createSessionUrl, file, mimeType, entryXml );
+            saveSession( sessionFile, sessionUri, createSessionUrl, file );
+        }
+
+        FileChannel channel = FileChannel.open( file.toPath(), StandardOpenOption.READ );
+
+        try
+        {
+            int retries = 0;
+            boolean resync = false;
+
+            while( true )
+            {
+                try
+                {
+                    if( resync )
+                    {
+                        // Find out how much the server actually received before the connection dropped
+                        long committed = queryOffset( sessionUri, length );
+                        if( committed < 0 )
+                            throw new UploadRejectedException("Upload session expired for " + file.getName());
+
+                        offset = committed;
+                        resync = false;
+                    }
+
+                    ChunkResult result = sendChunk( sessionUri, channel, offset, length, digest );
+
+                    if( result.body != null )
+                    {
+                        LogSF.info( log, "Resumable upload of {} ({}) complete.", file.getName(),
+                                    FileUtils.byteCountToDisplaySize( length ) );
+                        deleteSession( sessionFile );
+                        return result.body;
+                    }
+
+                    // Without this, a server that keeps acknowledging nothing would be sent the same chunk forever
+                    if( result.offset <= offset )
+                        throw new IOException("Server acknowledged no new bytes at offset " + offset);
+
+                    offset = result.offset;
+                    retries = 0;
+                }
+                catch( UploadRejectedException ex )
+                {
+                    deleteSession( sessionFile );
+                    throw ex;
+                }
+                catch( IOException ex )
+                {
+                    if( ++retries > MAX_CHUNK_RETRIES )
+                    {
+                        log.warn("Giving up on chunk at offset " + offset + " of " + file.getName() + "; will resume next time.");
+                        throw ex;
+                    }
+
+                    log.warn("Chunk upload failed for " + file.getName() + " (" + ex.getMessage() + "). Retry " + retries + "...");
+                    FlightEvents.transferRetried();
+                    sleepBeforeRetry( retries );
+                    resync = true;
+                }
+            }
+        }
+        finally
+        {
+            channel.close();
+        }
+    }
+
+    private URL createSession( URL createSessionUrl, File file, String mimeType, byte[] entryXml ) throws IOException
+    {
+        log.debug("Creating upload session for " + file.getName() + "...");
+
+        HttpURLConnection conn = openConnection( createSessionUrl, "POST" );
+        conn.setRequestProperty("Content-Type", "application/atom+xml; charset=UTF-8");
+        conn.setRequestProperty("X-Upload-Content-Type", mimeType);
+        conn.setRequestProperty("X-Upload-Content-Length", Long.toString(file.length()));
+        conn.setRequestProperty("Slug", file.getName());
+        conn.setDoOutput(true);
+        conn.setFixedLengthStreamingMode(entryXml.length);
+
+        try
+        {
+            OutputStream os = conn.getOutputStream();
+            os.write(entryXml);
+            os.close();
+
+            int status = conn.getResponseCode();
+            String location = conn.getHeaderField("Location");
+
+            if( status != HttpURLConnection.HTTP_OK && status != HttpURLConnection.HTTP_CREATED || location == null )
+                throw new IOException("Unable to create upload session: HTTP " + status + " " + conn.getResponseMessage());
+
+            return new URL(location);
+        }
+        finally
+        {
+            conn.disconnect();
+        }
+    }
+
+    /*
+     * Returns the offset of the first byte the server doesn't have yet,
+     * or -1 if the session no longer exists.
+     */
+    private long queryOffset( URL sessionUri, long length ) throws IOException
+    {
+        HttpURLConnection conn = openConnection( sessionUri, "PUT" );
+        conn.setRequestProperty("Content-Range", "bytes */" + length);
+        conn.setDoOutput(true);
+        conn.setFixedLengthStreamingMode(0);
+
+        try
+        {
+            conn.getOutputStream().close();
+
+            int status = conn.getResponseCode();
+
+            if( status == HTTP_RESUME_INCOMPLETE )
+                return getNextOffset( conn, 0 );
+
+            if( status == HttpURLConnection.HTTP_OK || status == HttpURLConnection.HTTP_CREATED )
+                return length;
+
+            if( status == HttpURLConnection.HTTP_NOT_FOUND || status == HttpURLConnection.HTTP_GONE )
+                return -1;
+
+            throw new IOException("Unable to query upload status: HTTP " + status);
+        }
+        finally
+        {
+            conn.disconnect();
+        }
+    }
+
+    private ChunkResult sendChunk( URL sessionUri, FileChannel channel, long offset, long length,
+                                   StreamingDigest digest ) throws IOException
+    {
+        long chunkLength = Math.min( CHUNK_SIZE, length - offset );
+        long last = offset + chunkLength - 1;
+
+        HttpURLConnection conn = openConnection( sessionUri, "PUT" );
+        conn.setDoOutput(true);
+        conn.setFixedLengthStreamingMode(chunkLength);
+
+        if( chunkLength > 0 )
+            conn.setRequestProperty("Content-Range", "bytes " + offset + "-" + last + "/" + length);
+        else
+            conn.setRequestProperty("Content-Range", "bytes */" + length);
+
+        try
+        {
+            OutputStream os = conn.getOutputStream();
+            ByteBuffer buffer = ByteBuffer.allocate( 64 * 1024 );
+            long position = offset;
+
+            while( position <= last )
+            {
+                buffer.clear();
+                if( last - position + 1 < buffer.capacity() )
+                    buffer.limit( (int)(last - position + 1) );
+
+                int read = channel.read( buffer, position );
+                if( read < 0 )
+                    throw new IOException("File was truncated during upload.");
+
+                os.write( buffer.array(), 0, read );
+                if( digest != null )
+                    digest.update( buffer.array(), 0, read, position );
+                position += read;
+            }
+            os.close();
+
+            int status = conn.getResponseCode();
+
+            // No Range header means the server has none of the file
+            if( status == HTTP_RESUME_INCOMPLETE )
+                return new ChunkResult( getNextOffset( conn, 0 ), null );
+
+            if( status == HttpURLConnection.HTTP_OK || status == HttpURLConnection.HTTP_CREATED )
+                return new ChunkResult( length, readFully( conn.getInputStream() ) );
+
+            if( status >= 500 )
+                throw new IOException("Server error during chunk upload: HTTP " + status);
+
+            throw new UploadRejectedException("Chunk rejected: HTTP " + status + " " + conn.getResponseMessage());
+        }
+        finally
+        {
+            conn.disconnect();
+        }
+    }
+
+    private long getNextOffset( HttpURLConnection conn, long defaultOffset )
+    {
+        // Range header is of the form 'bytes=0-12345', the last byte received
+        String range = conn.getHeaderField("Range");
+
+        if( range == null )
+            return defaultOffset;
+
+        int dash = range.lastIndexOf('-');
+        return Long.parseLong( range.substring( dash + 1 ).trim() ) + 1;
+    }
+
+    private HttpURLConnection openConnection( URL url, String method ) throws IOException
+    {
+        HttpURLConnection conn = (HttpURLConnection)url.openConnection();
+        conn.setRequestMethod(method);
+        conn.setConnectTimeout(TIMEOUT_MS);
+        conn.setReadTimeout(TIMEOUT_MS);
+        conn.setRequestProperty("GData-Version", "2");
+        conn.setRequestProperty("Authorization", "Bearer " + credential.getAccessToken());
+        return conn;
+    }
+
+    private static byte[] readFully( InputStream is ) throws IOException
+    {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        byte b[] = new byte[8096];
+        int readCount;
+
+        try
+        {
+            while( (readCount = is.read(b)) != -1 )
+                bos.write(b, 0, readCount);
+        }
+        finally
+        {
+            is.close();
+        }
+
+        return bos.toByteArray();
+    }
+
+    private void sleepBeforeRetry( int retry ) throws IOException
+    {
+        try
+        {
+            Thread.sleep( RETRY_DELAY_MS * (1L << (retry - 1)) );
+        }
+        catch( InterruptedException ex )
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to retry upload.");
+        }
+    }
+
+    private static File getSessionFile( File file )
+    {
+        return new File( file.getParentFile(), "." + file.getName() + SESSION_SUFFIX );
+    }
+
+    /**
+     * True if the name is that of a persisted upload session, which the
+     * local folder scan should ignore.
+     */
+    public static boolean isSessionFile( String name )
+    {
+        return name.startsWith( "." ) && name.endsWith( SESSION_SUFFIX );
+    }
+
+    private URL loadSession( File sessionFile, URL createSessionUrl, File file )
+    {
+        if( ! sessionFile.exists() )
+            return null;
+
+        Properties props = new Properties();
+
+        try
+        {
+            InputStream is = new FileInputStream( sessionFile );
+            try
+            {
+                props.load( is );
+            }
+            finally
+            {
+                is.close();
+            }
+
+            // Only resume if it's the same file going to the same place
+            if( createSessionUrl.toString().equals( props.getProperty(TARGET_URL) ) &&
+                    Long.toString( file.length() ).equals( props.getProperty(FILE_LENGTH) ) &&
+                    Long.toString( file.lastModified() ).equals( props.getProperty(FILE_MODIFIED) ) )
+            {
+                return new URL( props.getProperty(SESSION_URI) );
+            }
+
+            log.info("Discarding stale upload session for " + file.getName());
+        }
+        catch( Exception ex )
+        {
+            log.warn("Unable to read upload session " + sessionFile, ex);
+        }
+
+        deleteSession( sessionFile );
+        return null;
+    }
+
+    private void saveSession( File sessionFile, URL sessionUri, URL createSessionUrl, File file )
+    {
+        Properties props = new Properties();
+        props.setProperty(SESSION_URI, sessionUri.toString());
+        props.setProperty(TARGET_URL, createSessionUrl.toString());
+        props.setProperty(FILE_LENGTH, Long.toString(file.length()));
+        props.setProperty(FILE_MODIFIED, Long.toString(file.lastModified()));
+
+        try
+        {
+            OutputStream os = new FileOutputStream( sessionFile );
+            try
+            {
+                props.store( os, "Picasync upload session" );
+            }
+            finally
+            {
+                os.close();
+            }
+
+            try
+            {
+                Files.setAttribute( sessionFile.toPath(), "dos:hidden", true );
+            }
+            catch( Exception ex )
+            {
+                // Not a DOS file system
+            }
+        }
+        catch( IOException ex )
+        {
+            // Not fatal - we just won't be able to resume after a restart
+            log.warn("Unable to save upload session for " + file.getName(), ex);
+        }
+    }
+
+    private void deleteSession( File sessionFile )
+    {
+        if( sessionFile.exists() && ! sessionFile.delete() )
+            log.warn("Unable to delete upload session file " + sessionFile);
+    }
+
+    private static class ChunkResult
+    {
+        private final long offset;
+        private final byte[] body;
+
+        private ChunkResult( long offset, byte[] body )
+        {
+            this.offset = offset;
+            this.body = body;
+        }
+    }
+
+    /**
+     * The server refused the upload outright, so there's no point retrying.
+     */
+    public static class UploadRejectedException extends IOException
+    {
+        public UploadRejectedException( String message )
+        {
+            super( message );
+        }
+    }
+}